@@ -0,0 +1,128 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Bivariate linear approximation of the reference orbit, for skipping iterations anywhere along a
+ * pixel's orbit rather than only at its start.
+ * <p>
+ * While |dz| is small next to |Z_m|, the perturbation step dz' = 2 Z_m dz + dz^2 + dc is close to
+ * the linear map dz' = A dz + B dc with A = 2 Z_m and B = 1. Two consecutive linear steps compose
+ * into another one:
+ * <pre>
+ *   A = A_y A_x,   B = A_y B_x + B_y,   R = min(R_x, (R_y - |B_x| |dc|) / |A_x|)
+ * </pre>
+ * where R is the radius of dz inside which a step may be used. Merging neighbours level by level
+ * gives a binary tree in which level k holds steps of 2^k iterations starting at multiples of 2^k.
+ * A pixel at iteration m takes the longest step starting at m whose radius contains its dz, and
+ * falls back to an ordinary perturbation step when there is none.
+ * <p>
+ * Single steps are never stored, as taking one costs as much as iterating; the tree starts at
+ * level 1.
+ */
+
+final class BlaTable {
+
+    // largest allowed size of the dropped dz^2 term relative to the linear term, the precision
+    // of a double; anything looser visibly moves band edges in views with long orbits
+    static final double EPSILON = 0x1p-53;
+
+    // [level - 1][m >> level]
+    final double[][] mAr, mAi, mBr, mBi, mR;
+    final int mLevels;
+
+    /**
+     * @param dcRadius Largest |dc| of any pixel iterated with the table.
+     */
+    BlaTable(ReferenceOrbit orbit, double dcRadius) {
+        // a step from iteration m needs Z_m and must land on a stored Z
+        int steps = Math.max(orbit.mLength - 1, 0);
+        int levels = 0;
+        while ((2 << levels) <= steps) {
+            levels++;
+        }
+        mLevels = levels;
+
+        mAr = new double[levels][];
+        mAi = new double[levels][];
+        mBr = new double[levels][];
+        mBi = new double[levels][];
+        mR = new double[levels][];
+
+        if (levels == 0) return;
+
+        // level 1 from pairs of single steps
+        int count = steps >> 1;
+        allocateLevel(0, count);
+        for (int j = 0; j < count; j++) {
+            int m = j << 1;
+            double xr = 2d * orbit.mZr[m], xi = 2d * orbit.mZi[m];
+            double yr = 2d * orbit.mZr[m + 1], yi = 2d * orbit.mZi[m + 1];
+            double rx = EPSILON * Math.hypot(xr, xi);
+            double ry = EPSILON * Math.hypot(yr, yi);
+
+            // B_x = B_y = 1
+            mAr[0][j] = yr * xr - yi * xi;
+            mAi[0][j] = yr * xi + yi * xr;
+            mBr[0][j] = yr + 1d;
+            mBi[0][j] = yi;
+            mR[0][j] = Math.min(rx, Math.max(0d, (ry - dcRadius) / Math.hypot(xr, xi)));
+        }
+
+        for (int level = 1; level < levels; level++) {
+            count = steps >> (level + 1);
+            allocateLevel(level, count);
+            double[] ar = mAr[level - 1], ai = mAi[level - 1];
+            double[] br = mBr[level - 1], bi = mBi[level - 1];
+            double[] r = mR[level - 1];
+
+            for (int j = 0; j < count; j++) {
+                int x = j << 1;
+                int y = x + 1;
+
+                mAr[level][j] = ar[y] * ar[x] - ai[y] * ai[x];
+                mAi[level][j] = ar[y] * ai[x] + ai[y] * ar[x];
+                mBr[level][j] = (ar[y] * br[x] - ai[y] * bi[x]) + br[y];
+                mBi[level][j] = (ar[y] * bi[x] + ai[y] * br[x]) + bi[y];
+                mR[level][j] = Math.min(r[x], Math.max(0d,
+                        (r[y] - Math.hypot(br[x], bi[x]) * dcRadius) / Math.hypot(ar[x], ai[x])));
+            }
+        }
+    }
+
+    private void allocateLevel(int index, int count) {
+        mAr[index] = new double[count];
+        mAi[index] = new double[count];
+        mBr[index] = new double[count];
+        mBi[index] = new double[count];
+        mR[index] = new double[count];
+    }
+
+    static BlaTable forView(RenderView view, ReferenceOrbit orbit) {
+        return new BlaTable(orbit, view.viewRadius());
+    }
+
+    /**
+     * Finds the longest step starting at iteration m that is valid for an offset with
+     * |dz|^2 = dz2.
+     * <p>
+     * A merged step is never valid further out than its first half, so radii only shrink going up
+     * the tree from a given m, and the search can climb from level 1 and stop at the first level
+     * that fails. Most failed lookups then cost a single comparison.
+     *
+     * @return The level of the step, taking 2^level iterations, or 0 if there is none.
+     */
+    int find(int m, double dz2) {
+        // steps at level k start at multiples of 2^k; m = 0 is a multiple of all of them
+        int top = Math.min(Integer.numberOfTrailingZeros(m), mLevels);
+        int level = 0;
+        double r;
+
+        while (level < top) {
+            int j = m >> (level + 1);
+            if (j >= mR[level].length) break;
+            r = mR[level][j];
+            if (!(dz2 < r * r)) break;
+            level++;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.phillip.fractalexplorer;
+
+import java.nio.ByteOrder;
+
+/**
+ * How escape counts are mapped onto the colours of a Palette. A transfer function takes the count
+ * i of an escaping point to a position t in [0, 1) along the palette, and the colour is the one at
+ * texel floor(t * size):
+ * <pre>
+ *   LINEAR   t = i / limit
+ *   LOG      t = log(1 + i) / log(1 + limit)
+ *   CYCLIC   t = fract((i + offset) / period)
+ * </pre>
+ * Points that never escape take the last colour of the palette.
+ * <p>
+ * By default the palette has a colour per iteration, which is what the gradient texture has
+ * always held. That palette grows with the escape limit, has to be sampled and uploaded again
+ * whenever the limit changes, and is capped at MAX_PALETTE_SIZE colours so that it stays within
+ * the texture sizes GL implementations support. A mapping with a fixed palette size keeps the
+ * same palette for any escape limit. CYCLIC mappings sample the gradient periodically, so that the
+ * colour after the last one is the first again, and changing their offset cycles the colours
+ * without touching the palette at all.
+ * <p>
+ * The shaders evaluate the transfer function from the uniform values of uniforms(); texel()
+ * gives the CPU renderer the same texels.
+ */
+
+public final class ColourMapping {
+
+    public static final int LINEAR = 0;
+    public static final int LOG = 1;
+    public static final int CYCLIC = 2;
+
+    // palette size asking for a colour per iteration up to the escape limit
+    public static final int PER_ITERATION = 0;
+    // wider textures are not supported everywhere
+    public static final int MAX_PALETTE_SIZE = 4096;
+    public static final int DEFAULT_PALETTE_SIZE = 1024;
+
+    /**
+     * A colour per iteration, the way the gradient texture was always built.
+     */
+    public static final ColourMapping ESCAPE_LIMIT =
+            new ColourMapping(LINEAR, PER_ITERATION, 1f, 0f);
+
+    private final int mTransfer;
+    private final int mPaletteSize;
+    private final float mPeriod;
+    private final float mOffset;
+
+    private ColourMapping(int transfer, int paletteSize, float period, float offset) {
+        if (paletteSize < 0 || paletteSize > MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("Unsupported palette size " + paletteSize);
+        }
+        if (!(period > 0f)) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        mTransfer = transfer;
+        mPaletteSize = paletteSize;
+        mPeriod = period;
+        mOffset = offset;
+    }
+
+    public static ColourMapping linear(int paletteSize) {
+        return new ColourMapping(LINEAR, fixedSize(paletteSize), 1f, 0f);
+    }
+
+    public static ColourMapping log(int paletteSize) {
+        return new ColourMapping(LOG, fixedSize(paletteSize), 1f, 0f);
+    }
+
+    /**
+     * Runs through the palette once every period iterations, starting offset iterations in.
+     */
+    public static ColourMapping cyclic(int paletteSize, float period, float offset) {
+        return new ColourMapping(CYCLIC, fixedSize(paletteSize), period, offset);
+    }
+
+    private static int fixedSize(int paletteSize) {
+        if (paletteSize <= 0) {
+            throw new IllegalArgumentException("Palette size must be positive: " + paletteSize);
+        }
+        return paletteSize;
+    }
+
+    /**
+     * The same mapping with the colours cycled to another offset; the palette stays the same.
+     */
+    public ColourMapping withOffset(float offset) {
+        return new ColourMapping(mTransfer, mPaletteSize, mPeriod, offset);
+    }
+
+    public int getTransfer() {
+        return mTransfer;
+    }
+
+    public float getPeriod() {
+        return mPeriod;
+    }
+
+    public float getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Whether the palette wraps around, its last colour leading back to its first.
+     */
+    public boolean isPeriodic() {
+        return mTransfer == CYCLIC;
+    }
+
+    /**
+     * Number of colours in the palette used at the given escape limit.
+     */
+    public int paletteSize(int escapeLimit) {
+        return mPaletteSize == PER_ITERATION
+                ? Math.min(escapeLimit, MAX_PALETTE_SIZE)
+                : mPaletteSize;
+    }
+
+    /**
+     * Samples the gradient into the palette this mapping looks colours up in.
+     */
+    public Palette compile(Gradient gradient, int escapeLimit) {
+        return gradient.compile(paletteSize(escapeLimit), isPeriodic());
+    }
+
+    /**
+     * Palette texel for the escape count i, as the shaders sample it.
+     */
+    public int texel(int i, int escapeLimit, int paletteSize) {
+        if (i >= escapeLimit) return paletteSize - 1;
+
+        float t;
+        switch (mTransfer) {
+            case LOG:
+                t = (float) (Math.log1p(i) / Math.log1p(escapeLimit));
+                break;
+            case CYCLIC:
+                t = (i + mOffset) / mPeriod;
+                t -= (float) Math.floor(t);
+                break;
+            default:
+                // exact, so that a palette of escape limit colours gives texel i
+                return (int) ((long) i * paletteSize / escapeLimit);
+        }
+        return Math.min((int) (t * paletteSize), paletteSize - 1);
+    }
+
+    /**
+     * The packed colour of every escape count from 0 to the escape limit, laid out for putInt()
+     * into a buffer of the given byte order.
+     */
+    int[] colourTable(Palette palette, int escapeLimit, ByteOrder order) {
+        int[] packed = palette.packed(order);
+        int[] table = new int[escapeLimit + 1];
+        for (int i = 0; i <= escapeLimit; i++) {
+            table[i] = packed[texel(i, escapeLimit, packed.length)];
+        }
+        return table;
+    }
+
+    /**
+     * Values for the u_transfer uniform: the transfer function, period, offset and the texture
+     * coordinate of the last texel, where points that never escape are coloured.
+     */
+    void uniforms(float[] out, int paletteSize) {
+        out[0] = mTransfer;
+        out[1] = mPeriod;
+        out[2] = mOffset;
+        out[3] = (paletteSize - 0.5f) / paletteSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ColourMapping)) return false;
+        ColourMapping m = (ColourMapping) o;
+        return mTransfer == m.mTransfer
+                && mPaletteSize == m.mPaletteSize
+                && Float.compare(mPeriod, m.mPeriod) == 0
+                && Float.compare(mOffset, m.mOffset) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = mTransfer;
+        h = 31 * h + mPaletteSize;
+        h = 31 * h + Float.floatToIntBits(mPeriod);
+        return 31 * h + Float.floatToIntBits(mOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "ColourMapping[transfer=" + mTransfer
+                + ", size=" + (mPaletteSize == PER_ITERATION ? "limit" : mPaletteSize)
+                + ", period=" + mPeriod
+                + ", offset=" + mOffset + "]";
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.phillip.fractalexplorer;
+
+import java.util.Arrays;
+
+/**
+ * Splits the tiles of a frame so that none of them is expected to cost much more than a fair
+ * share of the frame. Escape cost is very uneven: a tile on the boundary of the set can cost a
+ * thousand times one outside it, and a frame whose last tile is such a one leaves every other
+ * worker idle while it finishes.
+ * <p>
+ * The cost of a pixel is estimated as its escape count plus PIXEL_OVERHEAD iterations for setting
+ * it up. The counts come from the previous frame's IterationField, sampled every SAMPLE_SPACING
+ * pixels, which is close to the next frame's for as long as the view moves by a small part of
+ * itself at a time. Without a previous frame, a probe iterates one pixel in every PROBE_SPACING
+ * pixels each way first.
+ * <p>
+ * Tiles costing more than the total divided by CHUNKS_PER_WORKER times the number of workers are
+ * cut in half across their longer side, and the halves treated the same way, down to
+ * MIN_CHUNK_SIZE pixels a side.
+ */
+
+final class CostPartitioner {
+
+    static final int SAMPLE_SPACING = 4;
+    static final int PROBE_SPACING = 16;
+    static final int CHUNKS_PER_WORKER = 4;
+    static final int MIN_CHUNK_SIZE = 8;
+    static final int PIXEL_OVERHEAD = 16;
+
+    private final int mWidth;
+    // the counts to estimate from: a field, or probe samples every mSpacing pixels
+    private final IterationField mField;
+    private final int[] mProbe;
+    private final int mSpacing;
+
+    private CostPartitioner(int width, IterationField field, int[] probe, int spacing) {
+        mWidth = width;
+        mField = field;
+        mProbe = probe;
+        mSpacing = spacing;
+    }
+
+    /**
+     * Estimates costs from the counts of a previous frame of the same size.
+     */
+    static CostPartitioner fromField(IterationField field) {
+        return new CostPartitioner(field.getWidth(), field, null, SAMPLE_SPACING);
+    }
+
+    /**
+     * Estimates costs from a probe of the kernel's view. The probe's own work is counted in
+     * stats.
+     */
+    static CostPartitioner probe(EscapeKernel kernel, RenderStatistics stats) {
+        RenderView view = kernel.mView;
+        int columns = (view.mWidth + PROBE_SPACING - 1) / PROBE_SPACING;
+        int rows = (view.mHeight + PROBE_SPACING - 1) / PROBE_SPACING;
+        int[] probe = new int[columns * rows];
+        KernelScratch scratch = new KernelScratch();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                // the middle of each cell, clipped to the view
+                int x = Math.min(column * PROBE_SPACING + PROBE_SPACING / 2, view.mWidth - 1);
+                int y = Math.min(row * PROBE_SPACING + PROBE_SPACING / 2, view.mHeight - 1);
+                int i = kernel.escapeTime(x, y, stats, scratch);
+                // a glitched pixel costs at least as much as one that never escapes
+                probe[row * columns + column] =
+                        i == EscapeKernel.GLITCHED ? view.mEscapeLimit : i;
+            }
+        }
+        stats.mPixelsProbed += probe.length;
+        return new CostPartitioner(view.mWidth, null, probe, PROBE_SPACING);
+    }
+
+    /**
+     * Whether the counts of this field can stand in for those of the view.
+     */
+    static boolean canEstimate(IterationField field, RenderView view) {
+        return field != null && field.getWidth() == view.mWidth
+                && field.getHeight() == view.mHeight;
+    }
+
+    private int count(int x, int y) {
+        if (mField != null) return mField.get(y * mWidth + x);
+        int columns = (mWidth + mSpacing - 1) / mSpacing;
+        return mProbe[(y / mSpacing) * columns + x / mSpacing];
+    }
+
+    /**
+     * Estimated iterations of the pixels [x0, x1) x [y0, y1).
+     */
+    long cost(int x0, int y0, int x1, int y1) {
+        // sample on the spacing grid, weighting each sample by the pixels it stands for
+        long sum = 0;
+        int samples = 0;
+        for (int y = y0 + (y1 - y0 - 1) % mSpacing / 2; y < y1; y += mSpacing) {
+            for (int x = x0 + (x1 - x0 - 1) % mSpacing / 2; x < x1; x += mSpacing) {
+                sum += count(x, y) + PIXEL_OVERHEAD;
+                samples++;
+            }
+        }
+        return samples == 0 ? 0 : sum * (x1 - x0) * (y1 - y0) / samples;
+    }
+
+    /**
+     * Cuts the tiles, x0, y0, x1, y1 each, into chunks of about equal cost for the given number of
+     * workers. Chunks cover exactly the pixels of the tiles.
+     */
+    int[] partition(int[] tiles, int workers) {
+        int count = tiles.length / 4;
+        long[] costs = new long[count];
+        long total = 0;
+        for (int t = 0; t < count; t++) {
+            costs[t] = cost(tiles[t * 4], tiles[t * 4 + 1], tiles[t * 4 + 2], tiles[t * 4 + 3]);
+            total += costs[t];
+        }
+        long target = Math.max(total / ((long) workers * CHUNKS_PER_WORKER), 1L);
+
+        IntList chunks = new IntList(tiles.length);
+        for (int t = 0; t < count; t++) {
+            split(chunks, tiles[t * 4], tiles[t * 4 + 1], tiles[t * 4 + 2], tiles[t * 4 + 3],
+                    costs[t], target);
+        }
+        return chunks.toArray();
+    }
+
+    private void split(IntList chunks, int x0, int y0, int x1, int y1, long cost, long target) {
+        boolean wide = x1 - x0 >= y1 - y0;
+        int side = wide ? x1 - x0 : y1 - y0;
+        if (cost <= target || side < MIN_CHUNK_SIZE * 2) {
+            chunks.add(x0, y0, x1, y1);
+            return;
+        }
+
+        if (wide) {
+            int middle = (x0 + x1) >>> 1;
+            split(chunks, x0, y0, middle, y1, cost(x0, y0, middle, y1), target);
+            split(chunks, middle, y0, x1, y1, cost(middle, y0, x1, y1), target);
+        } else {
+            int middle = (y0 + y1) >>> 1;
+            split(chunks, x0, y0, x1, middle, cost(x0, y0, x1, middle), target);
+            split(chunks, x0, middle, x1, y1, cost(x0, middle, x1, y1), target);
+        }
+    }
+
+    // rectangles, four ints each, appended to a growing array
+    private static final class IntList {
+        private int[] mValues;
+        private int mSize;
+
+        IntList(int capacity) {
+            mValues = new int[Math.max(capacity, 4)];
+        }
+
+        void add(int x0, int y0, int x1, int y1) {
+            if (mSize + 4 > mValues.length) {
+                mValues = Arrays.copyOf(mValues, mValues.length * 2);
+            }
+            mValues[mSize++] = x0;
+            mValues[mSize++] = y0;
+            mValues[mSize++] = x1;
+            mValues[mSize++] = y1;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
@@ -0,0 +1,1192 @@
+package com.example.phillip.fractalexplorer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a RenderView into an RGBA byte buffer without a GL context.
+ * <p>
+ * The frame is cut into square tiles which are handed to a fork-join pool. The tiles are ordered
+ * outward from the focus, the centre of the view unless setFocus() names the point the user is
+ * touching, and each worker takes the next tile in that order whenever it finishes one, so the
+ * part of the frame being looked at completes first. With more than one worker, tiles expected to
+ * cost more than a fair share of the frame are first split by a CostPartitioner, so that the
+ * frame does not end with one worker finishing an expensive tile while the rest are idle. The
+ * statistics record how long each worker was busy and idle.
+ * <p>
+ * Every frame belongs to the generation current when it started. cancel() starts a new one, from
+ * any thread, and the workers of an older frame stop at the next row or tile they come to and
+ * drop the rest, so that a gesture does not have to wait for a frame of a view it has already
+ * moved away from.
+ * <p>
+ * The escape counts come from an EscapeKernel mirroring the fragment shader of the view's
+ * precision model and are kept in an IterationField. Colouring is a separate pass over the field,
+ * sampling the gradient the way the shader samples the gradient texture, so the output matches
+ * what TexturedMandelbrot draws on screen, and a new gradient can be applied to the last frame
+ * with colour() without computing it again.
+ * <p>
+ * Kernels that detect glitches leave the pixels they cannot finish flagged. Once every tile is
+ * done, the glitched pixels are grouped into connected regions and each of the largest regions is
+ * recomputed from a new reference at its centre, for up to MAX_GLITCH_PASSES passes. Whatever is
+ * left after that is finished without glitch detection.
+ * <p>
+ * With precision chosen per tile, each tile asks PrecisionSelector whether a cheaper kernel than
+ * the view's own will do for its part of the plane.
+ * <p>
+ * With subdivision on, tiles are rendered by Mariani-Silver subdivision instead of pixel by
+ * pixel. Only the border of a rectangle is computed; if every pixel on it has the same escape
+ * count the inside is filled with that count, otherwise the rectangle is cut in two across its
+ * longer side and each half treated the same way. The Mandelbrot set is connected, so a border of
+ * points that never escape encloses nothing but such points, and the main cardioid and bulbs cost
+ * only their outlines. Escape bands are not connected in the same way, and a filament thinner
+ * than a pixel that crosses a uniform border without touching a computed pixel can be lost; the
+ * statistics count filled pixels separately so the saving can be weighed against that.
+ * <p>
+ * With incremental pan on, a frame that is the previous frame moved by a whole number of pixels
+ * starts from the previous escape counts shifted into place, and only the rows and columns
+ * brought into view are cut into tiles and computed. With zoom reuse on, a frame that is the
+ * previous one zoomed by a power of two takes the counts of its pixels lying on pixel centres of
+ * the previous frame, and computes the rest around them. With a TileCache, a frame starts from
+ * every pixel the cache has of it, and leaves its tiles there once it is complete.
+ * <p>
+ * refine() computes a frame progressively, a coarse pass first and finer ones after it, so that a
+ * caller with a frame deadline always has something to show and can carry on refining the same
+ * view on later frames.
+ * <p>
+ * Kernels that can resume an orbit leave the orbits of pixels reaching the escape limit in an
+ * OrbitField, as long as the frame computes every pixel itself. A frame of the same view at a
+ * higher limit then keeps the pixels that escaped and carries on the rest from where they
+ * stopped, so raising the limit costs only the extra iterations. With precision per tile, each
+ * orbit goes back to a kernel of the model that left it, and pixels of tiles whose kernel can
+ * not resume start again.
+ */
+
+public class CpuRenderer {
+    private static final String TAG = FractalExplorerActivity.TAG;
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    //R,G,B,A values each held in 1 byte values 00-ff
+    public static final int BYTES_PER_PIXEL = 4;
+
+    static final int MAX_GLITCH_PASSES = 4;
+    // every region costs a full high precision orbit, so only the largest few get their own
+    static final int MAX_REFERENCES_PER_PASS = 16;
+    // rectangles this narrow are computed outright, as their border is most of their area
+    static final int MIN_SUBDIVISION_SIZE = 4;
+    // how far from a pixel centre of the previous frame a pixel may be and still take its count
+    static final double GRID_TOLERANCE = 1e-6;
+    // side of the blocks the first pass of refine() computes one pixel of
+    static final int COARSEST_BLOCK = 8;
+    // each pass of refine() computes about this many times the pixels of the pass before
+    static final int PASS_GROWTH = 4;
+    // doubles per pixel of the orbits of a frame with precision per tile, enough for any kernel
+    // a tile can be given that resumes
+    static final int TILE_ORBIT_COMPONENTS =
+            Math.max(F64Kernel.ORBIT_COMPONENTS, DoubleDoubleKernel.ORBIT_COMPONENTS);
+
+    private final ForkJoinPool mPool;
+    private final int mTileSize;
+    private final RenderStatistics mStatistics = new RenderStatistics();
+    private volatile boolean mPrecisionPerTile;
+    private volatile boolean mSubdivision;
+    private volatile boolean mIncrementalPan;
+    private volatile boolean mZoomReuse;
+    private volatile TileCache mTileCache;
+    // orbit perturbation frames are iterated against, if not that of their centre
+    private volatile ReferenceOrbit mReferenceOrbit;
+    // the point tiles are ordered outward from, in pixels; NaN for the centre of the view
+    private volatile float mFocusX = Float.NaN;
+    private volatile float mFocusY = Float.NaN;
+    // frames started before the current generation are dropped
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    // counts of the most recent frame, reused by the next frame of the same size and limit
+    private IterationField mField;
+    // the field before mField, kept to resample into
+    private IterationField mSpareField;
+    // whether mField has held no counts since it was allocated, leaving nothing to estimate from
+    private boolean mFieldFresh;
+    // the view mField holds, and the settings it was computed with; null if it holds none
+    private RenderView mFieldView;
+    private boolean mFieldPrecisionPerTile;
+    private boolean mFieldSubdivision;
+    // block size of the last pass completed on mFieldView, 1 once every pixel is computed
+    private int mFieldBlock;
+    // while refining, a flag per pixel computed so far, the kernels of the view, and how long
+    // the last pass took
+    private byte[] mKnown;
+    private EscapeKernel[] mPassKernels;
+    private long mPassNanos;
+    // the orbits of the pixels of mField that reached its limit, and the view they belong to;
+    // null if the field holds pixels that were never iterated to that limit
+    private OrbitField mOrbits;
+    private RenderView mOrbitView;
+    // colours of every escape count, and what they were built from
+    private int[] mColourTable;
+    private Palette mTablePalette;
+    private ColourMapping mTableMapping;
+    private int mTableLimit;
+    private ByteOrder mTableOrder;
+
+    public CpuRenderer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+    }
+
+    public CpuRenderer(int parallelism, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        mPool = new ForkJoinPool(parallelism);
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Allocates a direct buffer large enough to hold a rendering of the view.
+     */
+    public static ByteBuffer allocateFrame(RenderView view) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(view.getPixelCount() * BYTES_PER_PIXEL);
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+
+    /**
+     * Renders the view into out, top row first, at BYTES_PER_PIXEL bytes per pixel. Only absolute
+     * puts are used, so the position and limit of out are left alone. Frames are rendered one at a
+     * time; the call blocks until every tile is complete.
+     *
+     * @param view The frame to render.
+     * @param gradient Colours to sample, exactly as the gradient texture would be built from it.
+     * @param out Destination, at least view.getPixelCount() * BYTES_PER_PIXEL bytes long.
+     */
+    public void render(RenderView view, Gradient gradient, ByteBuffer out) {
+        render(view, gradient, ColourMapping.ESCAPE_LIMIT, out);
+    }
+
+    /**
+     * Renders the view into out, with colours mapped from the gradient as the shaders map them
+     * for the given mapping.
+     */
+    public void render(RenderView view, Gradient gradient, ColourMapping mapping,
+                       ByteBuffer out) {
+        render(view, mapping.compile(gradient, view.mEscapeLimit), mapping, out);
+    }
+
+    /**
+     * Renders the view into out, coloured from a palette compiled for the mapping.
+     */
+    public synchronized void render(RenderView view, Palette palette, ColourMapping mapping,
+                                    ByteBuffer out) {
+        checkCapacity(out, view.getPixelCount());
+        compute(view);
+        colour(palette, mapping, out);
+    }
+
+    /**
+     * Computes the escape counts of the view without colouring them. The field returned belongs
+     * to the renderer and is overwritten by the next frame. A frame cancelled before it completes
+     * leaves the field holding part of it, and isComplete() false.
+     */
+    public synchronized IterationField compute(RenderView view) {
+        long start = System.nanoTime();
+        mStatistics.reset();
+        if (resume(view)) {
+            finishStatistics(start);
+            return mField;
+        }
+
+        int[] rects = null;
+        byte[] known = null;
+        double[] map = previousGrid(view);
+        if (map != null && map[0] == 1d && mIncrementalPan) {
+            rects = pan(view, map[1], map[2]);
+        } else if (map != null && map[0] != 1d && mZoomReuse) {
+            known = zoom(view, map[0], map[1], map[2]);
+        }
+        if (rects == null) {
+            known = fromCache(view, known);
+        }
+        // orbits are only kept for frames computed from scratch
+        EscapeKernel[] kernels = newKernels(view, rects == null && known == null);
+        if (rects == null) {
+            rects = new int[] {0, 0, view.mWidth, view.mHeight};
+        }
+
+        computePass(view, kernels, 1, rects, known, 0);
+        finishStatistics(start);
+        return mField;
+    }
+
+    /**
+     * Computes the escape counts of the view progressively, taking not much longer than
+     * budgetNanos. A view other than the one last refined starts with a coarse pass that computes
+     * one pixel in every COARSEST_BLOCK x COARSEST_BLOCK block and gives the whole block its
+     * count; each pass after that halves the block, computing only the pixels no earlier pass
+     * has, until the last computes every pixel left. Refining the same view again carries on
+     * from the last pass completed. The first pass of a call always runs; later ones only when
+     * they are expected to finish within the budget.
+     * <p>
+     * A view that is the previous, complete one moved by whole pixels is computed outright, as
+     * the strips it brings into view cost little, and so is one that raises its escape limit.
+     *
+     * A pass cancelled part way leaves the passes before it in place, and the next call for the
+     * same view carries on from them.
+     *
+     * @return whether the field now holds every pixel of the view at full resolution.
+     */
+    public synchronized boolean refine(RenderView view, long budgetNanos) {
+        long start = System.nanoTime();
+        boolean continuing = view.equals(mFieldView)
+                && mFieldPrecisionPerTile == mPrecisionPerTile
+                && mFieldSubdivision == mSubdivision;
+        if (continuing && mFieldBlock == 1) return true;
+        mStatistics.reset();
+
+        if (!continuing) {
+            if (resume(view)) {
+                finishStatistics(start);
+                return mFieldView != null;
+            }
+            byte[] known = null;
+            double[] map = previousGrid(view);
+            if (map != null && map[0] == 1d && mIncrementalPan) {
+                int[] rects = pan(view, map[1], map[2]);
+                if (rects != null) {
+                    boolean complete =
+                            computePass(view, newKernels(view, false), 1, rects, null, 0);
+                    finishStatistics(start);
+                    return complete;
+                }
+            } else if (map != null && map[0] != 1d && mZoomReuse) {
+                known = zoom(view, map[0], map[1], map[2]);
+            }
+            known = fromCache(view, known);
+            mPassKernels = newKernels(view, known == null);
+            mKnown = known != null ? known : new byte[view.getPixelCount()];
+            mFieldBlock = COARSEST_BLOCK * 2;
+            mFieldPrecisionPerTile = mPrecisionPerTile;
+            mFieldSubdivision = mSubdivision;
+        }
+
+        long deadline = budgetNanos > Long.MAX_VALUE - start
+                ? Long.MAX_VALUE
+                : start + budgetNanos;
+        int[] whole = {0, 0, view.mWidth, view.mHeight};
+        boolean first = true;
+        for (int block = mFieldBlock / 2; block >= 1; block /= 2) {
+            if (!first && System.nanoTime() + mPassNanos * PASS_GROWTH > deadline) break;
+            long passStart = System.nanoTime();
+            if (!computePass(view, mPassKernels, block, whole, mKnown, 0)) {
+                // the passes before this one stand
+                mFieldView = view;
+                break;
+            }
+            mPassNanos = System.nanoTime() - passStart;
+            first = false;
+        }
+        if (mFieldBlock == 1) {
+            mKnown = null;
+            mPassKernels = null;
+        }
+
+        finishStatistics(start);
+        return mFieldBlock == 1;
+    }
+
+    // where the pixel grid of view lies on that of the field, if the field holds a complete
+    // frame computed with the current settings; reallocates the field if it can not hold view
+    private double[] previousGrid(RenderView view) {
+        if (mField == null || !mField.fits(view)) {
+            mField = IterationField.forView(view);
+            mFieldFresh = true;
+            mFieldView = null;
+        }
+        return mFieldView != null && mFieldBlock == 1
+                && mFieldPrecisionPerTile == mPrecisionPerTile
+                && mFieldSubdivision == mSubdivision
+                ? mFieldView.pixelMapOf(view)
+                : null;
+    }
+
+    // If view is that of the field at a higher escape limit, and the orbits of its pixels were
+    // kept, carries on the pixels that reached the old limit and returns true.
+    private boolean resume(RenderView view) {
+        RenderView previous = mOrbitView;
+        if (previous == null || previous != mFieldView || mFieldBlock != 1
+                || mFieldPrecisionPerTile != mPrecisionPerTile
+                || mFieldSubdivision != mSubdivision
+                || view.mEscapeLimit <= previous.mEscapeLimit
+                || !view.withEscapeLimit(previous.mEscapeLimit).equals(previous)) {
+            return false;
+        }
+
+        // the counts move into a field for the new limit, which may need wider entries
+        IterationField target = mSpareField != null && mSpareField.fits(view)
+                ? mSpareField
+                : IterationField.forView(view);
+        for (int index = 0; index < view.getPixelCount(); index++) {
+            target.set(index, mField.get(index));
+        }
+        mSpareField = mField;
+        mField = target;
+
+        // the orbits carry on from the field they were left in, which must not be cleared
+        EscapeKernel[] kernels = newKernels(view, false);
+        kernels[view.mPrecision].mOrbits = mOrbits;
+        computePass(view, kernels, 1, new int[] {0, 0, view.mWidth, view.mHeight}, null,
+                previous.mEscapeLimit);
+        return true;
+    }
+
+    // the kernel of the view, keeping orbits in mOrbits if asked to and it or, with precision per
+    // tile, the kernels of the tiles can
+    private EscapeKernel[] newKernels(RenderView view, boolean keepOrbits) {
+        EscapeKernel[] kernels = new EscapeKernel[TexturedMandelbrot.PRECISION_MODEL_COUNT];
+        ReferenceOrbit reference = mReferenceOrbit;
+        EscapeKernel kernel = reference != null
+                && view.mPrecision == TexturedMandelbrot.PERTURBATION
+                ? PerturbationKernel.around(view, reference)
+                : EscapeKernel.create(view);
+        int components = mPrecisionPerTile ? TILE_ORBIT_COMPONENTS : kernel.orbitComponents();
+        if (keepOrbits && components > 0) {
+            if (mOrbits == null || !mOrbits.fits(view, components)) {
+                mOrbits = new OrbitField(view.mWidth, view.mHeight, components);
+            } else {
+                mOrbits.clear();
+            }
+            kernel.mOrbits = mOrbits;
+        }
+        kernels[view.mPrecision] = kernel;
+        return kernels;
+    }
+
+    // computes the rectangles of view at the given block size, one pass of refine(), or carries
+    // on the pixels that reached the escape limit resumeFrom if it is not 0; false if cancelled
+    private boolean computePass(RenderView view, EscapeKernel[] kernels, int block, int[] rects,
+                                byte[] known, int resumeFrom) {
+        // until the pass is complete the field holds no view, and mOrbits no orbits of one
+        mFieldView = null;
+        mOrbitView = null;
+        int workers = mPool.getParallelism();
+        int[] tiles = tiles(rects);
+        CostPartitioner costs =
+                workers > 1 ? costs(view, kernels[view.mPrecision], block) : null;
+        if (costs != null) {
+            tiles = costs.partition(tiles, workers);
+        }
+        tiles = orderTiles(tiles, focus(mFocusX, view.mWidth), focus(mFocusY, view.mHeight));
+
+        Frame frame = new Frame(view, kernels, mField, tiles, known, block, resumeFrom, workers);
+        long start = System.nanoTime();
+        mPool.invoke(new TileTask(frame, 0, workers));
+        mStatistics.addWorkerTimes(frame.mBusyNanos, System.nanoTime() - start);
+        mFieldFresh = false;
+        if (frame.mGlitched != null && !frame.isCancelled()) {
+            correctGlitches(frame);
+        }
+        if (frame.isCancelled()) return false;
+
+        mFieldView = view;
+        if (block == 1 && frame.mOrbits != null) {
+            mOrbitView = view;
+        }
+        mFieldBlock = block;
+        mFieldPrecisionPerTile = frame.mPrecisionPerTile;
+        mFieldSubdivision = frame.mSubdivision;
+
+        TileCache cache = mTileCache;
+        if (block == 1 && cache != null) {
+            cache.store(view, mField);
+        }
+        return true;
+    }
+
+    // fills the field with whatever the tile cache has of the view, returning known with those
+    // pixels flagged
+    private byte[] fromCache(RenderView view, byte[] known) {
+        TileCache cache = mTileCache;
+        if (cache == null) return known;
+
+        known = cache.fill(view, mField, known);
+        if (known != null) {
+            long reused = 0;
+            for (byte flag : known) {
+                reused += flag;
+            }
+            synchronized (mStatistics) {
+                mStatistics.mPixelsReused = reused;
+            }
+        }
+        return known;
+    }
+
+    // estimates from the field as it stands, or from a probe if it holds nothing yet; null for
+    // a coarse pass of a fresh field, which computes too few pixels to be worth a probe run on
+    // the calling thread before any worker starts
+    private CostPartitioner costs(RenderView view, EscapeKernel kernel, int block) {
+        if (!mFieldFresh && CostPartitioner.canEstimate(mField, view)) {
+            return CostPartitioner.fromField(mField);
+        }
+        if (block > 1) return null;
+        RenderStatistics probe = new RenderStatistics();
+        CostPartitioner costs = CostPartitioner.probe(kernel, probe);
+        mStatistics.merge(probe);
+        return costs;
+    }
+
+    private static float focus(float focus, int size) {
+        return Float.isNaN(focus) ? size / 2f : focus;
+    }
+
+    // the tiles, x0, y0, x1, y1 each, nearest to (focusX, focusY) first
+    static int[] orderTiles(int[] tiles, float focusX, float focusY) {
+        int count = tiles.length / 4;
+        // squared distance of each tile's centre in the high half, its index in the low half; the
+        // bits of a float sort as its value does for any that is not negative, and unlike an int
+        // it holds the squared distance of a tile however far out in an export it is
+        long[] keys = new long[count];
+        for (int t = 0; t < count; t++) {
+            double dx = (tiles[t * 4] + tiles[t * 4 + 2]) / 2d - focusX;
+            double dy = (tiles[t * 4 + 1] + tiles[t * 4 + 3]) / 2d - focusY;
+            keys[t] = (long) Float.floatToIntBits((float) (dx * dx + dy * dy)) << 32 | t;
+        }
+        Arrays.sort(keys);
+
+        int[] ordered = new int[tiles.length];
+        for (int k = 0; k < count; k++) {
+            System.arraycopy(tiles, (int) keys[k] * 4, ordered, k * 4, 4);
+        }
+        return ordered;
+    }
+
+    /**
+     * Whether the field holds the whole of the last view computed or refined, at full resolution.
+     */
+    public synchronized boolean isComplete() {
+        return mFieldView != null && mFieldBlock == 1;
+    }
+
+    /**
+     * Starts a new generation, dropping whatever is left of any frame in progress. May be called
+     * from any thread; the call rendering the frame returns once its workers have stopped.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Orders the tiles of frames started afterwards outward from pixel (x, y) of the view, or
+     * from its centre if either is NaN.
+     */
+    public void setFocus(float x, float y) {
+        mFocusX = x;
+        mFocusY = y;
+    }
+
+    private void finishStatistics(long start) {
+        synchronized (mStatistics) {
+            mStatistics.mElapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    // If view is the previous view moved by whole pixels, pixel (x, y) lying on (x + offsetX,
+    // y + offsetY) of the previous one, shifts the field to match and returns the rectangles
+    // left to compute, x0, y0, x1, y1 each; otherwise returns null.
+    private int[] pan(RenderView view, double offsetX, double offsetY) {
+        int dx = (int) Math.rint(offsetX);
+        int dy = (int) Math.rint(offsetY);
+        int width = view.mWidth;
+        int height = view.mHeight;
+        if (Math.abs(offsetX - dx) > GRID_TOLERANCE || Math.abs(offsetY - dy) > GRID_TOLERANCE
+                || Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            return null;
+        }
+
+        mField.shift(dx, dy);
+        synchronized (mStatistics) {
+            mStatistics.mPixelsReused = (long) (width - Math.abs(dx)) * (height - Math.abs(dy));
+        }
+
+        // the rows brought into view, then the columns beside the rows that were kept
+        int keptY0 = Math.max(-dy, 0);
+        int keptY1 = height - Math.max(dy, 0);
+        int[] rects = new int[8];
+        int n = 0;
+        if (dy != 0) {
+            rects[n++] = 0;
+            rects[n++] = dy > 0 ? keptY1 : 0;
+            rects[n++] = width;
+            rects[n++] = dy > 0 ? height : keptY0;
+        }
+        if (dx != 0) {
+            rects[n++] = dx > 0 ? width - dx : 0;
+            rects[n++] = keptY0;
+            rects[n++] = dx > 0 ? width : -dx;
+            rects[n++] = keptY1;
+        }
+        return Arrays.copyOf(rects, n);
+    }
+
+    // If pixels of view fall on pixel centres of the previous view, pixel (x, y) lying on
+    // (ax + scale * x, ay + scale * y), resamples those into a new field and returns a flag for
+    // each pixel that was given a count; otherwise returns null.
+    private byte[] zoom(RenderView view, double scale, double ax, double ay) {
+        int width = view.mWidth;
+        int height = view.mHeight;
+        int[] columns = sources(scale, ax, width);
+        int[] rows = sources(scale, ay, height);
+        if (columns == null || rows == null) return null;
+
+        IterationField target = mSpareField != null && mSpareField.fits(view)
+                ? mSpareField
+                : IterationField.forView(view);
+        byte[] known = new byte[view.getPixelCount()];
+        long reused = 0;
+        for (int y = 0; y < height; y++) {
+            if (rows[y] < 0) continue;
+            for (int x = 0; x < width; x++) {
+                if (columns[x] < 0) continue;
+                target.set(y * width + x, mField.get(rows[y] * width + columns[x]));
+                known[y * width + x] = 1;
+                reused++;
+            }
+        }
+        mSpareField = mField;
+        mField = target;
+
+        synchronized (mStatistics) {
+            mStatistics.mPixelsReused = reused;
+        }
+        return known;
+    }
+
+    // the pixel of the previous frame each of count pixels lies on the centre of, or -1; null if
+    // there are none
+    private static int[] sources(double scale, double a, int count) {
+        int[] sources = new int[count];
+        boolean any = false;
+        for (int x = 0; x < count; x++) {
+            double p = a + scale * x;
+            double centre = Math.rint(p);
+            if (Math.abs(p - centre) <= GRID_TOLERANCE && centre >= 0 && centre < count) {
+                sources[x] = (int) centre;
+                any = true;
+            } else {
+                sources[x] = -1;
+            }
+        }
+        return any ? sources : null;
+    }
+
+    // the tile grid clipped to each of the rectangles, as x0, y0, x1, y1 of every tile
+    private int[] tiles(int[] rects) {
+        int[] tiles = null;
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0;
+            for (int r = 0; r < rects.length; r += 4) {
+                int x0 = rects[r], y0 = rects[r + 1], x1 = rects[r + 2], y1 = rects[r + 3];
+                for (int ty = y0 - y0 % mTileSize; ty < y1; ty += mTileSize) {
+                    for (int tx = x0 - x0 % mTileSize; tx < x1; tx += mTileSize) {
+                        if (tiles != null) {
+                            tiles[n] = Math.max(tx, x0);
+                            tiles[n + 1] = Math.max(ty, y0);
+                            tiles[n + 2] = Math.min(tx + mTileSize, x1);
+                            tiles[n + 3] = Math.min(ty + mTileSize, y1);
+                        }
+                        n += 4;
+                    }
+                }
+            }
+            if (tiles == null) {
+                tiles = new int[n];
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Colours the most recently computed frame again with another gradient, without computing
+     * any escape counts.
+     *
+     * @throws IllegalStateException if no frame has been computed yet.
+     */
+    public void colour(Gradient gradient, ByteBuffer out) {
+        colour(gradient, ColourMapping.ESCAPE_LIMIT, out);
+    }
+
+    public synchronized void colour(Gradient gradient, ColourMapping mapping, ByteBuffer out) {
+        if (mField == null) {
+            throw new IllegalStateException("No frame has been computed");
+        }
+        colour(mapping.compile(gradient, mField.getEscapeLimit()), mapping, out);
+    }
+
+    /**
+     * Colours the most recently computed frame again from a palette compiled for the mapping.
+     *
+     * @throws IllegalStateException if no frame has been computed yet.
+     */
+    public synchronized void colour(Palette palette, ColourMapping mapping, ByteBuffer out) {
+        if (mField == null) {
+            throw new IllegalStateException("No frame has been computed");
+        }
+        checkCapacity(out, mField.getPixelCount());
+
+        int limit = mField.getEscapeLimit();
+        if (mColourTable == null || mTablePalette != palette || !mTableMapping.equals(mapping)
+                || mTableLimit != limit || mTableOrder != out.order()) {
+            mColourTable = mapping.colourTable(palette, limit, out.order());
+            mTablePalette = palette;
+            mTableMapping = mapping;
+            mTableLimit = limit;
+            mTableOrder = out.order();
+        }
+        colour(mField, mColourTable, out);
+    }
+
+    /**
+     * Colours every pixel of the field from a table holding the packed colour of each escape
+     * count from 0 to the escape limit.
+     */
+    static void colour(IterationField field, int[] table, ByteBuffer out) {
+        int count = field.getPixelCount();
+        for (int index = 0; index < count; index++) {
+            out.putInt(index * BYTES_PER_PIXEL, table[field.get(index)]);
+        }
+    }
+
+    private static void checkCapacity(ByteBuffer out, int pixels) {
+        if (out.capacity() < pixels * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("Buffer of " + out.capacity()
+                    + " bytes is too small for " + pixels + " pixels");
+        }
+    }
+
+    /**
+     * Statistics for the most recently completed frame.
+     */
+    public RenderStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Lets tiles of frames rendered afterwards use a cheaper precision model than their view's
+     * where PrecisionSelector finds one sufficient.
+     */
+    public void setPrecisionPerTile(boolean enabled) {
+        mPrecisionPerTile = enabled;
+    }
+
+    public boolean isPrecisionPerTile() {
+        return mPrecisionPerTile;
+    }
+
+    /**
+     * Switches frames rendered afterwards between Mariani-Silver subdivision and computing
+     * every pixel.
+     */
+    public void setSubdivision(boolean enabled) {
+        mSubdivision = enabled;
+    }
+
+    public boolean isSubdivision() {
+        return mSubdivision;
+    }
+
+    /**
+     * Lets a frame that is the previous one moved by whole pixels keep the escape counts still
+     * in view, computing only the rows and columns it brings into view.
+     */
+    public void setIncrementalPan(boolean enabled) {
+        mIncrementalPan = enabled;
+    }
+
+    public boolean isIncrementalPan() {
+        return mIncrementalPan;
+    }
+
+    /**
+     * Lets a frame that is the previous one zoomed by a power of two keep the escape counts of
+     * pixels whose centres coincide with pixel centres of the previous frame.
+     */
+    public void setZoomReuse(boolean enabled) {
+        mZoomReuse = enabled;
+    }
+
+    public boolean isZoomReuse() {
+        return mZoomReuse;
+    }
+
+    /**
+     * Keeps the tiles of complete frames rendered afterwards in the cache, and starts frames
+     * from the tiles it has. Null, the default, turns caching off.
+     */
+    public void setTileCache(TileCache cache) {
+        mTileCache = cache;
+    }
+
+    public TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * Iterates perturbation frames started afterwards against this orbit rather than one of
+     * their own centre, as long as it goes to their escape limit with enough digits. Exports set
+     * the orbit of the whole view, which every strip of it then shares. Null, the default, gives
+     * each frame the orbit of its centre.
+     */
+    void setReferenceOrbit(ReferenceOrbit orbit) {
+        mReferenceOrbit = orbit;
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private void renderTile(Frame frame, int tileIndex, KernelScratch scratch) {
+        RenderView view = frame.mView;
+        EscapeKernel kernel = frame.mKernel;
+
+        int x0 = frame.mTiles[tileIndex * 4];
+        int y0 = frame.mTiles[tileIndex * 4 + 1];
+        int x1 = frame.mTiles[tileIndex * 4 + 2];
+        int y1 = frame.mTiles[tileIndex * 4 + 3];
+
+        RenderStatistics tile = new RenderStatistics();
+        if (frame.isCancelled()) {
+            tile.mTilesDropped = 1;
+            mStatistics.merge(tile);
+            return;
+        }
+
+        if (frame.mPrecisionPerTile) {
+            kernel = frame.kernelFor(PrecisionSelector.forTile(view, x0, y0, x1, y1));
+        }
+
+        boolean finished;
+        if (frame.mResumeFrom > 0) {
+            finished = resumeTile(frame, kernel, tile, scratch, x0, y0, x1, y1);
+        } else if (frame.mBlock > 1) {
+            finished = renderSamples(frame, kernel, tile, scratch, x0, y0, x1, y1);
+        } else if (frame.mSubdivision) {
+            finished = new Subdivision(frame, kernel, tile, scratch, x0, y0, x1, y1)
+                    .render(x0, y0, x1, y1);
+        } else {
+            finished = true;
+            byte[] known = frame.mKnown;
+            int width = view.mWidth;
+            for (int y = y0; y < y1 && finished; y++) {
+                for (int x = x0; x < x1; x++) {
+                    if (known == null || known[y * width + x] == 0) {
+                        computePixel(frame, kernel, tile, scratch, x, y);
+                    }
+                }
+                finished = !frame.isCancelled();
+            }
+        }
+
+        if (finished) {
+            tile.mTiles = 1;
+            tile.mTilesByPrecision[kernel.mView.mPrecision] = 1;
+        } else {
+            tile.mTilesDropped = 1;
+        }
+        mStatistics.merge(tile);
+    }
+
+    // carries on the pixels of the tile that reached the escape limit of the previous frame,
+    // keeping those that escaped before it; each orbit goes to a kernel of the model that left
+    // it, and pixels without one start again with the tile's kernel
+    private static boolean resumeTile(Frame frame, EscapeKernel kernel, RenderStatistics stats,
+                                      KernelScratch scratch, int x0, int y0, int x1, int y1) {
+        int from = frame.mResumeFrom;
+        int width = frame.mView.mWidth;
+        OrbitField orbits = frame.mOrbits;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = y * width + x;
+                if (frame.mField.get(index) != from) {
+                    stats.mPixelsReused++;
+                } else if (orbits.isInterior(index)) {
+                    frame.mField.set(index, frame.mView.mEscapeLimit);
+                    stats.mPixelsReused++;
+                } else if (orbits.hasOrbit(index)) {
+                    int model = orbits.getModel(index);
+                    EscapeKernel owner =
+                            model == kernel.mView.mPrecision ? kernel : frame.kernelFor(model);
+                    int i = owner.resume(x, y, from, stats, scratch);
+                    stats.mIterations += i;
+                    stats.mIterationsSkipped += from;
+                    stats.mPixelsComputed++;
+                    frame.mField.set(index, i);
+                } else {
+                    computePixel(frame, kernel, stats, scratch, x, y);
+                }
+            }
+            if (frame.isCancelled()) return false;
+        }
+        return true;
+    }
+
+    // one coarse pass of refine(): the pixels on multiples of the block size that no coarser
+    // pass has computed, each count filling the block below and to the right of its pixel
+    private static boolean renderSamples(Frame frame, EscapeKernel kernel,
+                                         RenderStatistics stats, KernelScratch scratch,
+                                         int x0, int y0, int x1, int y1) {
+        int block = frame.mBlock;
+        int width = frame.mView.mWidth;
+        boolean coarsest = block == COARSEST_BLOCK;
+        for (int y = (y0 + block - 1) / block * block; y < y1; y += block) {
+            for (int x = (x0 + block - 1) / block * block; x < x1; x += block) {
+                if (!coarsest && x % (block * 2) == 0 && y % (block * 2) == 0) continue;
+
+                int index = y * width + x;
+                int i;
+                if (frame.mKnown[index] != 0) {
+                    i = frame.mField.get(index);
+                } else {
+                    i = computePixel(frame, kernel, stats, scratch, x, y);
+                    // the correction pass fills the block once it has the count
+                    if (i == EscapeKernel.GLITCHED) continue;
+                    frame.mKnown[index] = 1;
+                }
+                fillBlock(frame, x, y, i);
+            }
+            if (frame.isCancelled()) return false;
+        }
+        return true;
+    }
+
+    // gives the pixels of the block at (x, y) that hold no computed count of their own count i
+    private static void fillBlock(Frame frame, int x, int y, int i) {
+        RenderView view = frame.mView;
+        int x1 = Math.min(x + frame.mBlock, view.mWidth);
+        int y1 = Math.min(y + frame.mBlock, view.mHeight);
+        for (int py = y; py < y1; py++) {
+            for (int px = x; px < x1; px++) {
+                int index = py * view.mWidth + px;
+                if (frame.mKnown[index] == 0) {
+                    frame.mField.set(index, i);
+                }
+            }
+        }
+    }
+
+    // runs the escape loop for one pixel and stores its count, or flags it for a correction pass
+    private static int computePixel(Frame frame, EscapeKernel kernel, RenderStatistics stats,
+                                    KernelScratch scratch, int x, int y) {
+        int index = y * frame.mView.mWidth + x;
+        int i = kernel.escapeTime(x, y, stats, scratch);
+        if (i == EscapeKernel.GLITCHED) {
+            frame.mGlitched[index] = 1;
+            stats.mGlitchedPixels++;
+        } else {
+            stats.mIterations += i;
+            frame.mField.set(index, i);
+        }
+        stats.mPixelsComputed++;
+        return i;
+    }
+
+    private void correctGlitches(Frame frame) {
+        RenderView view = frame.mView;
+
+        for (int pass = 0; pass < MAX_GLITCH_PASSES; pass++) {
+            if (frame.isCancelled()) return;
+            List<int[]> regions = GlitchRegions.find(frame.mGlitched, view.mWidth, view.mHeight);
+            if (regions.isEmpty()) return;
+
+            int count = Math.min(regions.size(), MAX_REFERENCES_PER_PASS);
+            mPool.invoke(new RegionTask(frame, regions, null, 0, count));
+        }
+
+        List<int[]> remaining = GlitchRegions.find(frame.mGlitched, view.mWidth, view.mHeight);
+        if (!remaining.isEmpty()) {
+            EscapeKernel fallback = frame.mKernel.withoutGlitchDetection();
+            mPool.invoke(new RegionTask(frame, remaining, fallback, 0, remaining.size()));
+        }
+    }
+
+    // recomputes one glitched region, from a reference at its centre unless a kernel is given
+    private void renderRegion(Frame frame, int[] region, EscapeKernel kernel) {
+        int width = frame.mView.mWidth;
+        RenderStatistics stats = new RenderStatistics();
+        KernelScratch scratch = new KernelScratch();
+
+        if (kernel == null) {
+            int centre = GlitchRegions.centralPixel(region, width);
+            kernel = frame.mKernel.rereference(centre % width, centre / width, true);
+            stats.mSecondaryReferences = 1;
+        }
+
+        for (int index : region) {
+            int i = kernel.escapeTime(index % width, index / width, stats, scratch);
+            if (i != EscapeKernel.GLITCHED) {
+                stats.mIterations += i;
+                frame.mField.set(index, i);
+                frame.mGlitched[index] = 0;
+                if (frame.mKnown != null) {
+                    frame.mKnown[index] = 1;
+                    if (frame.mBlock > 1) {
+                        fillBlock(frame, index % width, index / width, i);
+                    }
+                }
+            }
+        }
+        stats.mPixelsComputed = region.length;
+
+        mStatistics.merge(stats);
+    }
+
+    // state shared by every tile of one frame
+    private final class Frame {
+        final RenderView mView;
+        final EscapeKernel mKernel;
+        final IterationField mField;
+        // one flag per pixel left for a correction pass; null when the kernel never glitches
+        final byte[] mGlitched;
+        // x0, y0, x1, y1 of each tile to compute
+        final int[] mTiles;
+        // one flag per pixel whose count is already in mField; null when there are none
+        final byte[] mKnown;
+        final int mTileCount;
+        // where the frame's kernels leave their orbits, or null when none are kept
+        final OrbitField mOrbits;
+        // spacing of the pixels a pass of refine() computes, 1 for every pixel
+        final int mBlock;
+        // escape limit of the frame whose orbits this one carries on, or 0
+        final int mResumeFrom;
+        final boolean mPrecisionPerTile;
+        final boolean mSubdivision;
+        // the generation the frame belongs to, and the next tile in order for a worker to take
+        final int mGeneration;
+        final AtomicInteger mNextTile = new AtomicInteger();
+        // time each worker spent rendering tiles
+        final long[] mBusyNanos;
+        // kernels for the same view in every precision model, created as tiles ask for them and
+        // shared by the passes of refine()
+        private final EscapeKernel[] mKernels;
+
+        Frame(RenderView view, EscapeKernel[] kernels, IterationField field, int[] tiles,
+              byte[] known, int block, int resumeFrom, int workers) {
+            mView = view;
+            mKernels = kernels;
+            mKernel = kernels[view.mPrecision];
+            mOrbits = mKernel.mOrbits;
+            mBlock = block;
+            mResumeFrom = resumeFrom;
+            mGeneration = CpuRenderer.this.mGeneration.get();
+            mBusyNanos = new long[workers];
+            mPrecisionPerTile = CpuRenderer.this.mPrecisionPerTile;
+            mSubdivision = CpuRenderer.this.mSubdivision;
+            mField = field;
+            mGlitched = mKernel.detectsGlitches() ? new byte[view.getPixelCount()] : null;
+            mTiles = tiles;
+            mKnown = known;
+            mTileCount = tiles.length / 4;
+        }
+
+        boolean isCancelled() {
+            return CpuRenderer.this.mGeneration.get() != mGeneration;
+        }
+
+        synchronized EscapeKernel kernelFor(int precision) {
+            if (mKernels[precision] == null) {
+                EscapeKernel kernel = EscapeKernel.create(mView.withPrecision(precision));
+                if (mOrbits != null && kernel.orbitComponents() <= mOrbits.getComponents()) {
+                    kernel.mOrbits = mOrbits;
+                }
+                mKernels[precision] = kernel;
+            }
+            return mKernels[precision];
+        }
+    }
+
+    // Mariani-Silver subdivision of one tile, remembering the escape count of every pixel it has
+    // computed so that the border shared by two halves is only computed once
+    private static final class Subdivision {
+        private static final int UNKNOWN = Integer.MIN_VALUE;
+
+        private final Frame mFrame;
+        private final EscapeKernel mKernel;
+        private final RenderStatistics mStats;
+        private final KernelScratch mScratch;
+        private final int mX0;
+        private final int mY0;
+        private final int mStride;
+        private final int[] mCounts;
+
+        Subdivision(Frame frame, EscapeKernel kernel, RenderStatistics stats,
+                    KernelScratch scratch, int x0, int y0, int x1, int y1) {
+            mFrame = frame;
+            mKernel = kernel;
+            mStats = stats;
+            mScratch = scratch;
+            mX0 = x0;
+            mY0 = y0;
+            mStride = x1 - x0;
+            mCounts = new int[(x1 - x0) * (y1 - y0)];
+            Arrays.fill(mCounts, UNKNOWN);
+
+            // counts kept from the previous frame serve as computed ones
+            byte[] known = frame.mKnown;
+            if (known != null) {
+                int width = frame.mView.mWidth;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        if (known[y * width + x] != 0) {
+                            mCounts[(y - y0) * mStride + (x - x0)] =
+                                    frame.mField.get(y * width + x);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int count(int x, int y) {
+            int k = (y - mY0) * mStride + (x - mX0);
+            if (mCounts[k] == UNKNOWN) {
+                mCounts[k] = computePixel(mFrame, mKernel, mStats, mScratch, x, y);
+            }
+            return mCounts[k];
+        }
+
+        // the pixels [x0, x1) x [y0, y1), border included
+        // false if the frame was cancelled before the pixels were all done
+        boolean render(int x0, int y0, int x1, int y1) {
+            if (mFrame.isCancelled()) return false;
+
+            if (x1 - x0 <= MIN_SUBDIVISION_SIZE || y1 - y0 <= MIN_SUBDIVISION_SIZE) {
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        count(x, y);
+                    }
+                }
+                return true;
+            }
+
+            if (uniformBorder(x0, y0, x1, y1)) {
+                fill(x0 + 1, y0 + 1, x1 - 1, y1 - 1, count(x0, y0));
+                return true;
+            } else if (x1 - x0 >= y1 - y0) {
+                int middle = (x0 + x1) >>> 1;
+                return render(x0, y0, middle + 1, y1) && render(middle, y0, x1, y1);
+            } else {
+                int middle = (y0 + y1) >>> 1;
+                return render(x0, y0, x1, middle + 1) && render(x0, middle, x1, y1);
+            }
+        }
+
+        // stops at the first pixel that differs; the halves compute the rest if they need it
+        private boolean uniformBorder(int x0, int y0, int x1, int y1) {
+            int i = count(x0, y0);
+            if (i == EscapeKernel.GLITCHED) return false;
+            for (int x = x0; x < x1; x++) {
+                if (count(x, y0) != i || count(x, y1 - 1) != i) return false;
+            }
+            for (int y = y0 + 1; y < y1 - 1; y++) {
+                if (count(x0, y) != i || count(x1 - 1, y) != i) return false;
+            }
+            return true;
+        }
+
+        private void fill(int x0, int y0, int x1, int y1, int i) {
+            int width = mFrame.mView.mWidth;
+            OrbitField orbits = mKernel.mOrbits;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int k = (y - mY0) * mStride + (x - mX0);
+                    if (mCounts[k] != UNKNOWN) continue;
+                    mCounts[k] = i;
+                    mFrame.mField.set(y * width + x, i);
+                    // a filled pixel has no orbit to resume
+                    if (orbits != null) {
+                        orbits.markNoOrbit(y * width + x);
+                    }
+                    mStats.mPixelsFilled++;
+                    mStats.mIterations += i;
+                    mStats.mIterationsSkipped += i;
+                }
+            }
+        }
+    }
+
+    // splits into one task per worker, [mFirst, mFirst + mWorkers), each of which renders tiles
+    // in the frame's order until none are left
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Frame mFrame;
+        private final int mFirst;
+        private final int mWorkers;
+
+        TileTask(Frame frame, int first, int workers) {
+            mFrame = frame;
+            mFirst = first;
+            mWorkers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (mWorkers > 1) {
+                int half = mWorkers >>> 1;
+                invokeAll(new TileTask(mFrame, mFirst, half),
+                        new TileTask(mFrame, mFirst + half, mWorkers - half));
+                return;
+            }
+            long busy = 0;
+            KernelScratch scratch = new KernelScratch();
+            for (int t = mFrame.mNextTile.getAndIncrement(); t < mFrame.mTileCount;
+                    t = mFrame.mNextTile.getAndIncrement()) {
+                long start = System.nanoTime();
+                renderTile(mFrame, t, scratch);
+                busy += System.nanoTime() - start;
+            }
+            mFrame.mBusyNanos[mFirst] = busy;
+        }
+    }
+
+    // recomputes the regions [mFirst, mLast), one region per task
+    private final class RegionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Frame mFrame;
+        private final List<int[]> mRegions;
+        private final EscapeKernel mKernel;
+        private final int mFirst;
+        private final int mLast;
+
+        RegionTask(Frame frame, List<int[]> regions, EscapeKernel kernel, int first, int last) {
+            mFrame = frame;
+            mRegions = regions;
+            mKernel = kernel;
+            mFirst = first;
+            mLast = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst <= 1) {
+                if (mLast > mFirst) {
+                    renderRegion(mFrame, mRegions.get(mFirst), mKernel);
+                }
+            } else {
+                int middle = (mFirst + mLast) >>> 1;
+                invokeAll(new RegionTask(mFrame, mRegions, mKernel, mFirst, middle),
+                        new RegionTask(mFrame, mRegions, mKernel, middle, mLast));
+            }
+        }
+    }
+}
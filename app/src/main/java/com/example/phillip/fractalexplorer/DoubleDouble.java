@@ -0,0 +1,160 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+
+/**
+ * Double-double arithmetic: a number is held as an unevaluated sum hi + lo of two doubles with
+ * |lo| <= ulp(hi) / 2, giving 106 significant bits, or about 32 decimal digits.
+ * <p>
+ * This is the double precision counterpart of the double-single maths in the emulated double
+ * shader, and follows the same error free transformations (Knuth's two-sum, Dekker's split and
+ * product). Operands are passed as primitives and results written into a caller supplied array
+ * at an offset, as {hi, lo}, so loops built on it need no allocation once their scratch array
+ * exists. The result may overwrite an operand's storage.
+ */
+
+final class DoubleDouble {
+
+    // 2^27 + 1, splits a double into two halves of 26 bits whose products are exact
+    static final double SPLITTER = 134217729d;
+
+    private DoubleDouble() {
+    }
+
+    /**
+     * r = a + b, accurate to the full 106 bits.
+     */
+    static void add(double aHi, double aLo, double bHi, double bLo, double[] r, int offset) {
+        double s, e, t, f, v;
+
+        // two-sum of the high parts
+        s = aHi + bHi;
+        v = s - aHi;
+        e = (aHi - (s - v)) + (bHi - v);
+
+        // two-sum of the low parts
+        t = aLo + bLo;
+        v = t - aLo;
+        f = (aLo - (t - v)) + (bLo - v);
+
+        e += t;
+        v = s + e;
+        e = e - (v - s);
+        e += f;
+
+        r[offset] = v + e;
+        r[offset + 1] = e - (r[offset] - v);
+    }
+
+    /**
+     * r = a * b.
+     */
+    static void mul(double aHi, double aLo, double bHi, double bLo, double[] r, int offset) {
+        double p, e, t, aH, aL, bH, bL;
+
+        t = SPLITTER * aHi;
+        aH = t - (t - aHi);
+        aL = aHi - aH;
+        t = SPLITTER * bHi;
+        bH = t - (t - bHi);
+        bL = bHi - bH;
+
+        p = aHi * bHi;
+        e = ((aH * bH - p) + aH * bL + aL * bH) + aL * bL;
+        e += aHi * bLo + aLo * bHi;
+
+        r[offset] = p + e;
+        r[offset + 1] = e - (r[offset] - p);
+    }
+
+    /**
+     * r = a * a, a little cheaper than mul(a, a).
+     */
+    static void square(double aHi, double aLo, double[] r, int offset) {
+        double p, e, t, aH, aL;
+
+        t = SPLITTER * aHi;
+        aH = t - (t - aHi);
+        aL = aHi - aH;
+
+        p = aHi * aHi;
+        e = ((aH * aH - p) + 2d * aH * aL) + aL * aL;
+        e += 2d * aHi * aLo;
+        e += aLo * aLo;
+
+        r[offset] = p + e;
+        r[offset + 1] = e - (r[offset] - p);
+    }
+
+    /**
+     * r = a * b exactly, for plain doubles a and b.
+     */
+    static void product(double a, double b, double[] r, int offset) {
+        double p = a * b;
+        r[offset] = p;
+        r[offset + 1] = productError(a, b, p);
+    }
+
+    /**
+     * Rounding error of s = a + b, so that a + b = s + error exactly (Knuth's two-sum).
+     */
+    static double sumError(double a, double b, double s) {
+        double v = s - a;
+        return (a - (s - v)) + (b - v);
+    }
+
+    /**
+     * Rounding error of s = a + b when |a| >= |b| (Dekker's fast two-sum).
+     */
+    static double quickSumError(double a, double b, double s) {
+        return b - (s - a);
+    }
+
+    /**
+     * Rounding error of p = a * b, so that a * b = p + error exactly.
+     */
+    static double productError(double a, double b, double p) {
+        double t, aH, aL, bH, bL;
+
+        t = SPLITTER * a;
+        aH = t - (t - a);
+        aL = a - aH;
+        t = SPLITTER * b;
+        bH = t - (t - b);
+        bL = b - bH;
+
+        return ((aH * bH - p) + aH * bL + aL * bH) + aL * bL;
+    }
+
+    /**
+     * Compares normalised numbers a and b.
+     *
+     * @return Negative, zero or positive as a is less than, equal to or greater than b.
+     */
+    static int compare(double aHi, double aLo, double bHi, double bLo) {
+        if (aHi != bHi) {
+            return aHi < bHi ? -1 : 1;
+        }
+        if (aLo != bLo) {
+            return aLo < bLo ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Rounds x to the nearest double-double.
+     */
+    static void set(BigDecimal x, double[] r, int offset) {
+        double hi = x.doubleValue();
+        double lo = x.subtract(new BigDecimal(hi)).doubleValue();
+        r[offset] = hi + lo;
+        r[offset + 1] = lo - (r[offset] - hi);
+    }
+
+    /**
+     * The exact value of hi + lo.
+     */
+    static BigDecimal toBigDecimal(double hi, double lo) {
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Escape loop in DoubleDouble arithmetic, resolving pixel spacings down to about 1e-29 with no
+ * reference orbit to set up and nothing that can glitch.
+ * <p>
+ * The centre is rounded from the view's exact centre, and each pixel's offset from it is formed
+ * from exact products, so c is accurate to the full 106 bits wherever the view is. The loop is
+ * otherwise the same as the shaders': z starts at c, and |z|^2 is tested against 4 before each
+ * step. The InteriorChecks are made on top, the cardioid and bulb test in double precision.
+ * Like F64Kernel, it can leave the orbits reaching the escape limit in an OrbitField to be resumed.
+ */
+
+class DoubleDoubleKernel extends EscapeKernel {
+
+    // a couple of ulps of the largest high part the loop keeps, |z| <= 2
+    static final double NEARBY_ULPS = 0x1p-50;
+
+    // offsets in the scratch array of c, {real hi, lo, imaginary hi, lo}, of z and the saved
+    // point, as iterate() takes them, and of the {result hi, lo, operand hi, lo} of arithmetic
+    private static final int C = 0;
+    private static final int Z = C + 4;
+    private static final int R = Z + 8;
+    static final int SCRATCH_SIZE = R + 4;
+    // z and the saved point, each as hi and lo of both parts
+    static final int ORBIT_COMPONENTS = 8;
+
+    private final double mCrHi, mCrLo;
+    private final double mCiHi, mCiLo;
+
+    DoubleDoubleKernel(RenderView view) {
+        super(view);
+        double[] r = new double[2];
+        DoubleDouble.set(view.mCentreExact[0], r, 0);
+        mCrHi = r[0];
+        mCrLo = r[1];
+        DoubleDouble.set(view.mCentreExact[1], r, 0);
+        mCiHi = r[0];
+        mCiLo = r[1];
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        double[] s = scratch.mDoubles;
+        pixel(px, py, s);
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(s[C], s[C + 2])) {
+            return interior(px, py, inCardioidOrBulb(stats));
+        }
+        System.arraycopy(s, C, s, Z, 4);
+        System.arraycopy(s, C, s, Z + 4, 4);
+        return iterate(px, py, s, 0, stats);
+    }
+
+    @Override
+    int resume(int px, int py, int from, RenderStatistics stats, KernelScratch scratch) {
+        int index = py * mView.mWidth + px;
+        double[] s = scratch.mDoubles;
+        pixel(px, py, s);
+        for (int k = 0; k < ORBIT_COMPONENTS; k++) {
+            s[Z + k] = mOrbits.get(index, k);
+        }
+        return iterate(px, py, s, from, stats);
+    }
+
+    @Override
+    int orbitComponents() {
+        return ORBIT_COMPONENTS;
+    }
+
+    // puts c of the pixel at (px, py) in the scratch array s
+    private void pixel(int px, int py, double[] s) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+
+        // c = centre + du * vecA + dv * vecB
+        DoubleDouble.product(du, view.mVecA[0], s, R);
+        DoubleDouble.product(dv, view.mVecB[0], s, R + 2);
+        DoubleDouble.add(s[R], s[R + 1], s[R + 2], s[R + 3], s, R);
+        DoubleDouble.add(mCrHi, mCrLo, s[R], s[R + 1], s, C);
+
+        DoubleDouble.product(du, view.mVecA[1], s, R);
+        DoubleDouble.product(dv, view.mVecB[1], s, R + 2);
+        DoubleDouble.add(s[R], s[R + 1], s[R + 2], s[R + 3], s, R);
+        DoubleDouble.add(mCiHi, mCiLo, s[R], s[R + 1], s, C + 2);
+    }
+
+    // the escape loop from iteration from, the scratch array s holding c, and z and the point
+    // last saved as they were then
+    private int iterate(int px, int py, double[] s, int from, RenderStatistics stats) {
+        double crHi = s[C], crLo = s[C + 1], ciHi = s[C + 2], ciLo = s[C + 3];
+        double zrHi = s[Z], zrLo = s[Z + 1], ziHi = s[Z + 2], ziLo = s[Z + 3];
+        double xxHi, xxLo, yyHi, yyLo;
+        double savedRHi = s[Z + 4], savedRLo = s[Z + 5];
+        double savedIHi = s[Z + 6], savedILo = s[Z + 7];
+        double tolerance = mPeriodTolerance;
+        // high parts further apart than this differ by more than the tolerance whatever the low
+        // parts are
+        double nearby = tolerance + NEARBY_ULPS;
+        int limit = mView.mEscapeLimit;
+        // z is saved whenever the count reaches a power of two
+        int nextSave = from < 2 ? 2 : Integer.highestOneBit(from) << 1;
+        int i;
+
+        for (i = from; i < limit; i++) {
+            DoubleDouble.square(zrHi, zrLo, s, R);
+            xxHi = s[R];
+            xxLo = s[R + 1];
+            DoubleDouble.square(ziHi, ziLo, s, R);
+            yyHi = s[R];
+            yyLo = s[R + 1];
+
+            DoubleDouble.add(xxHi, xxLo, yyHi, yyLo, s, R);
+            if (DoubleDouble.compare(s[R], s[R + 1], 4d, 0d) > 0) break;
+
+            // zi = 2 zr zi + ci, doubling being exact
+            DoubleDouble.mul(zrHi, zrLo, ziHi, ziLo, s, R);
+            DoubleDouble.add(2d * s[R], 2d * s[R + 1], ciHi, ciLo, s, R);
+            ziHi = s[R];
+            ziLo = s[R + 1];
+
+            // zr = zr^2 - zi^2 + cr
+            DoubleDouble.add(xxHi, xxLo, -yyHi, -yyLo, s, R);
+            DoubleDouble.add(s[R], s[R + 1], crHi, crLo, s, R);
+            zrHi = s[R];
+            zrLo = s[R + 1];
+
+            if (Math.abs(zrHi - savedRHi) < nearby && Math.abs(ziHi - savedIHi) < nearby) {
+                DoubleDouble.add(zrHi, zrLo, -savedRHi, -savedRLo, s, R);
+                DoubleDouble.add(ziHi, ziLo, -savedIHi, -savedILo, s, R + 2);
+                if (Math.abs(s[R]) + Math.abs(s[R + 2]) < tolerance) {
+                    return interior(px, py, periodic(i + 1, stats));
+                }
+            }
+            if (i + 1 == nextSave) {
+                savedRHi = zrHi;
+                savedRLo = zrLo;
+                savedIHi = ziHi;
+                savedILo = ziLo;
+                nextSave <<= 1;
+            }
+        }
+
+        if (i == limit && mOrbits != null) {
+            OrbitField orbits = mOrbits;
+            int index = py * mView.mWidth + px;
+            orbits.set(index, 0, zrHi);
+            orbits.set(index, 1, zrLo);
+            orbits.set(index, 2, ziHi);
+            orbits.set(index, 3, ziLo);
+            orbits.set(index, 4, savedRHi);
+            orbits.set(index, 5, savedRLo);
+            orbits.set(index, 6, savedIHi);
+            orbits.set(index, 7, savedILo);
+            orbits.markOrbit(index, mView.mPrecision);
+        }
+        return i;
+    }
+}
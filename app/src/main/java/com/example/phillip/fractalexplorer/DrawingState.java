@@ -43,8 +43,9 @@ public class DrawingState {
                 vecB,
                 centrePoint,
                 ESCAPE_LIMIT,
-                TexturedMandelbrot.EMULATED_DOUBLE,
+                TexturedMandelbrot.F32,
                 mGradient);
+        mTexturedMandelbrot.setAutomaticPrecision(true);
     }
 
 
@@ -69,6 +69,7 @@ public class DrawingSurfaceRenderer implements GLSurfaceView.Renderer{
 
         GLES20.glViewport(0, 0, width, height);
         mDrawingState.mTexturedMandelbrot.setRatio(viewRatio);
+        mDrawingState.mTexturedMandelbrot.setSurfaceSize(width, height);
         mDrawingState.mTexturedMandelbrot.allocTexturedMandelbrot();
 
         //sets area of world to capture and place within view
@@ -80,10 +81,15 @@ public class DrawingSurfaceRenderer implements GLSurfaceView.Renderer{
     public void onDrawFrame(GL10 unused) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
+        mDrawingState.mTexturedMandelbrot.choosePrecision();
         mDrawingState.mTexturedMandelbrot.prepareToDraw();
         mDrawingState.drawTexturedMandelbrot();
         mDrawingState.mTexturedMandelbrot.finishedDrawing();
 
+        // a progressively rendered frame is refined by the frames after it
+        if (!mDrawingState.mTexturedMandelbrot.isFrameComplete()) {
+            mSurfaceView.requestRender();
+        }
     }
 
     /**
@@ -126,6 +132,7 @@ public class DrawingSurfaceRenderer implements GLSurfaceView.Renderer{
                 offset[X] = (finger1[NEW][X] - finger1[OLD][X]) / mViewWidth;
                 offset[Y] = (finger1[NEW][Y] - finger1[OLD][Y]) / mViewHeight;
 
+                mDrawingState.mTexturedMandelbrot.setFocus(finger1[NEW][X], finger1[NEW][Y]);
                 mDrawingState.mTexturedMandelbrot.move(offset);
                 mSurfaceView.requestRender();
                 break;
@@ -153,21 +160,28 @@ public class DrawingSurfaceRenderer implements GLSurfaceView.Renderer{
 
                 angleDifference = oldAngle - newAngle;
 
+                // snapped zooms step by powers of two; the finger is kept under the zoom
+                // actually applied
+                float applied = mDrawingState.mTexturedMandelbrot.zoomFactor(scale);
+
                 offset = new float[2];
                 offset[X] = -finger1[OLD][X] + mViewWidth / 2;
                 offset[Y] = -finger1[OLD][Y] + mViewHeight / 2;
                 offset = Util.rotateVector(offset, -angleDifference);
-                offset = Util.scaleVector(offset, 1f /scale);
+                offset = Util.scaleVector(offset, 1f / applied);
                 offset[X] += finger1[NEW][X] - mViewWidth / 2;
                 offset[Y] += finger1[NEW][Y] - mViewHeight / 2;
                 offset[X] = offset[X] / (mViewWidth);
                 offset[Y] = offset[Y] / (mViewHeight);
 
+                mDrawingState.mTexturedMandelbrot.setFocus(
+                        (finger1[NEW][X] + finger2[NEW][X]) / 2f,
+                        (finger1[NEW][Y] + finger2[NEW][Y]) / 2f);
+
                 mDrawingState.mTexturedMandelbrot
                         .rotate(angleDifference)
                         .move(offset)
-                        .scaleWidth(scale)
-                        .scaleHeight(scale);
+                        .zoom(scale);
 
                 mSurfaceView.requestRender();
                 break;
@@ -59,6 +59,11 @@ public class DrawingSurfaceView extends GLSurfaceView{
 
         final MotionEvent ev = MotionEvent.obtain(e); //is this the right way to do this?
 
+        // the renderer thread is busy with any frame in progress until it is dropped
+        if (e.getActionMasked() == MotionEvent.ACTION_MOVE) {
+            TexturedMandelbrot.cancelCpuFrame();
+        }
+
         queueEvent(new Runnable() {
             @Override public void run() {
                 mRenderer.touchEvent(ev);
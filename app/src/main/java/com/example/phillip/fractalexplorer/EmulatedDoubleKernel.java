@@ -0,0 +1,149 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * CPU mirror of TexturedMandelbrot.EMULATED_DOUBLE_FRAGMENT_SHADER_CODE.
+ * <p>
+ * Numbers are double-single pairs (hi, lo) of floats, and ds_add, ds_mul and ds_greater_than are
+ * transcribed operation for operation, including the 8192 splitter. The shader adds c to z with a
+ * plain vec4 addition rather than ds_add, which leaves the pair unnormalised; that is reproduced
+ * here too, since matching the GPU output matters more than the extra bits. So is the shader's
+ * cardioid and bulb test on the high parts of c, whether or not InteriorChecks are enabled.
+ */
+
+class EmulatedDoubleKernel extends EscapeKernel {
+
+    private static final float SPLIT = 8192f;
+
+    // uniforms, as vecToDs would have uploaded them: {x.hi, x.lo, y.hi, y.lo}
+    private final float[] mCp;
+    private final float[] mVecA;
+    private final float[] mVecB;
+
+    EmulatedDoubleKernel(RenderView view) {
+        super(view);
+        mCp = vecToDs(view.mCentrePoint);
+        mVecA = vecToDs(view.mVecA);
+        mVecB = vecToDs(view.mVecB);
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        float u = mView.texCoordX(px);
+        float v = mView.texCoordY(py);
+        float[] r = scratch.mFloats;
+
+        float crHi, crLo, ciHi, ciLo;
+
+        // c.xy = ds_add(ds_add(ds_add(u_cp.xy, -u_vecA.xy), -u_vecB.xy),
+        //        ds_mul(ds_set(2.0), ds_add(ds_mul(ds_set(v_texCoord.x), u_vecA.xy),
+        //                                   ds_mul(ds_set(v_texCoord.y), u_vecB.xy))));
+        mapComponent(u, v, 0, r);
+        crHi = r[0];
+        crLo = r[1];
+        mapComponent(u, v, 2, r);
+        ciHi = r[0];
+        ciLo = r[1];
+
+        if (InteriorChecks.inCardioidOrBulb(crHi, ciHi)) return inCardioidOrBulb(stats);
+
+        float zrHi = crHi, zrLo = crLo, ziHi = ciHi, ziLo = ciLo;
+        float xxHi, xxLo, yyHi, yyLo, nrHi, nrLo;
+        int limit = mView.mEscapeLimit;
+        int i;
+
+        for (i = 0; i < limit; i++) {
+            dsMul(zrHi, zrLo, zrHi, zrLo, r);
+            xxHi = r[0];
+            xxLo = r[1];
+            dsMul(ziHi, ziLo, ziHi, ziLo, r);
+            yyHi = r[0];
+            yyLo = r[1];
+
+            dsAdd(xxHi, xxLo, yyHi, yyLo, r);
+            if (dsGreaterThan(r[0], r[1], 4f, 0f)) break;
+
+            dsAdd(xxHi, xxLo, -yyHi, -yyLo, r);
+            nrHi = r[0];
+            nrLo = r[1];
+
+            dsMul(2f, 0f, zrHi, zrLo, r);
+            dsMul(r[0], r[1], ziHi, ziLo, r);
+
+            // vec4 addition, not ds_add
+            zrHi = nrHi + crHi;
+            zrLo = nrLo + crLo;
+            ziHi = r[0] + ciHi;
+            ziLo = r[1] + ciLo;
+        }
+        return i;
+    }
+
+    // offset 0 computes the real part of c, offset 2 the imaginary part
+    private void mapComponent(float u, float v, int offset, float[] r) {
+        float tHi, tLo, aHi, aLo;
+
+        dsAdd(mCp[offset], mCp[offset + 1], -mVecA[offset], -mVecA[offset + 1], r);
+        dsAdd(r[0], r[1], -mVecB[offset], -mVecB[offset + 1], r);
+        tHi = r[0];
+        tLo = r[1];
+
+        dsMul(u, 0f, mVecA[offset], mVecA[offset + 1], r);
+        aHi = r[0];
+        aLo = r[1];
+        dsMul(v, 0f, mVecB[offset], mVecB[offset + 1], r);
+        dsAdd(aHi, aLo, r[0], r[1], r);
+        dsMul(2f, 0f, r[0], r[1], r);
+
+        dsAdd(tHi, tLo, r[0], r[1], r);
+    }
+
+    static boolean dsGreaterThan(float aHi, float aLo, float bHi, float bLo) {
+        if (aHi == bHi) {
+            return aLo > bLo;
+        } else {
+            return aHi > bHi;
+        }
+    }
+
+    static void dsAdd(float aHi, float aLo, float bHi, float bLo, float[] result) {
+        float t1, t2, e;
+
+        t1 = aHi + bHi;
+        e = t1 - aHi;
+        t2 = ((bHi - e) + (aHi - (t1 - e))) + aLo + bLo;
+
+        result[0] = t1 + t2;
+        result[1] = t2 - (result[0] - t1);
+    }
+
+    static void dsMul(float aHi, float aLo, float bHi, float bLo, float[] result) {
+        float c11, c21, c2, e, t1, t2;
+        float a1, a2, b1, b2, conA, conB;
+
+        conA = aHi * SPLIT;
+        conB = bHi * SPLIT;
+        a1 = conA - (conA - aHi);
+        b1 = conB - (conB - bHi);
+        a2 = aHi - a1;
+        b2 = bHi - b1;
+
+        c11 = aHi * bHi;
+        c21 = a2 * b2 + (a2 * b1 + (a1 * b2 + (a1 * b1 - c11)));
+
+        c2 = aHi * bLo + aLo * bHi;
+
+        t1 = c11 + c2;
+        e = t1 - c11;
+        t2 = aLo * bLo + ((c2 - e) + (c11 - (t1 - e))) + c21;
+
+        result[0] = t1 + t2;
+        result[1] = t2 - (result[0] - t1);
+    }
+
+    // matches TexturedMandelbrot.vecToDs
+    static float[] vecToDs(double[] vec) {
+        float xHi = (float) vec[0];
+        float yHi = (float) vec[1];
+        return new float[] {xHi, (float) (vec[0] - xHi), yHi, (float) (vec[1] - yHi)};
+    }
+}
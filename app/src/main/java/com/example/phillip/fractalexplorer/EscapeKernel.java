@@ -0,0 +1,156 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * The CPU counterpart of a fragment shader: given a pixel of a RenderView, it runs the escape loop
+ * and returns the iteration count the shader would have used to index the gradient texture.
+ * <p>
+ * A kernel is created for a single frame and is shared by every worker thread rendering that
+ * frame, so implementations must not keep per-pixel state in fields, other than in the
+ * OrbitField they are given, where each pixel has its own entry. Arrays a pixel needs come from
+ * the KernelScratch of the worker computing it, never from an allocation in the escape loop.
+ * <p>
+ * Unless InteriorChecks are turned off, kernels return the escape limit straight away for points
+ * in the main cardioid or period 2 bulb, and those that can afford it check orbits for cycles.
+ */
+
+abstract class EscapeKernel {
+
+    // returned by escapeTime() for pixels the kernel could not iterate accurately
+    static final int GLITCHED = -1;
+
+    final RenderView mView;
+    final boolean mInteriorChecks;
+    // distance within which an orbit is taken to have returned to a saved point; 0 turns
+    // periodicity checking off
+    final double mPeriodTolerance;
+    // where kernels that can resume leave the orbits of pixels reaching the escape limit; null
+    // unless the renderer asked for them before the frame started
+    OrbitField mOrbits;
+
+    EscapeKernel(RenderView view) {
+        mView = view;
+        mInteriorChecks = InteriorChecks.isEnabled();
+        mPeriodTolerance = mInteriorChecks
+                ? InteriorChecks.PERIODICITY_TOLERANCE * view.pixelSpacing() : 0d;
+    }
+
+    /**
+     * Iterates the pixel at (px, py), counted from the top left of the view.
+     *
+     * @param stats Counters of the tile being rendered, for kernels that have anything to report
+     *      beyond the escape count.
+     * @param scratch Working arrays of the calling worker.
+     * @return The number of iterations completed before |z| exceeded 2, or the escape limit if it
+     *      never did. This is the value of i when the shaders leave their escape loop. Kernels
+     *      that detect glitches return GLITCHED instead of a value they know to be unreliable.
+     */
+    abstract int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch);
+
+    /**
+     * Iterates a single pixel with scratch of its own, for callers outside a render.
+     */
+    final int escapeTime(int px, int py, RenderStatistics stats) {
+        return escapeTime(px, py, stats, new KernelScratch());
+    }
+
+    /**
+     * Counts a pixel found inside the main cardioid or period 2 bulb, and returns the escape
+     * limit as its escape count.
+     */
+    final int inCardioidOrBulb(RenderStatistics stats) {
+        stats.mCardioidPixels++;
+        stats.mIterationsSkipped += mView.mEscapeLimit;
+        return mView.mEscapeLimit;
+    }
+
+    /**
+     * Counts a pixel whose orbit was found to be periodic after the given number of iterations,
+     * and returns the escape limit as its escape count.
+     */
+    final int periodic(int iterations, RenderStatistics stats) {
+        stats.mPeriodicPixels++;
+        stats.mIterationsSkipped += mView.mEscapeLimit - iterations;
+        return mView.mEscapeLimit;
+    }
+
+    /**
+     * Carries on iterating the pixel at (px, py) from the orbit it left in mOrbits when it
+     * reached the escape limit from, up to the limit of this kernel's view.
+     *
+     * @return What escapeTime() would have returned.
+     */
+    int resume(int px, int py, int from, RenderStatistics stats, KernelScratch scratch) {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " can not resume orbits");
+    }
+
+    /**
+     * Doubles of state per pixel this kernel keeps in an OrbitField, or 0 if it can not resume.
+     */
+    int orbitComponents() {
+        return 0;
+    }
+
+    /**
+     * Records that the pixel at (px, py) never escapes, if orbits are being kept, and returns
+     * count.
+     */
+    final int interior(int px, int py, int count) {
+        if (mOrbits != null) {
+            mOrbits.markInterior(py * mView.mWidth + px);
+        }
+        return count;
+    }
+
+    /**
+     * Whether escapeTime() may return GLITCHED.
+     */
+    boolean detectsGlitches() {
+        return false;
+    }
+
+    /**
+     * A kernel for the same view that iterates relative to pixel (px, py) instead, for finishing
+     * the glitched pixels around it.
+     *
+     * @param detectGlitches Whether the new kernel should report glitches of its own.
+     */
+    EscapeKernel rereference(int px, int py, boolean detectGlitches) {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " does not glitch");
+    }
+
+    /**
+     * This kernel, returning its best estimate rather than GLITCHED for every pixel.
+     */
+    EscapeKernel withoutGlitchDetection() {
+        return this;
+    }
+
+    /**
+     * Creates the kernel matching the precision model of the view.
+     */
+    static EscapeKernel create(RenderView view) {
+        switch (view.mPrecision) {
+            case TexturedMandelbrot.F32:
+                return new F32Kernel(view);
+            case TexturedMandelbrot.EMULATED_DOUBLE:
+                return new EmulatedDoubleKernel(view);
+            case TexturedMandelbrot.PERTURBATION:
+                return new PerturbationKernel(view);
+            case TexturedMandelbrot.DOUBLE_DOUBLE:
+                return new DoubleDoubleKernel(view);
+            case TexturedMandelbrot.QUAD_DOUBLE:
+                return new QuadDoubleKernel(view);
+            case TexturedMandelbrot.FIXED_64:
+                return new Fixed64Kernel(view);
+            case TexturedMandelbrot.FIXED_128:
+                return new Fixed128Kernel(view);
+            case TexturedMandelbrot.F64:
+                return new F64Kernel(view);
+            default:
+                throw new IllegalArgumentException("No CPU kernel for precision model "
+                        + view.mPrecision);
+        }
+    }
+}
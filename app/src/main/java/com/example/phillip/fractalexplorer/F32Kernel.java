@@ -0,0 +1,57 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * CPU mirror of TexturedMandelbrot.F32_FRAGMENT_SHADER_CODE.
+ * <p>
+ * Every operation is carried out in single precision and in the same order as the shader, so the
+ * escape counts agree with a GPU that implements mediump as IEEE binary32 and does not fuse
+ * multiply-adds. The shader's cardioid and bulb test is made whether or not InteriorChecks are
+ * enabled, and there is no periodicity checking, which the shader does not do either.
+ */
+
+class F32Kernel extends EscapeKernel {
+
+    // uniforms, as vecToF32 would have uploaded them
+    private final float mCpX, mCpY;
+    private final float mVecAX, mVecAY;
+    private final float mVecBX, mVecBY;
+
+    F32Kernel(RenderView view) {
+        super(view);
+        mCpX = (float) view.mCentrePoint[0];
+        mCpY = (float) view.mCentrePoint[1];
+        mVecAX = (float) view.mVecA[0];
+        mVecAY = (float) view.mVecA[1];
+        mVecBX = (float) view.mVecB[0];
+        mVecBY = (float) view.mVecB[1];
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        float u = mView.texCoordX(px);
+        float v = mView.texCoordY(py);
+
+        // c = u_cp - u_vecA - u_vecB + (2.0 * (v_texCoord.x * u_vecA + v_texCoord.y * u_vecB))
+        float cx = mCpX - mVecAX - mVecBX + (2f * (u * mVecAX + v * mVecBX));
+        float cy = mCpY - mVecAY - mVecBY + (2f * (u * mVecAY + v * mVecBY));
+
+        if (InteriorChecks.inCardioidOrBulb(cx, cy)) return inCardioidOrBulb(stats);
+        return iterate(cx, cy, mView.mEscapeLimit);
+    }
+
+    static int iterate(float cx, float cy, int limit) {
+        float zx = cx;
+        float zy = cy;
+        float x2, y2;
+        int i;
+
+        for (i = 0; i < limit; i++) {
+            x2 = zx * zx;
+            y2 = zy * zy;
+            if (x2 + y2 > 4f) break;
+            zy = 2f * zy * zx + cy;
+            zx = x2 - y2 + cx;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * The escape loop in plain double precision. There is no shader counterpart; on the CPU it is the
+ * cheapest kernel, and it resolves a little deeper than EMULATED_DOUBLE.
+ * <p>
+ * Like the other kernels without a shader to match, it makes the InteriorChecks: the cardioid and
+ * bulb test before the loop, and Brent's periodicity check inside it.
+ * <p>
+ * Given an OrbitField, it leaves there the orbit of every pixel that reaches the escape limit,
+ * so that the pixel can be resumed at a higher limit with the same count a fresh start would give.
+ */
+
+class F64Kernel extends EscapeKernel {
+
+    // z and the saved point
+    static final int ORBIT_COMPONENTS = 4;
+
+    F64Kernel(RenderView view) {
+        super(view);
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        double cx = view.mCentrePoint[0] + (du * view.mVecA[0] + dv * view.mVecB[0]);
+        double cy = view.mCentrePoint[1] + (du * view.mVecA[1] + dv * view.mVecB[1]);
+
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(cx, cy)) {
+            return interior(px, py, inCardioidOrBulb(stats));
+        }
+        return iterate(px, py, cx, cy, cx, cy, cx, cy, 0, stats);
+    }
+
+    @Override
+    int resume(int px, int py, int from, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        double cx = view.mCentrePoint[0] + (du * view.mVecA[0] + dv * view.mVecB[0]);
+        double cy = view.mCentrePoint[1] + (du * view.mVecA[1] + dv * view.mVecB[1]);
+
+        OrbitField orbits = mOrbits;
+        int index = py * view.mWidth + px;
+        return iterate(px, py, cx, cy, orbits.get(index, 0), orbits.get(index, 1),
+                orbits.get(index, 2), orbits.get(index, 3), from, stats);
+    }
+
+    @Override
+    int orbitComponents() {
+        return ORBIT_COMPONENTS;
+    }
+
+    // the escape loop from iteration from, with z and the point last saved as they were then
+    private int iterate(int px, int py, double cx, double cy, double zx, double zy,
+                        double savedX, double savedY, int from, RenderStatistics stats) {
+        double x2, y2;
+        double tolerance = mPeriodTolerance;
+        int limit = mView.mEscapeLimit;
+        // z is saved whenever the count reaches a power of two
+        int nextSave = from < 2 ? 2 : Integer.highestOneBit(from) << 1;
+        int i;
+
+        for (i = from; i < limit; i++) {
+            x2 = zx * zx;
+            y2 = zy * zy;
+            if (x2 + y2 > 4d) break;
+            zy = 2d * zy * zx + cy;
+            zx = x2 - y2 + cx;
+
+            if (Math.abs(zx - savedX) + Math.abs(zy - savedY) < tolerance) {
+                return interior(px, py, periodic(i + 1, stats));
+            }
+            if (i + 1 == nextSave) {
+                savedX = zx;
+                savedY = zy;
+                nextSave <<= 1;
+            }
+        }
+
+        if (i == limit && mOrbits != null) {
+            int index = py * mView.mWidth + px;
+            mOrbits.set(index, 0, zx);
+            mOrbits.set(index, 1, zy);
+            mOrbits.set(index, 2, savedX);
+            mOrbits.set(index, 3, savedY);
+            mOrbits.markOrbit(index, mView.mPrecision);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Escape loop in Q4.123 fixed point: 128 bit two's complement numbers held as a pair of longs
+ * (hi, lo), with 123 fraction bits. That resolves pixel spacings down to about 1e-33, a little
+ * past DoubleDoubleKernel, with integer adds and multiplies only. Without a 64 x 64 -> 128 bit
+ * multiply in the Java libraries the app can use, each product takes a dozen or more long
+ * multiplies, and an iteration costs about 1.7 times one in DoubleDoubleKernel.
+ * <p>
+ * Products are formed from the magnitudes of the operands and truncated toward zero. Like
+ * Fixed64Kernel, the loop leaves as soon as a coordinate of z passes 2, so nothing it computes
+ * needs more than 4 integer bits. It makes the InteriorChecks the same way Fixed64Kernel does.
+ */
+
+class Fixed128Kernel extends EscapeKernel {
+
+    static final int FRACTION_BITS = 123;
+    // 2 and 4 as the high word of a number with a zero low word
+    private static final long TWO_HI = 2L << (FRACTION_BITS - 64);
+    private static final long FOUR_HI = 4L << (FRACTION_BITS - 64);
+
+    // {cr hi, cr lo, ci hi, ci lo}
+    private final long[] mCentre = new long[4];
+    private final boolean mCentreInRange;
+
+    Fixed128Kernel(RenderView view) {
+        super(view);
+        mCentreInRange = Math.abs(view.mCentrePoint[0]) <= Fixed64Kernel.CENTRE_RANGE
+                && Math.abs(view.mCentrePoint[1]) <= Fixed64Kernel.CENTRE_RANGE;
+        if (mCentreInRange) {
+            toFixed(view.mCentreExact[0], mCentre, 0);
+            toFixed(view.mCentreExact[1], mCentre, 2);
+        }
+    }
+
+    static void toFixed(BigDecimal x, long[] r, int offset) {
+        BigInteger scaled = x.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(FRACTION_BITS)))
+                .setScale(0, RoundingMode.HALF_EVEN)
+                .toBigInteger();
+        r[offset] = scaled.shiftRight(64).longValue();
+        r[offset + 1] = scaled.longValue();
+    }
+
+    // the double d, truncated toward zero to 123 fraction bits
+    static void toFixed(double d, long[] r, int offset) {
+        long hi = 0L, lo = 0L;
+        if (Math.getExponent(d) >= Double.MIN_EXPONENT) {
+            long mantissa = (Double.doubleToRawLongBits(d) & 0xfffffffffffffL) | (1L << 52);
+            int shift = Math.getExponent(d) - 52 + FRACTION_BITS;
+            if (shift >= 64) {
+                hi = mantissa << (shift - 64);
+            } else if (shift > 0) {
+                hi = mantissa >>> (64 - shift);
+                lo = mantissa << shift;
+            } else if (shift > -64) {
+                lo = mantissa >>> -shift;
+            }
+            if (d < 0d) {
+                lo = -lo;
+                hi = lo == 0L ? -hi : ~hi;
+            }
+        }
+        r[offset] = hi;
+        r[offset + 1] = lo;
+    }
+
+    // r = a * b, truncated toward zero
+    static void multiply(long aHi, long aLo, long bHi, long bLo, long[] r) {
+        boolean negative = (aHi ^ bHi) < 0;
+        if (aHi < 0) {
+            aLo = -aLo;
+            aHi = aLo == 0L ? -aHi : ~aHi;
+        }
+        if (bHi < 0) {
+            bLo = -bLo;
+            bHi = bLo == 0L ? -bHi : ~bHi;
+        }
+
+        // 256 bit product (w3, w2, w1, w0) of the magnitudes, less w0, which is never needed
+        long h00 = LongMath.unsignedMultiplyHigh(aLo, bLo);
+        long l10 = aHi * bLo, h10 = LongMath.unsignedMultiplyHigh(aHi, bLo);
+        long l01 = aLo * bHi, h01 = LongMath.unsignedMultiplyHigh(aLo, bHi);
+        long l11 = aHi * bHi, h11 = LongMath.multiplyHigh(aHi, bHi);
+        long t, c;
+
+        long w1 = h00 + l10;
+        c = carry(h00, w1);
+        t = w1 + l01;
+        c += carry(w1, t);
+        w1 = t;
+
+        long w2 = h10 + c;
+        c = carry(h10, w2);
+        t = w2 + h01;
+        c += carry(w2, t);
+        w2 = t;
+        t = w2 + l11;
+        c += carry(w2, t);
+        w2 = t;
+
+        long w3 = h11 + c;
+
+        // bits 123 to 250 of the product
+        long hi = (w3 << (128 - FRACTION_BITS)) | (w2 >>> (FRACTION_BITS - 64));
+        long lo = (w2 << (128 - FRACTION_BITS)) | (w1 >>> (FRACTION_BITS - 64));
+        if (negative) {
+            lo = -lo;
+            hi = lo == 0L ? -hi : ~hi;
+        }
+        r[0] = hi;
+        r[1] = lo;
+    }
+
+    // r = a * a; the two cross products are equal, which saves a third of the work of multiply()
+    static void square(long aHi, long aLo, long[] r) {
+        if (aHi < 0) {
+            aLo = -aLo;
+            aHi = aLo == 0L ? -aHi : ~aHi;
+        }
+
+        long h00 = LongMath.unsignedMultiplyHigh(aLo, aLo);
+        long l10 = aHi * aLo, h10 = LongMath.unsignedMultiplyHigh(aHi, aLo);
+        long l11 = aHi * aHi, h11 = LongMath.multiplyHigh(aHi, aHi);
+        long t, c;
+
+        // the cross product doubled, as a 129 bit number (c, h10, l10)
+        c = h10 >>> 63;
+        h10 = (h10 << 1) | (l10 >>> 63);
+        l10 <<= 1;
+
+        long w1 = h00 + l10;
+        long w2 = h10 + carry(h00, w1);
+        c += carry(h10, w2);
+        t = w2 + l11;
+        c += carry(w2, t);
+        w2 = t;
+
+        long w3 = h11 + c;
+
+        r[0] = (w3 << (128 - FRACTION_BITS)) | (w2 >>> (FRACTION_BITS - 64));
+        r[1] = (w2 << (128 - FRACTION_BITS)) | (w1 >>> (FRACTION_BITS - 64));
+    }
+
+    // |x| > 2
+    private static boolean outside(long hi, long lo) {
+        if (hi < 0) {
+            lo = -lo;
+            hi = lo == 0L ? -hi : ~hi;
+        }
+        return hi > TWO_HI || (hi == TWO_HI && lo != 0L);
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        double dcr = du * view.mVecA[0] + dv * view.mVecB[0];
+        double dci = du * view.mVecA[1] + dv * view.mVecB[1];
+
+        if (Math.abs(view.mCentrePoint[0] + dcr) > 2d
+                || Math.abs(view.mCentrePoint[1] + dci) > 2d) {
+            return 0;
+        }
+
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(
+                view.mCentrePoint[0] + dcr, view.mCentrePoint[1] + dci)) {
+            return inCardioidOrBulb(stats);
+        }
+
+        long[] r = scratch.mLongs;
+        long crHi, crLo, ciHi, ciLo;
+        if (mCentreInRange) {
+            toFixed(dcr, r, 0);
+            toFixed(dci, r, 2);
+            crLo = mCentre[1] + r[1];
+            crHi = mCentre[0] + r[0] + carry(mCentre[1], crLo);
+            ciLo = mCentre[3] + r[3];
+            ciHi = mCentre[2] + r[2] + carry(mCentre[3], ciLo);
+        } else {
+            toFixed(view.mCentrePoint[0] + dcr, r, 0);
+            toFixed(view.mCentrePoint[1] + dci, r, 2);
+            crHi = r[0];
+            crLo = r[1];
+            ciHi = r[2];
+            ciLo = r[3];
+        }
+
+        long zrHi = crHi, zrLo = crLo, ziHi = ciHi, ziLo = ciLo;
+        long xxHi, xxLo, yyHi, yyLo, sHi, sLo;
+        long savedRHi = zrHi, savedRLo = zrLo, savedIHi = ziHi, savedILo = ziLo;
+        double tolerance = mPeriodTolerance;
+        int limit = view.mEscapeLimit;
+        int nextSave = 2;
+        int i;
+
+        for (i = 0; i < limit; i++) {
+            if (outside(zrHi, zrLo) || outside(ziHi, ziLo)) break;
+
+            square(zrHi, zrLo, r);
+            xxHi = r[0];
+            xxLo = r[1];
+            square(ziHi, ziLo, r);
+            yyHi = r[0];
+            yyLo = r[1];
+
+            // |z|^2 > 4, both squares being non-negative
+            sLo = xxLo + yyLo;
+            sHi = xxHi + yyHi + carry(xxLo, sLo);
+            if (sHi > FOUR_HI || (sHi == FOUR_HI && sLo != 0L)) break;
+
+            // zi = 2 zr zi + ci
+            multiply(zrHi, zrLo, ziHi, ziLo, r);
+            sHi = (r[0] << 1) | (r[1] >>> 63);
+            sLo = r[1] << 1;
+            ziLo = sLo + ciLo;
+            ziHi = sHi + ciHi + carry(sLo, ziLo);
+
+            // zr = xx - yy + cr
+            sLo = xxLo - yyLo;
+            sHi = xxHi - yyHi - borrow(xxLo, sLo);
+            zrLo = sLo + crLo;
+            zrHi = sHi + crHi + carry(sLo, zrLo);
+
+            sLo = zrLo - savedRLo;
+            sHi = zrHi - savedRHi - borrow(zrLo, sLo);
+            if (Math.abs(toDouble(sHi, sLo)) < tolerance) {
+                sLo = ziLo - savedILo;
+                sHi = ziHi - savedIHi - borrow(ziLo, sLo);
+                if (Math.abs(toDouble(sHi, sLo)) < tolerance) return periodic(i + 1, stats);
+            }
+            if (i + 1 == nextSave) {
+                savedRHi = zrHi;
+                savedRLo = zrLo;
+                savedIHi = ziHi;
+                savedILo = ziLo;
+                nextSave <<= 1;
+            }
+        }
+        return i;
+    }
+
+    // the number (hi, lo), to within an ulp of a double
+    static double toDouble(long hi, long lo) {
+        return Math.scalb((double) hi, 64 - FRACTION_BITS)
+                + Math.scalb((double) (lo >>> 1), 1 - FRACTION_BITS);
+    }
+
+    // carry out of the low word addition sum = a + b
+    private static long carry(long a, long sum) {
+        return (sum ^ Long.MIN_VALUE) < (a ^ Long.MIN_VALUE) ? 1L : 0L;
+    }
+
+    // borrow out of the low word subtraction difference = a - b
+    private static long borrow(long a, long difference) {
+        return (difference ^ Long.MIN_VALUE) > (a ^ Long.MIN_VALUE) ? 1L : 0L;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Escape loop in Q4.59 fixed point: 64 bit longs holding 59 fraction bits. Sums are exact and
+ * products correct to the last bit, six bits more than a double carries at |c| ~ 1. Less
+ * PrecisionSelector's guard bits that resolves pixel spacings down to about 2^-49, or 1.8e-15,
+ * just past F64. An iteration costs about a quarter of one in DoubleDoubleKernel.
+ * <p>
+ * With 4 integer bits the loop must never square a coordinate larger than 2 or build one larger
+ * than 16, so it leaves as soon as either coordinate of z passes 2, which already means |z| > 2,
+ * and pixels with c outside that box escape before the conversion. The InteriorChecks are made
+ * with the cardioid and bulb test in double precision and the periodicity check in fixed point.
+ */
+
+class Fixed64Kernel extends EscapeKernel {
+
+    static final int FRACTION_BITS = 59;
+    private static final long TWO = 2L << FRACTION_BITS;
+    private static final long FOUR = 4L << FRACTION_BITS;
+    private static final double SCALE = 0x1p59;
+
+    // centres further out than this can only be seen from views wide enough for doubles
+    static final double CENTRE_RANGE = 4d;
+
+    private final long mCr, mCi;
+    private final boolean mCentreInRange;
+
+    Fixed64Kernel(RenderView view) {
+        super(view);
+        mCentreInRange = Math.abs(view.mCentrePoint[0]) <= CENTRE_RANGE
+                && Math.abs(view.mCentrePoint[1]) <= CENTRE_RANGE;
+        mCr = mCentreInRange ? toFixed(view.mCentreExact[0]) : 0L;
+        mCi = mCentreInRange ? toFixed(view.mCentreExact[1]) : 0L;
+    }
+
+    static long toFixed(BigDecimal x) {
+        return x.multiply(new BigDecimal(SCALE)).setScale(0, RoundingMode.HALF_EVEN).longValue();
+    }
+
+    // a * b, rounded toward minus infinity
+    static long multiply(long a, long b) {
+        return (LongMath.multiplyHigh(a, b) << (64 - FRACTION_BITS)) | ((a * b) >>> FRACTION_BITS);
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        double dcr = du * view.mVecA[0] + dv * view.mVecB[0];
+        double dci = du * view.mVecA[1] + dv * view.mVecB[1];
+
+        if (Math.abs(view.mCentrePoint[0] + dcr) > 2d
+                || Math.abs(view.mCentrePoint[1] + dci) > 2d) {
+            return 0;
+        }
+
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(
+                view.mCentrePoint[0] + dcr, view.mCentrePoint[1] + dci)) {
+            return inCardioidOrBulb(stats);
+        }
+
+        long cr, ci;
+        if (mCentreInRange) {
+            cr = mCr + Math.round(dcr * SCALE);
+            ci = mCi + Math.round(dci * SCALE);
+        } else {
+            cr = Math.round((view.mCentrePoint[0] + dcr) * SCALE);
+            ci = Math.round((view.mCentrePoint[1] + dci) * SCALE);
+        }
+        long zr = cr, zi = ci, xx, yy;
+        long savedR = zr, savedI = zi;
+        long tolerance = (long) (mPeriodTolerance * SCALE);
+        int limit = view.mEscapeLimit;
+        int nextSave = 2;
+        int i;
+
+        for (i = 0; i < limit; i++) {
+            if (zr > TWO || zr < -TWO || zi > TWO || zi < -TWO) break;
+            xx = multiply(zr, zr);
+            yy = multiply(zi, zi);
+            if (xx + yy > FOUR) break;
+
+            zi = (multiply(zr, zi) << 1) + ci;
+            zr = xx - yy + cr;
+
+            if (Math.abs(zr - savedR) + Math.abs(zi - savedI) < tolerance) {
+                return periodic(i + 1, stats);
+            }
+            if (i + 1 == nextSave) {
+                savedR = zr;
+                savedI = zi;
+                nextSave <<= 1;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * A mutable signed fixed-point number for iterating reference orbits at hundreds or thousands of
+ * bits without the allocation and scale bookkeeping of BigDecimal.
+ * <p>
+ * The magnitude is held in 32 bit limbs, most significant first: mLimbs[0] is the integer part
+ * and mLimbs[1..n] are n limbs of fraction, so the value is the sum of mLimbs[i] * 2^(-32 i),
+ * with a separate sign. Every number taking part in one calculation must have the same number of
+ * fraction limbs. The integer part only has to hold the values seen while iterating z^2 + c,
+ * well under 2^16.
+ * <p>
+ * Operations overwrite the number they are called on with the result, and allow it to be one of
+ * the operands. Products are truncated: only the columns down to one limb beyond the last fraction
+ * limb are formed, which halves the work of a full product for an error of a few units in the
+ * last limb.
+ */
+
+final class FixedPoint {
+
+    static final int LIMB_BITS = 32;
+    private static final long MASK = 0xffffffffL;
+
+    final int[] mLimbs;
+    boolean mNegative;
+
+    // column sums of a product, split into low and high halves of each limb product so that
+    // neither can overflow
+    private final long[] mLow;
+    private final long[] mHigh;
+
+    FixedPoint(int fractionLimbs) {
+        if (fractionLimbs <= 0) {
+            throw new IllegalArgumentException("Need at least one fraction limb: "
+                    + fractionLimbs);
+        }
+        mLimbs = new int[fractionLimbs + 1];
+        mLow = new long[fractionLimbs + 2];
+        mHigh = new long[fractionLimbs + 2];
+    }
+
+    /**
+     * Number of fraction limbs needed to hold bits fraction bits.
+     */
+    static int limbsFor(int bits) {
+        return Math.max((bits + LIMB_BITS - 1) / LIMB_BITS, 1);
+    }
+
+    static FixedPoint valueOf(BigDecimal x, int fractionLimbs) {
+        FixedPoint result = new FixedPoint(fractionLimbs);
+        result.set(x);
+        return result;
+    }
+
+    int getFractionLimbs() {
+        return mLimbs.length - 1;
+    }
+
+    /**
+     * Rounds x to the nearest multiple of the last limb.
+     */
+    void set(BigDecimal x) {
+        int n = getFractionLimbs();
+        BigInteger scaled = x.abs()
+                .multiply(new BigDecimal(BigInteger.ONE.shiftLeft(n * LIMB_BITS)))
+                .setScale(0, RoundingMode.HALF_EVEN)
+                .toBigInteger();
+        if (scaled.bitLength() > (n + 1) * LIMB_BITS) {
+            throw new ArithmeticException("Too large for fixed point: " + x);
+        }
+        for (int i = n; i >= 0; i--) {
+            mLimbs[i] = scaled.intValue();
+            scaled = scaled.shiftRight(LIMB_BITS);
+        }
+        mNegative = x.signum() < 0 && !isZero();
+    }
+
+    void set(FixedPoint x) {
+        System.arraycopy(x.mLimbs, 0, mLimbs, 0, mLimbs.length);
+        mNegative = x.mNegative;
+    }
+
+    /**
+     * The exact value of this number.
+     */
+    BigDecimal toBigDecimal() {
+        BigInteger magnitude = BigInteger.ZERO;
+        for (int limb : mLimbs) {
+            magnitude = magnitude.shiftLeft(LIMB_BITS).or(BigInteger.valueOf(limb & MASK));
+        }
+        BigDecimal value = new BigDecimal(magnitude).divide(
+                new BigDecimal(BigInteger.ONE.shiftLeft(getFractionLimbs() * LIMB_BITS)));
+        return mNegative ? value.negate() : value;
+    }
+
+    /**
+     * This number to double precision, from its three leading non-zero limbs. The result is
+     * within an ulp, though unlike BigDecimal.doubleValue() not always correctly rounded.
+     */
+    double doubleValue() {
+        int[] limbs = mLimbs;
+        int k = 0;
+        while (k < limbs.length && limbs[k] == 0) {
+            k++;
+        }
+        if (k == limbs.length) return 0d;
+
+        double value = limbs[k] & MASK;
+        for (int i = k + 1; i < k + 3; i++) {
+            value = value * 0x1p32 + (i < limbs.length ? limbs[i] & MASK : 0L);
+        }
+        value = Math.scalb(value, -LIMB_BITS * (k + 2));
+        return mNegative ? -value : value;
+    }
+
+    boolean isZero() {
+        for (int limb : mLimbs) {
+            if (limb != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * this = a + b
+     */
+    void add(FixedPoint a, FixedPoint b) {
+        addSigned(a, b, b.mNegative);
+    }
+
+    /**
+     * this = a - b
+     */
+    void subtract(FixedPoint a, FixedPoint b) {
+        addSigned(a, b, !b.mNegative);
+    }
+
+    private void addSigned(FixedPoint a, FixedPoint b, boolean bNegative) {
+        if (a.mNegative == bNegative) {
+            addMagnitudes(a.mLimbs, b.mLimbs);
+            mNegative = bNegative;
+        } else if (compareMagnitudes(a.mLimbs, b.mLimbs) >= 0) {
+            subtractMagnitudes(a.mLimbs, b.mLimbs);
+            mNegative = a.mNegative;
+        } else {
+            subtractMagnitudes(b.mLimbs, a.mLimbs);
+            mNegative = bNegative;
+        }
+        if (mNegative && isZero()) {
+            mNegative = false;
+        }
+    }
+
+    // limbs are read before the same index is written, so either operand may be this number
+    private void addMagnitudes(int[] a, int[] b) {
+        long carry = 0L;
+        for (int i = mLimbs.length - 1; i >= 0; i--) {
+            long sum = (a[i] & MASK) + (b[i] & MASK) + carry;
+            mLimbs[i] = (int) sum;
+            carry = sum >>> LIMB_BITS;
+        }
+    }
+
+    // |a| >= |b|
+    private void subtractMagnitudes(int[] a, int[] b) {
+        long borrow = 0L;
+        for (int i = mLimbs.length - 1; i >= 0; i--) {
+            long difference = (a[i] & MASK) - (b[i] & MASK) - borrow;
+            mLimbs[i] = (int) difference;
+            borrow = difference < 0 ? 1L : 0L;
+        }
+    }
+
+    private static int compareMagnitudes(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & MASK) < (b[i] & MASK) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares with another number of the same precision.
+     */
+    int compareTo(FixedPoint x) {
+        if (mNegative != x.mNegative) {
+            return mNegative ? -1 : 1;
+        }
+        int magnitude = compareMagnitudes(mLimbs, x.mLimbs);
+        return mNegative ? -magnitude : magnitude;
+    }
+
+    /**
+     * this = 2 * this
+     */
+    void twice() {
+        int carry = 0;
+        for (int i = mLimbs.length - 1; i >= 0; i--) {
+            int limb = mLimbs[i];
+            mLimbs[i] = (limb << 1) | carry;
+            carry = limb >>> (LIMB_BITS - 1);
+        }
+    }
+
+    /**
+     * this = a * b
+     */
+    void multiply(FixedPoint a, FixedPoint b) {
+        int[] x = a.mLimbs;
+        int[] y = b.mLimbs;
+        int n = getFractionLimbs();
+        long[] low = mLow;
+        long[] high = mHigh;
+        clearColumns();
+
+        // limb product x[i] y[j] lands in column i + j, its high half in the column before
+        for (int i = 0; i <= n; i++) {
+            long xi = x[i] & MASK;
+            if (xi == 0L) continue;
+            int last = Math.min(n, n + 1 - i);
+            for (int j = 0; j <= last; j++) {
+                long p = xi * (y[j] & MASK);
+                low[i + j] += p & MASK;
+                high[i + j] += p >>> LIMB_BITS;
+            }
+        }
+        carryColumns();
+        mNegative = a.mNegative != b.mNegative && !isZero();
+    }
+
+    /**
+     * this = a * a, forming each cross product once and doubling it.
+     */
+    void square(FixedPoint a) {
+        int[] x = a.mLimbs;
+        int n = getFractionLimbs();
+        long[] low = mLow;
+        long[] high = mHigh;
+        clearColumns();
+
+        for (int i = 0; i <= n; i++) {
+            long xi = x[i] & MASK;
+            if (xi == 0L) continue;
+            if (2 * i <= n + 1) {
+                long p = xi * xi;
+                low[2 * i] += p & MASK;
+                high[2 * i] += p >>> LIMB_BITS;
+            }
+            int last = Math.min(n, n + 1 - i);
+            for (int j = i + 1; j <= last; j++) {
+                long p = xi * (x[j] & MASK);
+                low[i + j] += (p & MASK) << 1;
+                high[i + j] += (p >>> LIMB_BITS) << 1;
+            }
+        }
+        carryColumns();
+        mNegative = false;
+    }
+
+    private void clearColumns() {
+        for (int c = 0; c < mLow.length; c++) {
+            mLow[c] = 0L;
+            mHigh[c] = 0L;
+        }
+    }
+
+    // resolves the column sums into limbs, dropping the guard column below the last limb
+    private void carryColumns() {
+        long[] low = mLow;
+        long[] high = mHigh;
+        int n = getFractionLimbs();
+
+        long carry = (low[n + 1] >>> LIMB_BITS) + high[n + 1];
+        for (int c = n; c >= 0; c--) {
+            long sum = low[c] + carry;
+            mLimbs[c] = (int) sum;
+            carry = (sum >>> LIMB_BITS) + high[c];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.phillip.fractalexplorer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups the glitched pixels of a frame into 4-connected regions, so that each region can be
+ * finished from a reference of its own.
+ */
+
+final class GlitchRegions {
+
+    private GlitchRegions() {
+    }
+
+    /**
+     * @param glitched One flag per pixel, top row first; non-zero marks a glitched pixel.
+     * @return Pixel indices (y * width + x) of every region, largest region first.
+     */
+    static List<int[]> find(byte[] glitched, int width, int height) {
+        List<int[]> regions = new ArrayList<int[]>();
+        boolean[] visited = new boolean[glitched.length];
+        int[] stack = new int[64];
+        int[] region = new int[64];
+
+        for (int start = 0; start < glitched.length; start++) {
+            if (glitched[start] == 0 || visited[start]) continue;
+
+            int size = 0;
+            int top = 0;
+            stack[top++] = start;
+            visited[start] = true;
+
+            while (top > 0) {
+                int p = stack[--top];
+                if (size == region.length) {
+                    region = grow(region);
+                }
+                region[size++] = p;
+
+                int x = p % width;
+                int y = p / width;
+                // room for all four neighbours
+                if (top + 4 > stack.length) {
+                    stack = grow(stack);
+                }
+                if (x > 0 && glitched[p - 1] != 0 && !visited[p - 1]) {
+                    visited[p - 1] = true;
+                    stack[top++] = p - 1;
+                }
+                if (x < width - 1 && glitched[p + 1] != 0 && !visited[p + 1]) {
+                    visited[p + 1] = true;
+                    stack[top++] = p + 1;
+                }
+                if (y > 0 && glitched[p - width] != 0 && !visited[p - width]) {
+                    visited[p - width] = true;
+                    stack[top++] = p - width;
+                }
+                if (y < height - 1 && glitched[p + width] != 0 && !visited[p + width]) {
+                    visited[p + width] = true;
+                    stack[top++] = p + width;
+                }
+            }
+
+            int[] pixels = new int[size];
+            System.arraycopy(region, 0, pixels, 0, size);
+            regions.add(pixels);
+        }
+
+        Collections.sort(regions, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return b.length - a.length;
+            }
+        });
+        return regions;
+    }
+
+    /**
+     * The pixel of the region nearest to the region's centroid. Unlike the centroid itself it is
+     * always inside the region, even for rings and crescents.
+     */
+    static int centralPixel(int[] region, int width) {
+        double sumX = 0d, sumY = 0d;
+        for (int p : region) {
+            sumX += p % width;
+            sumY += p / width;
+        }
+        double cx = sumX / region.length;
+        double cy = sumY / region.length;
+
+        int best = region[0];
+        double bestDistance = Double.MAX_VALUE;
+        for (int p : region) {
+            double dx = p % width - cx;
+            double dy = p / width - cy;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] larger = new int[array.length * 2];
+        System.arraycopy(array, 0, larger, 0, array.length);
+        return larger;
+    }
+}
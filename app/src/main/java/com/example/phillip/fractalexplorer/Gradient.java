@@ -30,7 +30,11 @@ import java.util.Collections;
 public class Gradient {
     private static final String TAG = FractalExplorerActivity.TAG;
 
+    // palettes sampled from recent states of this gradient, most recently used first
+    static final int CACHED_PALETTES = 4;
+
     private ArrayList<ColorProportion> mGradientValues;
+    private final Palette[] mPalettes = new Palette[CACHED_PALETTES];
 
     public Gradient(ColorProportion c0, ColorProportion c1) { // TODO: 6/01/2017 make sure not equal
         mGradientValues = new ArrayList<ColorProportion>();
@@ -41,93 +45,54 @@ public class Gradient {
 
     }
 
-    private int[] computeLocalGradient
-            (ColorProportion colorMin, ColorProportion colorMax, float localSamplePoint) {
-
-        int[] sampleColor = new int[4];
-
-        float deltaR = colorMax.mVec[0] - colorMin.mVec[0];
-        float deltaG = colorMax.mVec[1] - colorMin.mVec[1];
-        float deltaB = colorMax.mVec[2] - colorMin.mVec[2];
-        float deltaA = colorMax.mVec[3] - colorMin.mVec[3];
-
-        sampleColor[0] = Math.round(deltaR * localSamplePoint + colorMin.mVec[0]);
-        sampleColor[1] = Math.round(deltaG * localSamplePoint + colorMin.mVec[1]);
-        sampleColor[2] = Math.round(deltaB * localSamplePoint + colorMin.mVec[2]);
-        sampleColor[3] = Math.round(deltaA * localSamplePoint + colorMin.mVec[3]);
-        return sampleColor;
+    /**
+     * Samples the gradient at the given number of evenly spaced points, including each end. The
+     * most recent CACHED_PALETTES palettes are kept, and asking again for one whose colours and
+     * sample count have not changed returns the same instance without sampling anything.
+     */
+    public Palette compile(int samples) {
+        return compile(samples, false);
     }
 
-    //Returns an array of colours, sampled evenly from the gradient values, including each end.
-    public int[] makeGradient(int intervals) {
-
-        int[] colorArray = new int[intervals * 4]; //only holds colour values
-        ColorProportion c, previousC;
-        float samplePoint;
-
-        //evenly distribute sampling points
-        //scale proportion to local range and calculate colour
-        //colour is a function of the overall change * local offset + initial colour
-
-        Collections.sort(mGradientValues);
-
-
-        //this is an aesthetic choice and may not be the most sensible
-        if (intervals == 1) {
-            c = mGradientValues.get(0);
-            colorArray[0] = (int) c.mVec[0];
-            colorArray[1] = (int) c.mVec[1];
-            colorArray[2] = (int) c.mVec[2];
-            colorArray[3] = (int) c.mVec[3];
-
-        } else {
-
-            float deltaSamplePoint = 1f / (intervals - 1);
-            int gradientValuesIndex = 0;
-
-            for (int i = 0; i < intervals; i++) {
-
-                samplePoint = i * deltaSamplePoint;
-
-                c = mGradientValues.get(gradientValuesIndex);
-                if (samplePoint == c.mVec[4]) { //equal case, should cover first and last samples
-                    colorArray[i* 4] = (int) c.mVec[0];
-                    colorArray[i * 4 + 1] = (int) c.mVec[1];
-                    colorArray[i * 4 + 2] = (int) c.mVec[2];
-                    colorArray[i * 4 + 3] = (int) c.mVec[3];
-                    gradientValuesIndex++;
-                }
-
-                if (samplePoint > c.mVec[4]) {
-                    gradientValuesIndex++;
-                    c = mGradientValues.get(gradientValuesIndex);
-                }
-
-                if (samplePoint < c.mVec[4]) {
-
-                    //calculate values at locally adjusted proportion
-                    //take this point and point index - 1
-                    int[] sampleColor = new int[4];
-                    previousC = mGradientValues.get(gradientValuesIndex - 1);
-
-                    sampleColor = computeLocalGradient(
-                            previousC,
-                            c,
-                            (samplePoint - previousC.mVec[4]) / (c.mVec[4] - previousC.mVec[4])
-                    );
-
-                    colorArray[i * 4] = sampleColor[0];
-                    colorArray[i * 4 + 1] = sampleColor[1];
-                    colorArray[i * 4 + 2] = sampleColor[2];
-                    colorArray[i * 4 + 3] = sampleColor[3];
+    /**
+     * As compile(int), and when periodic the far end is left out so that the palette can be
+     * repeated.
+     */
+    public synchronized Palette compile(int samples, boolean periodic) {
+        if (samples <= 0) {
+            throw new IllegalArgumentException("Palette must have a sample: " + samples);
+        }
 
-                }
+        for (int k = 0; k < mPalettes.length; k++) {
+            Palette palette = mPalettes[k];
+            if (palette != null && palette.matches(mGradientValues, samples, periodic)) {
+                // move to the front so the least recently used is the one replaced
+                System.arraycopy(mPalettes, 0, mPalettes, 1, k);
+                mPalettes[0] = palette;
+                return palette;
+            }
+        }
 
+        // getColours() hands out the list itself, so it may have been changed behind our back
+        if (!isSorted()) {
+            Collections.sort(mGradientValues);
+        }
+        Palette palette = new Palette(mGradientValues, samples, periodic);
+        System.arraycopy(mPalettes, 0, mPalettes, 1, mPalettes.length - 1);
+        mPalettes[0] = palette;
+        return palette;
+    }
 
-            }
+    private boolean isSorted() {
+        for (int i = 1; i < mGradientValues.size(); i++) {
+            if (mGradientValues.get(i - 1).compareTo(mGradientValues.get(i)) > 0) return false;
         }
+        return true;
+    }
 
-        return colorArray;
+    //Returns an array of colours, sampled evenly from the gradient values, including each end.
+    public int[] makeGradient(int intervals) {
+        return compile(intervals).unpack();
     }
 
     public void add(ColorProportion c){
@@ -174,6 +139,7 @@ public class Gradient {
         // TODO: 8/01/2017 try catch     
         mGradientValues.remove(cOld);
         mGradientValues.add(cNew);
+        Collections.sort(mGradientValues);
     }
 
     public ArrayList<ColorProportion> getColours() {
@@ -0,0 +1,33 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes an image handed over a strip of rows at a time, top row first, so that images far
+ * larger than memory can be written from buffers of a few rows. Rows are R, G, B, A bytes, as
+ * CpuRenderer renders them.
+ */
+
+public interface ImageEncoder {
+
+    /**
+     * Starts an image of the given size. Called once, before any rows.
+     */
+    void begin(int width, int height) throws IOException;
+
+    /**
+     * Writes the next rows of the image, held from index 0 of rgba at width * 4 bytes a row.
+     * The position and limit of rgba are left alone, and the buffer may be overwritten once the
+     * call returns.
+     */
+    void writeRows(ByteBuffer rgba, int rows) throws IOException;
+
+    /**
+     * Completes the image once every row has been written. The stream written to is flushed but
+     * left open.
+     *
+     * @throws IllegalStateException if fewer rows were written than the image has.
+     */
+    void finish() throws IOException;
+}
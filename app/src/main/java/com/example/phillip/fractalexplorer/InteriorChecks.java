@@ -0,0 +1,67 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Ways of recognising points that never escape without iterating them to the escape limit.
+ * <p>
+ * The main cardioid and the period 2 bulb, which cover most of the set's area, have closed forms:
+ * <pre>
+ *   q (q + x - 1/4) < y^2 / 4   where q = (x - 1/4)^2 + y^2,   and   (x + 1)^2 + y^2 < 1/16
+ * </pre>
+ * Both are evaluated on c rounded to the precision of the test, so a point is only taken as inside
+ * when it clears the boundary by a margin larger than that rounding; points closer to the edge
+ * than that are iterated as usual.
+ * <p>
+ * Points in other components are found by periodicity checking, after Brent: z is saved whenever
+ * the iteration count reaches a power of two and every later z compared with it, which finds a
+ * cycle of any period within a few times the iterations it takes the orbit to settle onto it. An
+ * orbit that comes back to within PERIODICITY_TOLERANCE pixel spacings of the saved point is taken
+ * to be on its cycle.
+ */
+
+final class InteriorChecks {
+
+    // slack the double precision tests must have before a point counts as inside
+    static final double MARGIN = 1e-12;
+    // the same for the single precision tests the shaders make
+    static final float MARGIN_F32 = 1e-5f;
+
+    static final double PERIODICITY_TOLERANCE = 0x1p-10;
+
+    private static volatile boolean sEnabled = true;
+
+    private InteriorChecks() {
+    }
+
+    /**
+     * Turns the checks on or off for kernels created afterwards. The kernels mirroring a shader
+     * make the same cardioid and bulb test as the shader either way.
+     */
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Whether c is inside the main cardioid or the period 2 bulb.
+     */
+    static boolean inCardioidOrBulb(double cx, double cy) {
+        double x = cx - 0.25d;
+        double y2 = cy * cy;
+        double q = x * x + y2;
+        if (q * (q + x) < 0.25d * y2 - MARGIN) return true;
+        return (cx + 1d) * (cx + 1d) + y2 < 0.0625d - MARGIN;
+    }
+
+    /**
+     * inCardioidOrBulb() as the F32 and emulated double shaders evaluate it.
+     */
+    static boolean inCardioidOrBulb(float cx, float cy) {
+        float x = cx - 0.25f;
+        float q = x * x + cy * cy;
+        if (q * (q + x) < 0.25f * (cy * cy) - MARGIN_F32) return true;
+        return (cx + 1f) * (cx + 1f) + cy * cy < 0.0625f - MARGIN_F32;
+    }
+}
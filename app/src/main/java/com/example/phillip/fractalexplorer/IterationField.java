@@ -0,0 +1,180 @@
+package com.example.phillip.fractalexplorer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The escape count of every pixel of a frame, top row first, as CpuRenderer computes them and
+ * before any colour is applied. Keeping the counts means a change of gradient or colour mapping
+ * costs one pass over the field rather than another escape computation.
+ * <p>
+ * Counts run from 0 to the escape limit, the limit meaning the point never escaped, so limits up
+ * to MAX_NARROW_LIMIT are stored in 16 bits per pixel and anything above in 32. The storage is a
+ * direct buffer in native order, which keeps a large field off the Java heap.
+ */
+
+public final class IterationField {
+
+    // largest escape limit whose counts fit in an unsigned 16 bit entry
+    public static final int MAX_NARROW_LIMIT = 0xffff;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mEscapeLimit;
+    private final ByteBuffer mStorage;
+    // exactly one of these views of mStorage is non null
+    private final ShortBuffer mNarrow;
+    private final IntBuffer mWide;
+
+    public IterationField(int width, int height, int escapeLimit) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Field must have a positive size: "
+                    + width + "x" + height);
+        }
+        if (escapeLimit <= 0) {
+            throw new IllegalArgumentException("Escape limit must be positive: " + escapeLimit);
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mEscapeLimit = escapeLimit;
+        mStorage = ByteBuffer.allocateDirect(width * height * bytesPerPixel(escapeLimit));
+        mStorage.order(ByteOrder.nativeOrder());
+        mNarrow = isNarrow(escapeLimit) ? mStorage.asShortBuffer() : null;
+        mWide = isNarrow(escapeLimit) ? null : mStorage.asIntBuffer();
+    }
+
+    /**
+     * A field sized for the view.
+     */
+    public static IterationField forView(RenderView view) {
+        return new IterationField(view.mWidth, view.mHeight, view.mEscapeLimit);
+    }
+
+    static boolean isNarrow(int escapeLimit) {
+        return escapeLimit <= MAX_NARROW_LIMIT;
+    }
+
+    /**
+     * Bytes of storage each pixel takes for the given escape limit.
+     */
+    public static int bytesPerPixel(int escapeLimit) {
+        return isNarrow(escapeLimit) ? 2 : 4;
+    }
+
+    /**
+     * Whether this field can hold a rendering of the view without reallocating.
+     */
+    public boolean fits(RenderView view) {
+        return view.mWidth == mWidth && view.mHeight == mHeight
+                && view.mEscapeLimit == mEscapeLimit;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getEscapeLimit() {
+        return mEscapeLimit;
+    }
+
+    public int getPixelCount() {
+        return mWidth * mHeight;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel(mEscapeLimit);
+    }
+
+    /**
+     * Moves the counts so that pixel (x, y) takes the count pixel (x + dx, y + dy) had. Pixels
+     * whose source lies outside the field keep whatever count they held, and are left for the
+     * caller to compute.
+     */
+    void shift(int dx, int dy) {
+        int width = mWidth - Math.abs(dx);
+        int height = mHeight - Math.abs(dy);
+        if (width <= 0 || height <= 0 || (dx == 0 && dy == 0)) return;
+
+        int bpp = getBytesPerPixel();
+        byte[] row = new byte[width * bpp];
+        int x = Math.max(-dx, 0);
+        // rows are taken in the order that reads every source row before it is overwritten
+        for (int k = 0; k < height; k++) {
+            int y = dy >= 0 ? k : mHeight - 1 - k;
+            int from = ((y + dy) * mWidth + x + dx) * bpp;
+            int to = (y * mWidth + x) * bpp;
+            mStorage.position(from);
+            mStorage.get(row);
+            mStorage.position(to);
+            mStorage.put(row);
+        }
+        mStorage.clear();
+    }
+
+    /**
+     * Copies the counts of pixels [index, index + count) to out from its position, in the byte
+     * order of out, at getBytesPerPixel() bytes each, and advances its position past them.
+     */
+    void getCounts(int index, int count, ByteBuffer out) {
+        int bpp = getBytesPerPixel();
+        if (out.order() == mStorage.order()) {
+            ByteBuffer counts = mStorage.duplicate();
+            counts.limit((index + count) * bpp).position(index * bpp);
+            out.put(counts);
+        } else if (mNarrow != null) {
+            for (int i = index; i < index + count; i++) {
+                out.putShort(mNarrow.get(i));
+            }
+        } else {
+            for (int i = index; i < index + count; i++) {
+                out.putInt(mWide.get(i));
+            }
+        }
+    }
+
+    /**
+     * Sets the counts of pixels [index, index + count) from in, read from its position in its
+     * own byte order, and advances its position past them.
+     */
+    void putCounts(int index, int count, ByteBuffer in) {
+        int bpp = getBytesPerPixel();
+        if (in.order() == mStorage.order()) {
+            ByteBuffer counts = in.duplicate();
+            counts.limit(in.position() + count * bpp);
+            ByteBuffer into = mStorage.duplicate();
+            into.position(index * bpp);
+            into.put(counts);
+            in.position(counts.position());
+        } else if (mNarrow != null) {
+            for (int i = index; i < index + count; i++) {
+                mNarrow.put(i, in.getShort());
+            }
+        } else {
+            for (int i = index; i < index + count; i++) {
+                mWide.put(i, in.getInt());
+            }
+        }
+    }
+
+    /**
+     * Escape count of the pixel at index y * width + x.
+     */
+    public int get(int index) {
+        return mNarrow != null ? mNarrow.get(index) & 0xffff : mWide.get(index);
+    }
+
+    void set(int index, int count) {
+        if (mNarrow != null) {
+            mNarrow.put(index, (short) count);
+        } else {
+            mWide.put(index, count);
+        }
+    }
+}
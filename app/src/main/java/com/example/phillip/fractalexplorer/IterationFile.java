@@ -0,0 +1,370 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Escape counts of a view of any size, kept on disk in square tiles so that any part of it can
+ * be coloured or exported again later without computing it, and without reading the rest.
+ * <p>
+ * The file starts with a header holding the view (the centre, exactly and as doubles, vecA,
+ * vecB, the escape limit and the precision model) and the size of the image, followed by an
+ * index giving the file offset of every tile, row by row, or 0 for a tile not yet written. Tiles
+ * follow from the first page boundary after the index, in the order they were first written,
+ * each tileSize x tileSize counts row by row at IterationField.bytesPerPixel() bytes a count,
+ * tiles on the right and bottom edges included. Everything is little endian.
+ * <pre>
+ *    0  magic "FXIT", version
+ *    8  width, height, tile size, escape limit, precision, bytes per count, tiles written, 0
+ *   40  centre re, im, vecA re, im, vecB re, im (doubles)
+ *   88  characters of the exact centre re, im, then both as ASCII decimal strings
+ *       tile index, a long a tile, from the next multiple of 8
+ * </pre>
+ * The header and index are memory mapped for as long as the file is open, and tile data in
+ * windows of WINDOW_TILES tiles, mapped as they are first touched, so reading a region only
+ * pages in the tiles under it.
+ */
+
+public final class IterationFile implements Closeable {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+    // tiles a mapping of tile data spans; some kernels allow only a few tens of thousands of
+    // mappings a process, far fewer than the tiles of a gigapixel image
+    static final int WINDOW_TILES = 256;
+
+    static final int MAGIC = 0x54495846; // "FXIT", little endian
+    static final int VERSION = 1;
+    private static final int PAGE_SIZE = 4096;
+    private static final int TILES_WRITTEN = 32;
+    private static final int EXACT_CENTRE = 88;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final boolean mWritable;
+    private final RenderView mView;
+    private final int mTileSize;
+    private final int mTilesAcross;
+    private final int mTilesDown;
+    private final int mBytesPerPixel;
+    private final MappedByteBuffer mHeader;
+    private final int mIndexStart;
+    private final long mDataStart;
+    private final MappedByteBuffer[] mWindows;
+    private int mTilesWritten;
+
+    private IterationFile(RandomAccessFile file, boolean writable, RenderView view, int tileSize,
+                          MappedByteBuffer header, int indexStart) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mWritable = writable;
+        mView = view;
+        mTileSize = tileSize;
+        mTilesAcross = (view.mWidth + tileSize - 1) / tileSize;
+        mTilesDown = (view.mHeight + tileSize - 1) / tileSize;
+        mBytesPerPixel = IterationField.bytesPerPixel(view.mEscapeLimit);
+        mHeader = header;
+        mIndexStart = indexStart;
+        mDataStart = dataStart(indexStart, mTilesAcross, mTilesDown);
+        long tiles = (long) mTilesAcross * mTilesDown;
+        mWindows = new MappedByteBuffer[(int) ((tiles + WINDOW_TILES - 1) / WINDOW_TILES)];
+        mTilesWritten = header.getInt(TILES_WRITTEN);
+    }
+
+    /**
+     * Creates a file for the counts of the view, replacing whatever the file held, with no tiles
+     * written yet.
+     */
+    public static IterationFile create(File file, RenderView view, int tileSize)
+            throws IOException {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        long tiles = (long) ((view.mWidth + tileSize - 1) / tileSize)
+                * ((view.mHeight + tileSize - 1) / tileSize);
+        long tileBytes = (long) tileSize * tileSize * IterationField.bytesPerPixel(
+                view.mEscapeLimit);
+        if (tiles * 8 > Integer.MAX_VALUE - PAGE_SIZE || tileBytes * WINDOW_TILES
+                > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tile size " + tileSize + " does not suit a "
+                    + view.mWidth + "x" + view.mHeight + " view");
+        }
+
+        byte[] re = view.mCentreExact[0].toString().getBytes(ASCII);
+        byte[] im = view.mCentreExact[1].toString().getBytes(ASCII);
+        int indexStart = (EXACT_CENTRE + 8 + re.length + im.length + 7) & ~7;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            MappedByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    indexStart + tiles * 8);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putInt(view.mWidth).putInt(view.mHeight).putInt(tileSize)
+                    .putInt(view.mEscapeLimit).putInt(view.mPrecision)
+                    .putInt(IterationField.bytesPerPixel(view.mEscapeLimit)).putInt(0).putInt(0);
+            header.putDouble(view.mCentrePoint[0]).putDouble(view.mCentrePoint[1])
+                    .putDouble(view.mVecA[0]).putDouble(view.mVecA[1])
+                    .putDouble(view.mVecB[0]).putDouble(view.mVecB[1]);
+            header.putInt(re.length).putInt(im.length).put(re).put(im);
+            // the index, all tiles missing, is the zeroes the file was extended with
+            return new IterationFile(raf, true, view, tileSize, header, indexStart);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file written by create(), for reading alone or for writing more tiles.
+     *
+     * @throws IOException if the file is not one or was written by a later version.
+     */
+    public static IterationFile open(File file, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            FileChannel.MapMode mode = writable
+                    ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            ByteBuffer fixed = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(raf.length(), EXACT_CENTRE + 8));
+            fixed.order(ByteOrder.LITTLE_ENDIAN);
+            if (fixed.limit() < EXACT_CENTRE + 8 || fixed.getInt(0) != MAGIC) {
+                throw new IOException(file + " holds no escape counts");
+            }
+            if (fixed.getInt(4) > VERSION) {
+                throw new IOException(file + " is of version " + fixed.getInt(4));
+            }
+            int width = fixed.getInt(8);
+            int height = fixed.getInt(12);
+            int tileSize = fixed.getInt(16);
+            int reLength = fixed.getInt(EXACT_CENTRE);
+            int imLength = fixed.getInt(EXACT_CENTRE + 4);
+            int indexStart = (EXACT_CENTRE + 8 + reLength + imLength + 7) & ~7;
+            long tiles = (long) ((width + tileSize - 1) / tileSize)
+                    * ((height + tileSize - 1) / tileSize);
+            if (raf.length() < indexStart + tiles * 8) {
+                throw new IOException(file + " is cut short");
+            }
+
+            MappedByteBuffer header = raf.getChannel().map(mode, 0, indexStart + tiles * 8);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] re = new byte[reLength];
+            byte[] im = new byte[imLength];
+            header.position(EXACT_CENTRE + 8);
+            header.get(re).get(im);
+            header.clear();
+            BigDecimal[] centre = {
+                    new BigDecimal(new String(re, ASCII)), new BigDecimal(new String(im, ASCII))};
+            RenderView view = new RenderView(centre,
+                    new double[] {header.getDouble(56), header.getDouble(64)},
+                    new double[] {header.getDouble(72), header.getDouble(80)},
+                    width, height, header.getInt(20), header.getInt(24));
+            return new IterationFile(raf, writable, view, tileSize, header, indexStart);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException(file + " has a damaged header", e);
+        }
+    }
+
+    // tile data starts on the first page boundary after the index
+    private static long dataStart(int indexStart, int tilesAcross, int tilesDown) {
+        long indexEnd = indexStart + (long) tilesAcross * tilesDown * 8;
+        return (indexEnd + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * The view the counts are of, the exact centre included.
+     */
+    public RenderView getView() {
+        return mView;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getTilesAcross() {
+        return mTilesAcross;
+    }
+
+    public int getTilesDown() {
+        return mTilesDown;
+    }
+
+    public synchronized int getTilesWritten() {
+        return mTilesWritten;
+    }
+
+    public synchronized boolean hasTile(int tx, int ty) {
+        return offset(tx, ty) != 0L;
+    }
+
+    private long offset(int tx, int ty) {
+        if (tx < 0 || ty < 0 || tx >= mTilesAcross || ty >= mTilesDown) {
+            throw new IndexOutOfBoundsException("No tile " + tx + ", " + ty);
+        }
+        return mHeader.getLong(mIndexStart + (ty * mTilesAcross + tx) * 8);
+    }
+
+    /**
+     * Whether every tile under the pixels [x0, x0 + width) x [y0, y0 + height) has been written.
+     */
+    public synchronized boolean hasRegion(int x0, int y0, int width, int height) {
+        checkRegion(x0, y0, width, height);
+        for (int ty = y0 / mTileSize; ty <= (y0 + height - 1) / mTileSize; ty++) {
+            for (int tx = x0 / mTileSize; tx <= (x0 + width - 1) / mTileSize; tx++) {
+                if (offset(tx, ty) == 0L) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the counts of the field as those of the pixels from (x0, y0), writing the tiles
+     * they fall in first if they have not been.
+     */
+    public synchronized void write(int x0, int y0, IterationField field) throws IOException {
+        if (!mWritable) {
+            throw new IllegalStateException("File opened for reading");
+        }
+        checkField(x0, y0, field);
+        transfer(x0, y0, field, true);
+    }
+
+    /**
+     * Reads the counts of the pixels from (x0, y0) into the field.
+     *
+     * @throws IllegalStateException if a tile under the field has not been written.
+     */
+    public synchronized void read(int x0, int y0, IterationField field) throws IOException {
+        checkField(x0, y0, field);
+        transfer(x0, y0, field, false);
+    }
+
+    private void checkField(int x0, int y0, IterationField field) {
+        if (field.getEscapeLimit() != mView.mEscapeLimit) {
+            throw new IllegalArgumentException("Field of limit " + field.getEscapeLimit()
+                    + " for counts of limit " + mView.mEscapeLimit);
+        }
+        checkRegion(x0, y0, field.getWidth(), field.getHeight());
+    }
+
+    private void checkRegion(int x0, int y0, int width, int height) {
+        if (x0 < 0 || y0 < 0 || width <= 0 || height <= 0
+                || (long) x0 + width > mView.mWidth || (long) y0 + height > mView.mHeight) {
+            throw new IndexOutOfBoundsException("Region " + width + "x" + height + " at "
+                    + x0 + ", " + y0 + " is not in a " + mView.mWidth + "x" + mView.mHeight
+                    + " view");
+        }
+    }
+
+    // copies rows between the field and the tiles under it, one run within a tile at a time
+    private void transfer(int x0, int y0, IterationField field, boolean write)
+            throws IOException {
+        int width = field.getWidth();
+        int height = field.getHeight();
+        for (int ty = y0 / mTileSize; ty <= (y0 + height - 1) / mTileSize; ty++) {
+            for (int tx = x0 / mTileSize; tx <= (x0 + width - 1) / mTileSize; tx++) {
+                ByteBuffer tile = write ? tileForWriting(tx, ty) : tileForReading(tx, ty);
+                int tileStart = tile.position();
+                int left = Math.max(x0, tx * mTileSize);
+                int right = Math.min(x0 + width, (tx + 1) * mTileSize);
+                int top = Math.max(y0, ty * mTileSize);
+                int bottom = Math.min(y0 + height, (ty + 1) * mTileSize);
+                for (int y = top; y < bottom; y++) {
+                    tile.position(tileStart + ((y - ty * mTileSize) * mTileSize
+                            + left - tx * mTileSize) * mBytesPerPixel);
+                    int index = (y - y0) * width + left - x0;
+                    if (write) {
+                        field.getCounts(index, right - left, tile);
+                    } else {
+                        field.putCounts(index, right - left, tile);
+                    }
+                }
+            }
+        }
+    }
+
+    // the window holding the tile, positioned at its first count
+    private ByteBuffer tileForReading(int tx, int ty) throws IOException {
+        long offset = offset(tx, ty);
+        if (offset == 0L) {
+            throw new IllegalStateException("Tile " + tx + ", " + ty + " has not been written");
+        }
+        return tileAt(offset);
+    }
+
+    private ByteBuffer tileForWriting(int tx, int ty) throws IOException {
+        long offset = offset(tx, ty);
+        if (offset == 0L) {
+            offset = mDataStart + (long) mTilesWritten * tileBytes();
+            mTilesWritten++;
+            mHeader.putLong(mIndexStart + (ty * mTilesAcross + tx) * 8, offset);
+            mHeader.putInt(TILES_WRITTEN, mTilesWritten);
+        }
+        return tileAt(offset);
+    }
+
+    private ByteBuffer tileAt(long offset) throws IOException {
+        long tile = (offset - mDataStart) / tileBytes();
+        int window = (int) (tile / WINDOW_TILES);
+        if (mWindows[window] == null) {
+            long start = mDataStart + (long) window * WINDOW_TILES * tileBytes();
+            long size = (long) WINDOW_TILES * tileBytes();
+            if (!mWritable) {
+                // a window past the last tile written is cut short by the end of the file
+                size = Math.min(size, mChannel.size() - start);
+            }
+            mWindows[window] = mChannel.map(mWritable ? FileChannel.MapMode.READ_WRITE
+                    : FileChannel.MapMode.READ_ONLY, start, size);
+            mWindows[window].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buffer = mWindows[window].duplicate();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position((int) ((tile % WINDOW_TILES) * tileBytes()));
+        return buffer;
+    }
+
+    private long tileBytes() {
+        return (long) mTileSize * mTileSize * mBytesPerPixel;
+    }
+
+    /**
+     * Writes every tile and the index written so far out to the file, so that they survive the
+     * process. The tiles go first, so that the index never names a tile not yet on disk.
+     */
+    public synchronized void force() throws IOException {
+        if (!mWritable) return;
+        for (MappedByteBuffer window : mWindows) {
+            if (window != null) {
+                window.force();
+            }
+        }
+        mHeader.force();
+    }
+
+    /**
+     * Forces everything written out and closes the file. The mappings stay valid until they are
+     * collected, as NIO gives no way to drop them sooner.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        mFile.close();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Working arrays for the escape loops of one worker thread. Kernels are shared by every worker
+ * rendering a frame, so those whose arithmetic goes through arrays take them from the scratch
+ * the worker passes in rather than allocating them for every pixel; each worker allocates its
+ * own once, when it starts on a pass.
+ * <p>
+ * The arrays are sized for whichever kernel needs the most, and hold nothing from one pixel to
+ * the next.
+ */
+
+final class KernelScratch {
+
+    final double[] mDoubles =
+            new double[Math.max(QuadDoubleKernel.SCRATCH_SIZE, DoubleDoubleKernel.SCRATCH_SIZE)];
+    // two 128 bit numbers, as high and low words
+    final long[] mLongs = new long[4];
+    // a double-single result, hi and lo
+    final float[] mFloats = new float[2];
+}
@@ -0,0 +1,41 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * The high halves of 64 x 64 bit products, for fixed point arithmetic on longs.
+ * <p>
+ * Math.multiplyHigh only arrived in Java 9, so this is the same Hacker's Delight algorithm
+ * written out for the API levels the app supports.
+ */
+
+final class LongMath {
+
+    private static final long MASK = 0xffffffffL;
+
+    private LongMath() {
+    }
+
+    /**
+     * The most significant 64 bits of the 128 bit signed product x * y.
+     */
+    static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & MASK;
+        long y1 = y >> 32;
+        long y2 = y & MASK;
+
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & MASK;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /**
+     * The most significant 64 bits of the 128 bit product of x and y read as unsigned.
+     */
+    static long unsignedMultiplyHigh(long x, long y) {
+        return multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+}
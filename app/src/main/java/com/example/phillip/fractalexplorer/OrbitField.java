@@ -0,0 +1,110 @@
+package com.example.phillip.fractalexplorer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Where the orbit of every pixel of a frame that reached the escape limit left off, so that a
+ * frame of the same view at a higher limit can carry on iterating those pixels rather than start
+ * them from z = c again. Pixels that escaped keep their count in the IterationField and have
+ * nothing here.
+ * <p>
+ * Each pixel has a fixed number of doubles, laid out as the kernel that wrote them sees fit:
+ * typically z and the point its periodicity check last saved. Kernels of several precision
+ * models can share a field when tiles pick their own, so each pixel also records the model whose
+ * kernel left its orbit, and only a kernel of that model can carry it on. A pixel a kernel proved
+ * never escapes is marked interior instead, and one whose count came from anywhere else, such as
+ * a subdivision fill or a kernel that can not resume, has no orbit. The storage is a direct
+ * buffer in native order, like that of IterationField.
+ */
+
+final class OrbitField {
+
+    // the model of a pixel with no orbit to carry on from
+    private static final byte NO_ORBIT = -1;
+    // the model of a pixel known never to escape
+    private static final byte INTERIOR = -2;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mComponents;
+    private final DoubleBuffer mState;
+    // the precision model that left each pixel's orbit, or one of the markers above
+    private final byte[] mModels;
+
+    OrbitField(int width, int height, int components) {
+        if (width <= 0 || height <= 0 || components <= 0) {
+            throw new IllegalArgumentException("Field must have a positive size: "
+                    + width + "x" + height + "x" + components);
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mComponents = components;
+        ByteBuffer bb = ByteBuffer.allocateDirect(width * height * components * 8);
+        bb.order(ByteOrder.nativeOrder());
+        mState = bb.asDoubleBuffer();
+        mModels = new byte[width * height];
+        clear();
+    }
+
+    /**
+     * Whether this field can hold the orbits of the view with the given number of components per
+     * pixel without reallocating.
+     */
+    boolean fits(RenderView view, int components) {
+        return view.mWidth == mWidth && view.mHeight == mHeight && components == mComponents;
+    }
+
+    int getComponents() {
+        return mComponents;
+    }
+
+    double get(int index, int component) {
+        return mState.get(index * mComponents + component);
+    }
+
+    void set(int index, int component, double value) {
+        mState.put(index * mComponents + component, value);
+    }
+
+    /**
+     * Forgets every pixel, as at the start of a frame that some pixels may be computed in without
+     * leaving anything here.
+     */
+    void clear() {
+        Arrays.fill(mModels, NO_ORBIT);
+    }
+
+    /**
+     * Records that the kernel of the given precision model has set the orbit of the pixel.
+     */
+    void markOrbit(int index, int precision) {
+        mModels[index] = (byte) precision;
+    }
+
+    void markInterior(int index) {
+        mModels[index] = INTERIOR;
+    }
+
+    void markNoOrbit(int index) {
+        mModels[index] = NO_ORBIT;
+    }
+
+    boolean isInterior(int index) {
+        return mModels[index] == INTERIOR;
+    }
+
+    boolean hasOrbit(int index) {
+        return mModels[index] >= 0;
+    }
+
+    /**
+     * The precision model whose kernel left the orbit of the pixel, which must have one.
+     */
+    int getModel(int index) {
+        return mModels[index];
+    }
+}
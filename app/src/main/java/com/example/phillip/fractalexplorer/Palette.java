@@ -0,0 +1,174 @@
+package com.example.phillip.fractalexplorer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Gradient sampled at a fixed number of evenly spaced points, ready to be copied into the
+ * gradient texture or used by the colouring pass. Palettes are immutable, and each one is given a
+ * version no other palette has, so whoever has uploaded a palette can tell a new one apart by
+ * comparing a single int.
+ * <p>
+ * Colours are packed one per int as 0xRRGGBBAA, and also kept with their bytes reversed, so that
+ * either byte order of a destination buffer is written with plain int stores in which the bytes
+ * land as R, G, B, A.
+ * <p>
+ * A periodic palette leaves out the sample at the far end of the gradient, so that the colours
+ * continue into the first one again when it is repeated.
+ * <p>
+ * Obtain palettes from Gradient.compile(), which keeps the most recent few and hands the same
+ * palette back for as long as the gradient and the sampling stay the same.
+ */
+
+public final class Palette {
+
+    private static final AtomicInteger sVersions = new AtomicInteger();
+
+    private final int mVersion;
+    private final boolean mPeriodic;
+    private final int[] mRgba;
+    // mRgba with each int's bytes reversed, for little endian buffers
+    private final int[] mAbgr;
+    // the gradient this was sampled from: r, g, b, a and proportion of each colour in turn
+    private final float[] mStops;
+
+    Palette(List<ColorProportion> colours, int samples, boolean periodic) {
+        mVersion = sVersions.incrementAndGet();
+        mPeriodic = periodic;
+        mRgba = new int[samples];
+        mAbgr = new int[samples];
+        mStops = new float[colours.size() * 5];
+        for (int k = 0; k < colours.size(); k++) {
+            System.arraycopy(colours.get(k).mVec, 0, mStops, k * 5, 5);
+        }
+
+        sample(colours, mRgba, periodic);
+        for (int i = 0; i < samples; i++) {
+            mAbgr[i] = Integer.reverseBytes(mRgba[i]);
+        }
+    }
+
+    // fills rgba with colours sampled evenly from the sorted colours, including the far end
+    // unless periodic
+    private static void sample(List<ColorProportion> colours, int[] rgba, boolean periodic) {
+        int samples = rgba.length;
+
+        //this is an aesthetic choice and may not be the most sensible
+        if (samples == 1) {
+            rgba[0] = pack(colours.get(0).mVec);
+            return;
+        }
+
+        float deltaSamplePoint = 1f / (periodic ? samples : samples - 1);
+        int last = colours.size() - 1;
+        int index = 0;
+
+        for (int i = 0; i < samples; i++) {
+            float samplePoint = i * deltaSamplePoint;
+
+            // the first colour at or after the sample point
+            while (index < last && samplePoint > colours.get(index).mVec[4]) {
+                index++;
+            }
+            float[] c = colours.get(index).mVec;
+
+            if (samplePoint == c[4] || index == 0 || samplePoint > c[4]) {
+                // on a colour, or outside the colours at either end
+                rgba[i] = pack(c);
+            } else {
+                float[] previous = colours.get(index - 1).mVec;
+                float local = (samplePoint - previous[4]) / (c[4] - previous[4]);
+                rgba[i] = Math.round((c[0] - previous[0]) * local + previous[0]) << 24
+                        | (Math.round((c[1] - previous[1]) * local + previous[1]) & 0xff) << 16
+                        | (Math.round((c[2] - previous[2]) * local + previous[2]) & 0xff) << 8
+                        | (Math.round((c[3] - previous[3]) * local + previous[3]) & 0xff);
+            }
+        }
+    }
+
+    private static int pack(float[] c) {
+        return (int) c[0] << 24
+                | ((int) c[1] & 0xff) << 16
+                | ((int) c[2] & 0xff) << 8
+                | ((int) c[3] & 0xff);
+    }
+
+    /**
+     * Whether this palette was sampled from exactly these colours, in this order, at this number
+     * of points.
+     */
+    boolean matches(List<ColorProportion> colours, int samples, boolean periodic) {
+        if (samples != mRgba.length || periodic != mPeriodic
+                || colours.size() * 5 != mStops.length) {
+            return false;
+        }
+        for (int k = 0; k < colours.size(); k++) {
+            float[] vec = colours.get(k).mVec;
+            for (int j = 0; j < 5; j++) {
+                if (Float.floatToIntBits(vec[j]) != Float.floatToIntBits(mStops[k * 5 + j])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public boolean isPeriodic() {
+        return mPeriodic;
+    }
+
+    public int size() {
+        return mRgba.length;
+    }
+
+    /**
+     * Colour i packed as 0xRRGGBBAA.
+     */
+    public int getRgba(int i) {
+        return mRgba[i];
+    }
+
+    /**
+     * The colours packed so that storing them with putInt() into a buffer of the given byte order
+     * lays out R, G, B, A. The array is shared and must not be modified.
+     */
+    int[] packed(ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? mRgba : mAbgr;
+    }
+
+    /**
+     * Copies the colours into out as R, G, B, A bytes from its index 0, with absolute puts, so
+     * the position and limit of out are left alone.
+     */
+    public void writeTo(ByteBuffer out) {
+        if (out.capacity() < mRgba.length * 4) {
+            throw new IllegalArgumentException("Buffer of " + out.capacity()
+                    + " bytes is too small for " + mRgba.length + " colours");
+        }
+        int[] packed = packed(out.order());
+        for (int i = 0; i < packed.length; i++) {
+            out.putInt(i * 4, packed[i]);
+        }
+    }
+
+    /**
+     * The colours as separate R, G, B, A ints, four per colour, the layout of
+     * Gradient.makeGradient().
+     */
+    int[] unpack() {
+        int[] components = new int[mRgba.length * 4];
+        for (int i = 0; i < mRgba.length; i++) {
+            components[i * 4] = mRgba[i] >>> 24;
+            components[i * 4 + 1] = (mRgba[i] >>> 16) & 0xff;
+            components[i * 4 + 2] = (mRgba[i] >>> 8) & 0xff;
+            components[i * 4 + 3] = mRgba[i] & 0xff;
+        }
+        return components;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the same PNGs as PngEncoder, deflating blocks of rows on a pool of threads the way pigz
+ * does, so that encoding a large export is not left to one core.
+ * <p>
+ * The calling thread reads the rows of each block straight from the render's buffer into the
+ * array the block is deflated from, Up filtering them in place, and hands the block to the pool.
+ * Each block is deflated as raw deflate data of its own, primed with the last DICTIONARY_SIZE
+ * bytes before it as a preset dictionary so that it compresses nearly as well as one long
+ * stream would, and ended with a sync flush so that it finishes on a byte boundary; the last
+ * block of the image ends the deflate stream instead. Concatenated in order, behind a zlib header
+ * and followed by the Adler-32 of the whole image combined from those of the blocks, they are a
+ * single valid zlib stream, which is cut into IDAT chunks as usual.
+ * <p>
+ * writeRows() returns as soon as it has read the rows, leaving them to be deflated while the
+ * next strip renders. Blocks are written out in order as they complete, and no more than
+ * PENDING_PER_THREAD blocks a thread are held at once, which bounds the memory taken.
+ */
+
+public final class ParallelPngEncoder implements ImageEncoder {
+
+    static final int BLOCK_SIZE = 128 << 10;
+    // the deflate window
+    static final int DICTIONARY_SIZE = 32 << 10;
+    static final int PENDING_PER_THREAD = 2;
+    private static final int ADLER_BASE = 65521;
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final int mBlockSize;
+    private final ForkJoinPool mPool;
+    private final int mMaxPending;
+    private final ArrayDeque<Future<Block>> mPending = new ArrayDeque<Future<Block>>();
+    private final CRC32 mCrc = new CRC32();
+    private boolean mBegun;
+    private int mWidth;
+    private int mHeight;
+    private int mRowsWritten;
+    // the last row handed over, as it was, and the filtered data of the last block
+    private byte[] mPrevious;
+    private byte[] mDictionary;
+    // Adler-32 of the filtered data of the blocks written so far
+    private long mAdler;
+    // IDAT data not yet written
+    private byte[] mChunk;
+    private int mChunkLength;
+
+    public ParallelPngEncoder(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param level A Deflater compression level, from 0 to 9 or DEFAULT_COMPRESSION.
+     * @param parallelism Threads to deflate on.
+     */
+    public ParallelPngEncoder(OutputStream out, int level, int parallelism) {
+        this(out, level, parallelism, BLOCK_SIZE);
+    }
+
+    ParallelPngEncoder(OutputStream out, int level, int parallelism, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        mOut = out;
+        mLevel = level;
+        mBlockSize = blockSize;
+        mPool = new ForkJoinPool(parallelism);
+        mMaxPending = parallelism * PENDING_PER_THREAD;
+    }
+
+    @Override
+    public void begin(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must have a positive size: "
+                    + width + "x" + height);
+        }
+        if (mBegun) {
+            throw new IllegalStateException("Image already begun");
+        }
+        mBegun = true;
+        mWidth = width;
+        mHeight = height;
+        mRowsWritten = 0;
+        mPrevious = new byte[width * 4];
+        mDictionary = null;
+        mAdler = 1L;
+        mChunk = new byte[PngEncoder.CHUNK_SIZE];
+        mChunkLength = 0;
+
+        mOut.write(PngEncoder.SIGNATURE);
+        PngEncoder.writeChunk(mOut, mCrc, "IHDR", PngEncoder.header(width, height), 13);
+        append(zlibHeader(mLevel), 0, 2);
+    }
+
+    @Override
+    public void writeRows(ByteBuffer rgba, int rows) throws IOException {
+        if (!mBegun) {
+            throw new IllegalStateException("Image not begun");
+        }
+        if (rows < 0 || mRowsWritten + rows > mHeight) {
+            throw new IllegalArgumentException(rows + " rows more than the "
+                    + (mHeight - mRowsWritten) + " left");
+        }
+        int stride = mWidth * 4;
+        if (rgba.capacity() < (long) rows * stride) {
+            throw new IllegalArgumentException("Buffer of " + rgba.capacity()
+                    + " bytes is too small for " + rows + " rows");
+        }
+
+        // a view of the whole buffer, to read from with relative bulk gets
+        ByteBuffer source = rgba.duplicate();
+        source.clear();
+        int blockRows = Math.max(mBlockSize / (stride + 1), 1);
+        for (int first = 0; first < rows; first += blockRows) {
+            int count = Math.min(blockRows, rows - first);
+            byte[] input = filter(source, first, count, stride);
+            boolean last = mRowsWritten + first + count == mHeight;
+
+            while (mPending.size() >= mMaxPending) {
+                writeBlock(mPending.removeFirst());
+            }
+            mPending.addLast(mPool.submit(new Compress(input, mDictionary, mLevel, last)));
+            mDictionary = input;
+        }
+        if (rows > 0) {
+            source.position((rows - 1) * stride);
+            source.get(mPrevious);
+        }
+        mRowsWritten += rows;
+    }
+
+    // Reads the rows [first, first + count) into a new array, each behind its filter type byte,
+    // and Up filters them. Rows are filtered last first, so that the row above each is still as
+    // it was when its turn comes.
+    private byte[] filter(ByteBuffer source, int first, int count, int stride) {
+        byte[] input = new byte[count * (stride + 1)];
+        for (int row = 0; row < count; row++) {
+            input[row * (stride + 1)] = PngEncoder.FILTER_UP;
+            source.position((first + row) * stride);
+            source.get(input, row * (stride + 1) + 1, stride);
+        }
+        for (int row = count - 1; row > 0; row--) {
+            int at = row * (stride + 1) + 1;
+            int above = at - stride - 1;
+            for (int i = 0; i < stride; i++) {
+                input[at + i] -= input[above + i];
+            }
+        }
+        // the row above the first is the last of the block before, which may have been in an
+        // earlier buffer
+        for (int i = 0; i < stride; i++) {
+            input[1 + i] -= first == 0 ? mPrevious[i] : source.get((first - 1) * stride + i);
+        }
+        return input;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!mBegun) {
+            throw new IllegalStateException("Image not begun");
+        }
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("Only " + mRowsWritten + " of " + mHeight
+                    + " rows written");
+        }
+
+        while (!mPending.isEmpty()) {
+            writeBlock(mPending.removeFirst());
+        }
+        byte[] trailer = new byte[4];
+        PngEncoder.putInt(trailer, 0, (int) mAdler);
+        append(trailer, 0, 4);
+        if (mChunkLength > 0) {
+            PngEncoder.writeChunk(mOut, mCrc, "IDAT", mChunk, mChunkLength);
+        }
+        PngEncoder.writeChunk(mOut, mCrc, "IEND", mChunk, 0);
+        mOut.flush();
+        mBegun = false;
+        mPrevious = null;
+        mDictionary = null;
+        mChunk = null;
+    }
+
+    /**
+     * Stops the threads the blocks are deflated on. The encoder can not be used afterwards.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private void writeBlock(Future<Block> pending) throws IOException {
+        Block block;
+        try {
+            block = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a block");
+        } catch (ExecutionException e) {
+            throw new IOException("Deflating a block failed", e.getCause());
+        }
+        append(block.mData, 0, block.mLength);
+        mAdler = combineAdler(mAdler, block.mAdler, block.mInputLength);
+    }
+
+    // adds to the IDAT data, writing out every chunk filled
+    private void append(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, PngEncoder.CHUNK_SIZE - mChunkLength);
+            System.arraycopy(data, offset, mChunk, mChunkLength, n);
+            mChunkLength += n;
+            offset += n;
+            length -= n;
+            if (mChunkLength == PngEncoder.CHUNK_SIZE) {
+                PngEncoder.writeChunk(mOut, mCrc, "IDAT", mChunk, mChunkLength);
+                mChunkLength = 0;
+            }
+        }
+    }
+
+    // deflate with a 32K window, and the compression level hint zlib gives the level
+    static byte[] zlibHeader(int level) {
+        int hint = level == Deflater.DEFAULT_COMPRESSION || level == 6 ? 2
+                : level < 2 ? 0 : level < 6 ? 1 : 3;
+        int header = 0x7800 | hint << 6;
+        header += (31 - header % 31) % 31;
+        return new byte[] {(byte) (header >>> 8), (byte) header};
+    }
+
+    /**
+     * The Adler-32 of the concatenation of two runs of bytes from the checksums of each and the
+     * length of the second, as zlib's adler32_combine() works it out.
+     */
+    static long combineAdler(long first, long second, long secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & 0xffff;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (second & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((first >>> 16) & 0xffff) + ((second >>> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    // deflated data of a block, and the checksum and length of what it was deflated from
+    private static final class Block {
+        final byte[] mData;
+        final int mLength;
+        final long mAdler;
+        final int mInputLength;
+
+        Block(byte[] data, int length, long adler, int inputLength) {
+            mData = data;
+            mLength = length;
+            mAdler = adler;
+            mInputLength = inputLength;
+        }
+    }
+
+    private static final class Compress implements Callable<Block> {
+        private final byte[] mInput;
+        private final byte[] mDictionary;
+        private final int mLevel;
+        private final boolean mLast;
+
+        Compress(byte[] input, byte[] dictionary, int level, boolean last) {
+            mInput = input;
+            mDictionary = dictionary;
+            mLevel = level;
+            mLast = last;
+        }
+
+        @Override
+        public Block call() {
+            Deflater deflater = new Deflater(mLevel, true);
+            byte[] out = new byte[mInput.length / 2 + 64];
+            int length = 0;
+            try {
+                if (mDictionary != null) {
+                    int size = Math.min(mDictionary.length, DICTIONARY_SIZE);
+                    deflater.setDictionary(mDictionary, mDictionary.length - size, size);
+                }
+                deflater.setInput(mInput);
+                if (mLast) {
+                    deflater.finish();
+                }
+                while (true) {
+                    if (length == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    int space = out.length - length;
+                    int n = mLast
+                            ? deflater.deflate(out, length, space)
+                            : deflater.deflate(out, length, space, Deflater.SYNC_FLUSH);
+                    length += n;
+                    // a flush is complete once it leaves space over
+                    if (mLast ? deflater.finished() : n < space) break;
+                }
+            } finally {
+                deflater.end();
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(mInput, 0, mInput.length);
+            return new Block(out, length, adler.getValue(), mInput.length);
+        }
+    }
+}
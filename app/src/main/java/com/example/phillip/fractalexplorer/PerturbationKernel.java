@@ -0,0 +1,226 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+
+/**
+ * Deep zoom kernel. The centre of the view is iterated once at high precision in a ReferenceOrbit,
+ * and each pixel c = C + dc is then followed as an offset dz from that orbit:
+ * <pre>
+ *   z = Z + dz,    dz' = 2 Z dz + dz^2 + dc
+ * </pre>
+ * The offsets are tiny but well inside the exponent range of a double, so plain double arithmetic
+ * keeps ~16 significant digits of them at any depth doubles can reach, where EMULATED_DOUBLE runs
+ * out of digits at a pixel spacing of about 1e-13.
+ * <p>
+ * When enabled, a SeriesApproximation moves the start of every pixel's loop past the part of the
+ * orbit all pixels share, and the iterations it saves are counted in
+ * RenderStatistics.mIterationsSkipped. A BlaTable, also optional, lets pixels jump whole runs of
+ * iterations later in the orbit wherever a linear step is accurate enough; those jumps are
+ * counted in mIterationsSkipped as well.
+ * <p>
+ * Where a pixel's orbit passes much closer to 0 than the reference does, z = Z + dz cancels and dz
+ * no longer holds enough digits to carry on. Such pixels, and pixels outliving the reference
+ * orbit, are reported as GLITCHED (Pauldelbrot's test, |z| < GLITCH_TOLERANCE |Z|), and the
+ * renderer finishes them with kernels from rereference(), which follow the same view from a
+ * reference inside the glitched region. A kernel made without glitch detection carries on
+ * regardless, with ordinary double iteration past the end of its reference.
+ * <p>
+ * Of the InteriorChecks only the cardioid and bulb test is made, in double precision. Comparing
+ * orbits for periodicity would need z itself to the precision of the pixel spacing, where only
+ * the offsets from the reference have it.
+ */
+
+class PerturbationKernel extends EscapeKernel {
+
+    static final double GLITCH_TOLERANCE = 1e-3;
+
+    private static volatile boolean sSeriesApproximation = true;
+    private static volatile boolean sLinearApproximation = true;
+
+    private final ReferenceOrbit mOrbit;
+    private final SeriesApproximation mSeries;
+    private final BlaTable mBla;
+    // position of the reference relative to the centre of the view
+    private final double mOffsetR, mOffsetI;
+    private final boolean mDetectGlitches;
+
+    PerturbationKernel(RenderView view) {
+        super(view);
+        mOrbit = ReferenceOrbit.forView(view);
+        mSeries = sSeriesApproximation ? SeriesApproximation.forView(view, mOrbit) : null;
+        mBla = sLinearApproximation ? BlaTable.forView(view, mOrbit) : null;
+        mOffsetR = 0d;
+        mOffsetI = 0d;
+        mDetectGlitches = true;
+    }
+
+    // secondary reference; the series approximation is fitted around the centre and is not used
+    private PerturbationKernel(RenderView view,
+                               ReferenceOrbit orbit,
+                               BlaTable bla,
+                               double offsetR,
+                               double offsetI,
+                               boolean detectGlitches) {
+        super(view);
+        mOrbit = orbit;
+        mSeries = null;
+        mBla = bla;
+        mOffsetR = offsetR;
+        mOffsetI = offsetI;
+        mDetectGlitches = detectGlitches;
+    }
+
+    /**
+     * A kernel for the view iterated against an orbit of some other point near it, such as the
+     * centre of a larger view the view is part of, so that the parts of that view need not each
+     * iterate an orbit of their own. Without the series approximation, which is fitted around the
+     * centre. The view's own kernel if the orbit does not go to its escape limit with the digits
+     * it needs.
+     */
+    static EscapeKernel around(RenderView view, ReferenceOrbit orbit) {
+        if (orbit.mEscapeLimit != view.mEscapeLimit
+                || orbit.mDigits < ReferenceOrbit.digitsFor(view)) {
+            return new PerturbationKernel(view);
+        }
+        double offsetR = orbit.mCr.subtract(view.mCentreExact[0]).doubleValue();
+        double offsetI = orbit.mCi.subtract(view.mCentreExact[1]).doubleValue();
+        BlaTable bla = sLinearApproximation
+                ? new BlaTable(orbit, view.viewRadius() + Math.hypot(offsetR, offsetI))
+                : null;
+        return new PerturbationKernel(view, orbit, bla, offsetR, offsetI, true);
+    }
+
+    /**
+     * Turns iteration skipping by series approximation on or off for frames started afterwards.
+     */
+    static void setSeriesApproximation(boolean enabled) {
+        sSeriesApproximation = enabled;
+    }
+
+    /**
+     * Turns iteration skipping by bivariate linear approximation on or off for frames started
+     * afterwards.
+     */
+    static void setLinearApproximation(boolean enabled) {
+        sLinearApproximation = enabled;
+    }
+
+    @Override
+    boolean detectsGlitches() {
+        return mDetectGlitches;
+    }
+
+    @Override
+    EscapeKernel rereference(int px, int py, boolean detectGlitches) {
+        RenderView view = mView;
+        double offsetR = offsetR(px, py);
+        double offsetI = offsetI(px, py);
+        ReferenceOrbit orbit = ReferenceOrbit.create(
+                view.mCentreExact[0].add(new BigDecimal(offsetR)),
+                view.mCentreExact[1].add(new BigDecimal(offsetI)),
+                view.mEscapeLimit,
+                ReferenceOrbit.digitsFor(view));
+        BlaTable bla = sLinearApproximation
+                ? new BlaTable(orbit, view.viewRadius() + Math.hypot(offsetR, offsetI))
+                : null;
+        return new PerturbationKernel(view, orbit, bla, offsetR, offsetI, detectGlitches);
+    }
+
+    @Override
+    EscapeKernel withoutGlitchDetection() {
+        return new PerturbationKernel(mView, mOrbit, mBla, mOffsetR, mOffsetI, false);
+    }
+
+    // c - C = (2u - 1) * vecA + (2v - 1) * vecB
+    private double offsetR(int px, int py) {
+        double du = 2d * (px + 0.5d) / mView.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / mView.mHeight - 1d;
+        return du * mView.mVecA[0] + dv * mView.mVecB[0];
+    }
+
+    private double offsetI(int px, int py) {
+        double du = 2d * (px + 0.5d) / mView.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / mView.mHeight - 1d;
+        return du * mView.mVecA[1] + dv * mView.mVecB[1];
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+
+        // offset from the reference rather than from the centre
+        double dcr = offsetR(px, py) - mOffsetR;
+        double dci = offsetI(px, py) - mOffsetI;
+
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(
+                view.mCentrePoint[0] + (mOffsetR + dcr),
+                view.mCentrePoint[1] + (mOffsetI + dci))) {
+            return inCardioidOrBulb(stats);
+        }
+
+        double[] refR = mOrbit.mZr;
+        double[] refI = mOrbit.mZi;
+        int length = mOrbit.mLength;
+        int limit = view.mEscapeLimit;
+        boolean detect = mDetectGlitches;
+        double tolerance2 = GLITCH_TOLERANCE * GLITCH_TOLERANCE;
+
+        double dzr = dcr, dzi = dci;
+        double zr = 0d, zi = 0d, z2;
+        double Zr, Zi, t, ar, ai, br, bi;
+        BlaTable bla = mBla;
+        int i = 0;
+        int level, j;
+
+        if (mSeries != null && mSeries.mSkip > 0) {
+            double[] dz = scratch.mDoubles;
+            mSeries.evaluate(dcr, dci, dz);
+            dzr = dz[0];
+            dzi = dz[1];
+            i = mSeries.mSkip;
+            stats.mIterationsSkipped += i;
+        }
+
+        for (; i < limit; i++) {
+            if (i < length) {
+                Zr = refR[i];
+                Zi = refI[i];
+                zr = Zr + dzr;
+                zi = Zi + dzi;
+                z2 = zr * zr + zi * zi;
+                if (z2 > 4d) break;
+                if (detect && z2 < tolerance2 * (Zr * Zr + Zi * Zi)) return GLITCHED;
+
+                if (bla != null && (level = bla.find(i, dzr * dzr + dzi * dzi)) > 0) {
+                    // dz = A dz + B dc, landing 2^level iterations further on
+                    j = i >> level;
+                    ar = bla.mAr[level - 1][j];
+                    ai = bla.mAi[level - 1][j];
+                    br = bla.mBr[level - 1][j];
+                    bi = bla.mBi[level - 1][j];
+                    t = (ar * dzr - ai * dzi) + (br * dcr - bi * dci);
+                    dzi = (ar * dzi + ai * dzr) + (br * dci + bi * dcr);
+                    dzr = t;
+
+                    stats.mIterationsSkipped += (1 << level) - 1;
+                    stats.mApproximationSteps++;
+                    i += (1 << level) - 1;
+                    continue;
+                }
+
+                t = 2d * (Zr * dzr - Zi * dzi) + (dzr * dzr - dzi * dzi) + dcr;
+                dzi = 2d * (Zr * dzi + Zi * dzr) + 2d * dzr * dzi + dci;
+                dzr = t;
+            } else {
+                if (detect) return GLITCHED;
+
+                // past the end of the reference, the orbit of the pixel itself is all we have
+                t = zr * zr - zi * zi + (view.mCentrePoint[0] + mOffsetR + dcr);
+                zi = 2d * zr * zi + (view.mCentrePoint[1] + mOffsetI + dci);
+                zr = t;
+                if (zr * zr + zi * zi > 4d) break;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams an 8 bit RGBA PNG to an OutputStream as its rows arrive, holding no more than two rows
+ * of the image and one IDAT chunk at a time.
+ * <p>
+ * Every row is filtered with the Up filter, the difference from the row above, which costs a
+ * subtraction a byte and suits the smooth bands of escape time colouring better than no filter.
+ * The filtered rows go through a single Deflater, and its output is cut into IDAT chunks of
+ * CHUNK_SIZE bytes.
+ */
+
+public final class PngEncoder implements ImageEncoder {
+
+    static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    static final int CHUNK_SIZE = 1 << 16;
+    static final byte FILTER_UP = 2;
+    // 8 bits a sample, truecolour with alpha
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOUR_TYPE_RGBA = 6;
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final CRC32 mCrc = new CRC32();
+    private Deflater mDeflater;
+    private int mWidth;
+    private int mHeight;
+    private int mRowsWritten;
+    // the row above as it was, and the row being written filtered, after its filter type byte
+    private byte[] mPrevious;
+    private byte[] mFiltered;
+    // IDAT data not yet written
+    private byte[] mChunk;
+    private int mChunkLength;
+
+    public PngEncoder(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level A Deflater compression level, from 0 to 9 or DEFAULT_COMPRESSION.
+     */
+    public PngEncoder(OutputStream out, int level) {
+        mOut = out;
+        mLevel = level;
+    }
+
+    @Override
+    public void begin(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must have a positive size: "
+                    + width + "x" + height);
+        }
+        if (mDeflater != null) {
+            throw new IllegalStateException("Image already begun");
+        }
+        mWidth = width;
+        mHeight = height;
+        mRowsWritten = 0;
+        mPrevious = new byte[width * 4];
+        mFiltered = new byte[width * 4 + 1];
+        mFiltered[0] = FILTER_UP;
+        mChunk = new byte[CHUNK_SIZE];
+        mChunkLength = 0;
+        mDeflater = new Deflater(mLevel);
+
+        mOut.write(SIGNATURE);
+        writeChunk(mOut, mCrc, "IHDR", header(width, height), 13);
+    }
+
+    @Override
+    public void writeRows(ByteBuffer rgba, int rows) throws IOException {
+        if (mDeflater == null) {
+            throw new IllegalStateException("Image not begun");
+        }
+        if (rows < 0 || mRowsWritten + rows > mHeight) {
+            throw new IllegalArgumentException(rows + " rows more than the "
+                    + (mHeight - mRowsWritten) + " left");
+        }
+
+        int stride = mWidth * 4;
+        if (rgba.capacity() < (long) rows * stride) {
+            throw new IllegalArgumentException("Buffer of " + rgba.capacity()
+                    + " bytes is too small for " + rows + " rows");
+        }
+
+        // a view of the whole buffer, to read from with relative bulk gets
+        ByteBuffer source = rgba.duplicate();
+        source.clear();
+        for (int row = 0; row < rows; row++) {
+            source.position(row * stride);
+            source.get(mFiltered, 1, stride);
+            for (int i = 0; i < stride; i++) {
+                byte b = mFiltered[i + 1];
+                mFiltered[i + 1] = (byte) (b - mPrevious[i]);
+                mPrevious[i] = b;
+            }
+            mDeflater.setInput(mFiltered);
+            while (!mDeflater.needsInput()) {
+                deflate();
+            }
+        }
+        mRowsWritten += rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mDeflater == null) {
+            throw new IllegalStateException("Image not begun");
+        }
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("Only " + mRowsWritten + " of " + mHeight
+                    + " rows written");
+        }
+
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            deflate();
+        }
+        mDeflater.end();
+        mDeflater = null;
+        writeChunk(mOut, mCrc, "IEND", mChunk, 0);
+        mOut.flush();
+        mPrevious = null;
+        mFiltered = null;
+        mChunk = null;
+    }
+
+    // deflates into the free part of the chunk, writing it out once it is full
+    private void deflate() throws IOException {
+        int length = mDeflater.deflate(mChunk, mChunkLength, CHUNK_SIZE - mChunkLength);
+        mChunkLength += length;
+        if (mChunkLength == CHUNK_SIZE || (mDeflater.finished() && mChunkLength > 0)) {
+            writeChunk(mOut, mCrc, "IDAT", mChunk, mChunkLength);
+            mChunkLength = 0;
+        }
+    }
+
+    static byte[] header(int width, int height) {
+        byte[] data = new byte[13];
+        putInt(data, 0, width);
+        putInt(data, 4, height);
+        data[8] = BIT_DEPTH;
+        data[9] = COLOUR_TYPE_RGBA;
+        // deflate, adaptive filtering, no interlace
+        data[10] = 0;
+        data[11] = 0;
+        data[12] = 0;
+        return data;
+    }
+
+    /**
+     * Writes a chunk of the given type holding the first length bytes of data.
+     */
+    static void writeChunk(OutputStream out, CRC32 crc, String type, byte[] data, int length)
+            throws IOException {
+        byte[] prefix = new byte[8];
+        putInt(prefix, 0, length);
+        for (int i = 0; i < 4; i++) {
+            prefix[4 + i] = (byte) type.charAt(i);
+        }
+        crc.reset();
+        crc.update(prefix, 4, 4);
+        crc.update(data, 0, length);
+        byte[] suffix = new byte[4];
+        putInt(suffix, 0, (int) crc.getValue());
+
+        out.write(prefix);
+        out.write(data, 0, length);
+        out.write(suffix);
+    }
+
+    // big endian, as every integer in a PNG is
+    static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.phillip.fractalexplorer;
+
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.DOUBLE_DOUBLE;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.EMULATED_DOUBLE;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.F32;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.F64;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.FIXED_128;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.FIXED_64;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.PERTURBATION;
+import static com.example.phillip.fractalexplorer.TexturedMandelbrot.QUAD_DOUBLE;
+
+/**
+ * Picks the cheapest precision model that can still tell neighbouring pixels apart.
+ * <p>
+ * A floating point model with p significant bits holds coordinates of magnitude m to within
+ * m 2^-p, so it resolves a pixel spacing s while log2(m / s) + GUARD_BITS <= p. A fixed point
+ * model with f fraction bits holds every coordinate to within 2^-f and needs
+ * log2(1 / s) + GUARD_BITS <= f instead. The guard bits leave room for the rounding error the
+ * iteration itself accumulates; short of them, neighbouring pixels collapse onto the same
+ * coordinate and the image turns blocky.
+ * <p>
+ * Models are tried in order of cost, with the GPU models first. Perturbation comes before
+ * double-double, since with series approximation and BLA skipping most of the work a perturbation
+ * frame is an order of magnitude cheaper than a double-double one at any depth both reach; the
+ * glitch free kernels after it are only chosen when perturbation is turned off.
+ * <p>
+ * Choosing per tile only ever steps down to a cheaper CPU model. As the floating point bound
+ * depends on the magnitude of the coordinates, tiles nearer the origin than the corner that set
+ * the frame's model may get away with less.
+ */
+
+final class PrecisionSelector {
+
+    static final int GUARD_BITS = 10;
+
+    // models in order of cost, cheapest first
+    private static final int[] MODELS = {
+            F32, EMULATED_DOUBLE, F64, FIXED_64, PERTURBATION, DOUBLE_DOUBLE, FIXED_128, QUAD_DOUBLE};
+
+    // significant bits of floating point models, fraction bits of fixed point ones
+    private static final int[] BITS = new int[TexturedMandelbrot.PRECISION_MODEL_COUNT];
+    private static final boolean[] FIXED = new boolean[TexturedMandelbrot.PRECISION_MODEL_COUNT];
+
+    static {
+        BITS[F32] = 24;
+        // a float pair, less a few bits lost to the unnormalised addition of c
+        BITS[EMULATED_DOUBLE] = 44;
+        BITS[F64] = 53;
+        BITS[FIXED_64] = Fixed64Kernel.FRACTION_BITS;
+        FIXED[FIXED_64] = true;
+        // offsets from the reference are doubles, good down to the bottom of the exponent range
+        BITS[PERTURBATION] = -Double.MIN_EXPONENT;
+        FIXED[PERTURBATION] = true;
+        BITS[DOUBLE_DOUBLE] = 106;
+        BITS[FIXED_128] = Fixed128Kernel.FRACTION_BITS;
+        FIXED[FIXED_128] = true;
+        BITS[QUAD_DOUBLE] = 212;
+    }
+
+    private static volatile boolean sPerturbation = true;
+
+    private PrecisionSelector() {
+    }
+
+    /**
+     * Allows or rules out perturbation for views selected afterwards.
+     */
+    static void setPerturbation(boolean enabled) {
+        sPerturbation = enabled;
+    }
+
+    /**
+     * Whether the model resolves the pixel spacing around coordinates of the given magnitude.
+     */
+    static boolean resolves(int precision, double spacing, double magnitude) {
+        double scale = FIXED[precision] ? 1d : Math.max(magnitude, spacing);
+        return log2(scale / spacing) + GUARD_BITS <= BITS[precision];
+    }
+
+    /**
+     * The cheapest model resolving the view, or the most precise one for views beyond every
+     * model.
+     */
+    static int forFrame(RenderView view) {
+        double spacing = view.pixelSpacing();
+        double magnitude = largestCoordinate(view, 0, 0, view.mWidth, view.mHeight);
+        for (int precision : MODELS) {
+            if (allowed(precision) && resolves(precision, spacing, magnitude)) return precision;
+        }
+        return QUAD_DOUBLE;
+    }
+
+    /**
+     * The model to export the view with: the view's own, unless it does not resolve the view,
+     * as a model picked for the view at the size of the screen may not once it is exported at
+     * many times that size. Only ever steps up to a more costly model, so that a model picked
+     * by hand is kept.
+     */
+    static int forExport(RenderView view) {
+        int precision = forFrame(view);
+        return indexOf(precision) > indexOf(view.mPrecision) ? precision : view.mPrecision;
+    }
+
+    /**
+     * The cheapest CPU model resolving the tile of pixels [x0, x1) x [y0, y1), and no more
+     * costly than the view's own.
+     */
+    static int forTile(RenderView view, int x0, int y0, int x1, int y1) {
+        int frame = indexOf(view.mPrecision);
+        double spacing = view.pixelSpacing();
+        double magnitude = largestCoordinate(view, x0, y0, x1, y1);
+
+        for (int k = indexOf(F64); k < frame; k++) {
+            if (allowed(MODELS[k]) && resolves(MODELS[k], spacing, magnitude)) return MODELS[k];
+        }
+        return view.mPrecision;
+    }
+
+    /**
+     * Largest |c| over the corners of the pixels [x0, x1) x [y0, y1), which is the largest over
+     * the whole rectangle.
+     */
+    static double largestCoordinate(RenderView view, int x0, int y0, int x1, int y1) {
+        double largest = 0d;
+        for (int corner = 0; corner < 4; corner++) {
+            double du = 2d * ((corner & 1) == 0 ? x0 : x1) / view.mWidth - 1d;
+            double dv = 2d * ((corner & 2) == 0 ? y0 : y1) / view.mHeight - 1d;
+            double cx = view.mCentrePoint[0] + du * view.mVecA[0] + dv * view.mVecB[0];
+            double cy = view.mCentrePoint[1] + du * view.mVecA[1] + dv * view.mVecB[1];
+            largest = Math.max(largest, Math.hypot(cx, cy));
+        }
+        return largest;
+    }
+
+    private static boolean allowed(int precision) {
+        return precision != PERTURBATION || sPerturbation;
+    }
+
+    private static int indexOf(int precision) {
+        for (int k = 0; k < MODELS.length; k++) {
+            if (MODELS[k] == precision) return k;
+        }
+        throw new IllegalArgumentException("Unknown precision model " + precision);
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2d);
+    }
+}
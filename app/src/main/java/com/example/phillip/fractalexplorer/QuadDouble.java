@@ -0,0 +1,371 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+
+import static com.example.phillip.fractalexplorer.DoubleDouble.productError;
+import static com.example.phillip.fractalexplorer.DoubleDouble.quickSumError;
+import static com.example.phillip.fractalexplorer.DoubleDouble.sumError;
+
+/**
+ * Quad-double arithmetic: a number is the unevaluated sum of four doubles x0 + x1 + x2 + x3, each
+ * no larger than half an ulp of the one before, giving 212 significant bits, or about 64 decimal
+ * digits.
+ * <p>
+ * The algorithms are the "sloppy" add and multiply of Hida, Li and Bailey's QD library, which
+ * bound the error relative to the operands rather than to the result. That is all an escape loop
+ * needs, and they are considerably cheaper than the exact versions. Numbers live in caller
+ * supplied double arrays, four consecutive elements from an offset, and every operation reads its
+ * operands into locals before writing, so results may overwrite operands and nothing is
+ * allocated.
+ */
+
+final class QuadDouble {
+
+    static final int SIZE = 4;
+
+    private QuadDouble() {
+    }
+
+    /**
+     * r = a + b.
+     */
+    static void add(double[] a, int ai, double[] b, int bi, double[] r, int ri) {
+        addScaled(a, ai, b, bi, 1d, r, ri);
+    }
+
+    /**
+     * r = a - b.
+     */
+    static void subtract(double[] a, int ai, double[] b, int bi, double[] r, int ri) {
+        addScaled(a, ai, b, bi, -1d, r, ri);
+    }
+
+    // r = a + sign * b, sign being 1 or -1 so that the scaling is exact
+    private static void addScaled(double[] a, int ai, double[] b, int bi, double sign,
+                                  double[] r, int ri) {
+        double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+        double b0 = sign * b[bi], b1 = sign * b[bi + 1];
+        double b2 = sign * b[bi + 2], b3 = sign * b[bi + 3];
+        double s0, s1, s2, s3, t0, t1, t2, t3, u, x, y, z;
+
+        s0 = a0 + b0;
+        t0 = sumError(a0, b0, s0);
+        s1 = a1 + b1;
+        t1 = sumError(a1, b1, s1);
+        s2 = a2 + b2;
+        t2 = sumError(a2, b2, s2);
+        s3 = a3 + b3;
+        t3 = sumError(a3, b3, s3);
+
+        u = s1 + t0;
+        t0 = sumError(s1, t0, u);
+        s1 = u;
+
+        // three-sum of (s2, t0, t1)
+        x = s2 + t0;
+        y = sumError(s2, t0, x);
+        s2 = t1 + x;
+        z = sumError(t1, x, s2);
+        t0 = y + z;
+        t1 = sumError(y, z, t0);
+
+        // three-sum of (s3, t0, t2), keeping two outputs
+        x = s3 + t0;
+        y = sumError(s3, t0, x);
+        s3 = t2 + x;
+        z = sumError(t2, x, s3);
+        t0 = y + z;
+
+        renormalise(s0, s1, s2, s3, t0 + t1 + t3, r, ri);
+    }
+
+    /**
+     * r = a * b.
+     */
+    static void mul(double[] a, int ai, double[] b, int bi, double[] r, int ri) {
+        double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+        double b0 = b[bi], b1 = b[bi + 1], b2 = b[bi + 2], b3 = b[bi + 3];
+        double p0, p1, p2, p3, p4, p5, q0, q1, q2, q3, q4, q5;
+        double s0, s1, s2, t0, t1, x, y, z;
+
+        p0 = a0 * b0;
+        q0 = productError(a0, b0, p0);
+        p1 = a0 * b1;
+        q1 = productError(a0, b1, p1);
+        p2 = a1 * b0;
+        q2 = productError(a1, b0, p2);
+        p3 = a0 * b2;
+        q3 = productError(a0, b2, p3);
+        p4 = a1 * b1;
+        q4 = productError(a1, b1, p4);
+        p5 = a2 * b0;
+        q5 = productError(a2, b0, p5);
+
+        // three-sum of (p1, p2, q0)
+        x = p1 + p2;
+        y = sumError(p1, p2, x);
+        p1 = q0 + x;
+        z = sumError(q0, x, p1);
+        p2 = y + z;
+        q0 = sumError(y, z, p2);
+
+        // three-sum of (p2, q1, q2)
+        x = p2 + q1;
+        y = sumError(p2, q1, x);
+        p2 = q2 + x;
+        z = sumError(q2, x, p2);
+        q1 = y + z;
+        q2 = sumError(y, z, q1);
+
+        // three-sum of (p3, p4, p5)
+        x = p3 + p4;
+        y = sumError(p3, p4, x);
+        p3 = p5 + x;
+        z = sumError(p5, x, p3);
+        p4 = y + z;
+        p5 = sumError(y, z, p4);
+
+        // (s0, s1, s2) = (p2, q1, q2) + (p3, p4, p5)
+        s0 = p2 + p3;
+        t0 = sumError(p2, p3, s0);
+        s1 = q1 + p4;
+        t1 = sumError(q1, p4, s1);
+        s2 = q2 + p5;
+        x = s1 + t0;
+        t0 = sumError(s1, t0, x);
+        s1 = x;
+        s2 += t0 + t1;
+
+        // terms of order eps^3
+        s1 += a0 * b3 + a1 * b2 + a2 * b1 + a3 * b0 + q0 + q3 + q4 + q5;
+
+        renormalise(p0, p1, s0, s1, s2, r, ri);
+    }
+
+    /**
+     * r = a * a, needing about two thirds of the products of mul(a, a).
+     */
+    static void square(double[] a, int ai, double[] r, int ri) {
+        double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+        double p0, p1, p2, p3, p4, p5, q0, q1, q2, q3;
+        double s0, s1, t0, t1, x;
+
+        p0 = a0 * a0;
+        q0 = productError(a0, a0, p0);
+        p1 = 2d * a0 * a1;
+        q1 = productError(2d * a0, a1, p1);
+        p2 = 2d * a0 * a2;
+        q2 = productError(2d * a0, a2, p2);
+        p3 = a1 * a1;
+        q3 = productError(a1, a1, p3);
+
+        x = q0 + p1;
+        q0 = sumError(q0, p1, x);
+        p1 = x;
+
+        x = q0 + q1;
+        q1 = sumError(q0, q1, x);
+        q0 = x;
+        x = p2 + p3;
+        p3 = sumError(p2, p3, x);
+        p2 = x;
+
+        s0 = q0 + p2;
+        t0 = sumError(q0, p2, s0);
+        s1 = q1 + p3;
+        t1 = sumError(q1, p3, s1);
+
+        x = s1 + t0;
+        t0 = sumError(s1, t0, x);
+        s1 = x;
+        t0 += t1;
+
+        x = s1 + t0;
+        t0 = quickSumError(s1, t0, x);
+        s1 = x;
+        p2 = s0 + s1;
+        t1 = quickSumError(s0, s1, p2);
+        p3 = t1 + t0;
+        q0 = quickSumError(t1, t0, p3);
+
+        p4 = 2d * a0 * a3;
+        p5 = 2d * a1 * a2;
+
+        x = p4 + p5;
+        p5 = sumError(p4, p5, x);
+        p4 = x;
+        x = q2 + q3;
+        q3 = sumError(q2, q3, x);
+        q2 = x;
+
+        t0 = p4 + q2;
+        t1 = sumError(p4, q2, t0);
+        t1 = t1 + p5 + q3;
+
+        x = p3 + t0;
+        p4 = sumError(p3, t0, x);
+        p3 = x;
+        p4 = p4 + q0 + t1;
+
+        renormalise(p0, p1, p2, p3, p4, r, ri);
+    }
+
+    /**
+     * r = 2 * a, which is exact.
+     */
+    static void twice(double[] a, int ai, double[] r, int ri) {
+        r[ri] = 2d * a[ai];
+        r[ri + 1] = 2d * a[ai + 1];
+        r[ri + 2] = 2d * a[ai + 2];
+        r[ri + 3] = 2d * a[ai + 3];
+    }
+
+    /**
+     * Compares normalised numbers a and b.
+     *
+     * @return Negative, zero or positive as a is less than, equal to or greater than b.
+     */
+    static int compare(double[] a, int ai, double[] b, int bi) {
+        for (int k = 0; k < SIZE; k++) {
+            if (a[ai + k] != b[bi + k]) {
+                return a[ai + k] < b[bi + k] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares normalised a with the double b.
+     */
+    static int compare(double[] a, int ai, double b) {
+        if (a[ai] != b) {
+            return a[ai] < b ? -1 : 1;
+        }
+        double rest = a[ai + 1];
+        return rest < 0d ? -1 : rest > 0d ? 1 : 0;
+    }
+
+    /**
+     * Sets r to the double-double hi + lo.
+     */
+    static void set(double hi, double lo, double[] r, int ri) {
+        r[ri] = hi;
+        r[ri + 1] = lo;
+        r[ri + 2] = 0d;
+        r[ri + 3] = 0d;
+    }
+
+    /**
+     * Rounds x to the nearest quad-double.
+     */
+    static void set(BigDecimal x, double[] r, int ri) {
+        BigDecimal rest = x;
+        for (int k = 0; k < SIZE; k++) {
+            double d = rest.doubleValue();
+            r[ri + k] = d;
+            rest = rest.subtract(new BigDecimal(d));
+        }
+        renormalise(r[ri], r[ri + 1], r[ri + 2], r[ri + 3], rest.doubleValue(), r, ri);
+    }
+
+    /**
+     * The exact value of a.
+     */
+    static BigDecimal toBigDecimal(double[] a, int ai) {
+        return new BigDecimal(a[ai])
+                .add(new BigDecimal(a[ai + 1]))
+                .add(new BigDecimal(a[ai + 2]))
+                .add(new BigDecimal(a[ai + 3]));
+    }
+
+    // rounds the five term expansion c0 + ... + c4 to four non-overlapping terms in r
+    private static void renormalise(double c0, double c1, double c2, double c3, double c4,
+                                    double[] r, int ri) {
+        double s0, s1, s2 = 0d, s3 = 0d, t;
+
+        if (Double.isInfinite(c0)) {
+            set(c0, c1, r, ri);
+            return;
+        }
+
+        s0 = c3 + c4;
+        c4 = quickSumError(c3, c4, s0);
+        t = c2 + s0;
+        c3 = quickSumError(c2, s0, t);
+        s0 = t;
+        t = c1 + s0;
+        c2 = quickSumError(c1, s0, t);
+        s0 = t;
+        t = c0 + s0;
+        c1 = quickSumError(c0, s0, t);
+        c0 = t;
+
+        s0 = c0;
+        s1 = c1;
+
+        if (s1 != 0d) {
+            t = s1 + c2;
+            s2 = quickSumError(s1, c2, t);
+            s1 = t;
+            if (s2 != 0d) {
+                t = s2 + c3;
+                s3 = quickSumError(s2, c3, t);
+                s2 = t;
+                if (s3 != 0d) {
+                    s3 += c4;
+                } else {
+                    s2 += c4;
+                }
+            } else {
+                t = s1 + c3;
+                s2 = quickSumError(s1, c3, t);
+                s1 = t;
+                if (s2 != 0d) {
+                    t = s2 + c4;
+                    s3 = quickSumError(s2, c4, t);
+                    s2 = t;
+                } else {
+                    t = s1 + c4;
+                    s2 = quickSumError(s1, c4, t);
+                    s1 = t;
+                }
+            }
+        } else {
+            t = s0 + c2;
+            s1 = quickSumError(s0, c2, t);
+            s0 = t;
+            if (s1 != 0d) {
+                t = s1 + c3;
+                s2 = quickSumError(s1, c3, t);
+                s1 = t;
+                if (s2 != 0d) {
+                    t = s2 + c4;
+                    s3 = quickSumError(s2, c4, t);
+                    s2 = t;
+                } else {
+                    t = s1 + c4;
+                    s2 = quickSumError(s1, c4, t);
+                    s1 = t;
+                }
+            } else {
+                t = s0 + c3;
+                s1 = quickSumError(s0, c3, t);
+                s0 = t;
+                if (s1 != 0d) {
+                    t = s1 + c4;
+                    s2 = quickSumError(s1, c4, t);
+                    s1 = t;
+                } else {
+                    t = s0 + c4;
+                    s1 = quickSumError(s0, c4, t);
+                    s0 = t;
+                }
+            }
+        }
+
+        r[ri] = s0;
+        r[ri + 1] = s1;
+        r[ri + 2] = s2;
+        r[ri + 3] = s3;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Escape loop in QuadDouble arithmetic, resolving pixel spacings down to about 1e-60. It is
+ * several times slower than DoubleDoubleKernel per iteration, but like it needs no reference
+ * orbit and cannot glitch. It makes the InteriorChecks too.
+ */
+
+class QuadDoubleKernel extends EscapeKernel {
+
+    // offsets of the numbers in the scratch array
+    private static final int ZR = 0;
+    private static final int ZI = ZR + QuadDouble.SIZE;
+    private static final int CR = ZI + QuadDouble.SIZE;
+    private static final int CI = CR + QuadDouble.SIZE;
+    private static final int XX = CI + QuadDouble.SIZE;
+    private static final int YY = XX + QuadDouble.SIZE;
+    private static final int T = YY + QuadDouble.SIZE;
+    // saved z for periodicity checking
+    private static final int SR = T + QuadDouble.SIZE;
+    private static final int SI = SR + QuadDouble.SIZE;
+    static final int SCRATCH_SIZE = SI + QuadDouble.SIZE;
+
+    // {cr, ci}
+    private final double[] mCentre = new double[2 * QuadDouble.SIZE];
+
+    QuadDoubleKernel(RenderView view) {
+        super(view);
+        QuadDouble.set(view.mCentreExact[0], mCentre, 0);
+        QuadDouble.set(view.mCentreExact[1], mCentre, QuadDouble.SIZE);
+    }
+
+    @Override
+    int escapeTime(int px, int py, RenderStatistics stats, KernelScratch scratch) {
+        RenderView view = mView;
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        double[] s = scratch.mDoubles;
+
+        // c = centre + du * vecA + dv * vecB
+        offset(du, dv, view.mVecA[0], view.mVecB[0], s, CR);
+        QuadDouble.add(mCentre, 0, s, CR, s, CR);
+        offset(du, dv, view.mVecA[1], view.mVecB[1], s, CI);
+        QuadDouble.add(mCentre, QuadDouble.SIZE, s, CI, s, CI);
+
+        if (mInteriorChecks && InteriorChecks.inCardioidOrBulb(s[CR], s[CI])) {
+            return inCardioidOrBulb(stats);
+        }
+
+        System.arraycopy(s, CR, s, ZR, QuadDouble.SIZE);
+        System.arraycopy(s, CI, s, ZI, QuadDouble.SIZE);
+        System.arraycopy(s, CR, s, SR, 2 * QuadDouble.SIZE);
+        double tolerance = mPeriodTolerance;
+        double nearby = tolerance + DoubleDoubleKernel.NEARBY_ULPS;
+        int limit = view.mEscapeLimit;
+        int nextSave = 2;
+        int i;
+
+        for (i = 0; i < limit; i++) {
+            QuadDouble.square(s, ZR, s, XX);
+            QuadDouble.square(s, ZI, s, YY);
+            QuadDouble.add(s, XX, s, YY, s, T);
+            if (QuadDouble.compare(s, T, 4d) > 0) break;
+
+            QuadDouble.mul(s, ZR, s, ZI, s, T);
+            QuadDouble.twice(s, T, s, T);
+            QuadDouble.add(s, T, s, CI, s, ZI);
+
+            QuadDouble.subtract(s, XX, s, YY, s, T);
+            QuadDouble.add(s, T, s, CR, s, ZR);
+
+            if (Math.abs(s[ZR] - s[SR]) < nearby && Math.abs(s[ZI] - s[SI]) < nearby) {
+                QuadDouble.subtract(s, ZR, s, SR, s, XX);
+                QuadDouble.subtract(s, ZI, s, SI, s, YY);
+                if (Math.abs(s[XX]) + Math.abs(s[YY]) < tolerance) {
+                    return periodic(i + 1, stats);
+                }
+            }
+            if (i + 1 == nextSave) {
+                System.arraycopy(s, ZR, s, SR, 2 * QuadDouble.SIZE);
+                nextSave <<= 1;
+            }
+        }
+        return i;
+    }
+
+    // r = du * a + dv * b, from exact products
+    private static void offset(double du, double dv, double a, double b, double[] r, int ri) {
+        double p = du * a;
+        double q = dv * b;
+        double s = p + q;
+        double e = DoubleDouble.sumError(p, q, s)
+                + DoubleDouble.productError(du, a, p)
+                + DoubleDouble.productError(dv, b, q);
+        double hi = s + e;
+        QuadDouble.set(hi, DoubleDouble.quickSumError(s, e, hi), r, ri);
+    }
+}
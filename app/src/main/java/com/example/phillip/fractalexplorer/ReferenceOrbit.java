@@ -0,0 +1,202 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The orbit of a single point, iterated at whatever precision the view needs and stored rounded to
+ * doubles. Perturbation rendering iterates every other pixel as a small offset from this orbit, so
+ * only this one point has to be computed at high precision.
+ * <p>
+ * Like the shaders, the orbit starts at z = c: mZr[n], mZi[n] hold the value of z that is tested
+ * at iteration n. The orbit stops at the escape limit or at the first point that escapes, which
+ * is still stored so that pixels can be tested against it.
+ * <p>
+ * The high precision iteration is done in FixedPoint, with enough fraction bits for the number of
+ * significant digits asked for; |c| < 2 leaves no digits to the left of the point to account for.
+ */
+
+final class ReferenceOrbit {
+
+    // digits carried beyond those needed to tell neighbouring pixels apart
+    static final int GUARD_DIGITS = 20;
+
+    // iterations between reports to a Listener
+    static final int PROGRESS_INTERVAL = 1 << 12;
+
+    // log2(10), converting digits to bits
+    private static final double BITS_PER_DIGIT = 3.3219280948873623d;
+
+    /**
+     * Told how far a long orbit has got while it is iterated, so that the iteration can be
+     * carried on from there after a restart rather than started again.
+     */
+    interface Listener {
+        /**
+         * Called every PROGRESS_INTERVAL iterations with the orbit so far: the first count values
+         * of its mZr and mZi, and the exact z of the next. Nothing passed may be changed.
+         */
+        void progress(ReferenceOrbit orbit, int count, FixedPoint zr, FixedPoint zi);
+    }
+
+    final BigDecimal mCr;
+    final BigDecimal mCi;
+    final int mEscapeLimit;
+    final int mDigits;
+
+    final double[] mZr;
+    final double[] mZi;
+    final int mLength;
+
+    private ReferenceOrbit(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits) {
+        this(cr, ci, escapeLimit, digits, null, null, 0, null, null, null);
+    }
+
+    // carries on from count values already in zr and zi, z being (fromR, fromI), if count > 0
+    private ReferenceOrbit(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits,
+                           double[] zr, double[] zi, int count,
+                           FixedPoint fromR, FixedPoint fromI, Listener listener) {
+        mCr = cr;
+        mCi = ci;
+        mEscapeLimit = escapeLimit;
+        mDigits = digits;
+
+        mZr = new double[escapeLimit + 1];
+        mZi = new double[escapeLimit + 1];
+        if (count > 0) {
+            System.arraycopy(zr, 0, mZr, 0, count);
+            System.arraycopy(zi, 0, mZi, 0, count);
+        }
+        mLength = iterate(count, fromR, fromI, listener);
+    }
+
+    /**
+     * Number of significant digits needed to resolve single pixels of the view.
+     */
+    static int digitsFor(RenderView view) {
+        double spacing = view.pixelSpacing();
+        int digits = spacing > 0 ? (int) Math.ceil(-Math.log10(spacing)) : 0;
+        return Math.max(digits, 0) + GUARD_DIGITS;
+    }
+
+    /**
+     * Iterates the point (cr, ci) to at most escapeLimit iterations, at the given number of
+     * significant digits.
+     */
+    static ReferenceOrbit create(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits) {
+        return new ReferenceOrbit(cr, ci, escapeLimit, digits);
+    }
+
+    /**
+     * Iterates the point (cr, ci) as create() does, reporting progress to the listener, and
+     * carrying on from an orbit a listener was told about if count is more than 0: the first
+     * count values of zr and zi, and the exact z of the next, (fromR, fromI).
+     */
+    static ReferenceOrbit resume(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits,
+                                 double[] zr, double[] zi, int count,
+                                 FixedPoint fromR, FixedPoint fromI, Listener listener) {
+        return new ReferenceOrbit(cr, ci, escapeLimit, digits, zr, zi, count, fromR, fromI,
+                listener);
+    }
+
+    /**
+     * An orbit iterated before, from the first length values of zr and zi, all it had.
+     */
+    static ReferenceOrbit completed(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits,
+                                    double[] zr, double[] zi, int length) {
+        return new ReferenceOrbit(cr, ci, escapeLimit, digits, zr, zi, length);
+    }
+
+    private ReferenceOrbit(BigDecimal cr, BigDecimal ci, int escapeLimit, int digits,
+                           double[] zr, double[] zi, int length) {
+        if (length <= 0 || length > escapeLimit + 1) {
+            throw new IllegalArgumentException("No orbit of length " + length
+                    + " reaches escape limit " + escapeLimit);
+        }
+        mCr = cr;
+        mCi = ci;
+        mEscapeLimit = escapeLimit;
+        mDigits = digits;
+        mZr = Arrays.copyOf(zr, escapeLimit + 1);
+        mZi = Arrays.copyOf(zi, escapeLimit + 1);
+        mLength = length;
+    }
+
+    /**
+     * Fraction limbs the orbit is iterated with.
+     */
+    static int limbsFor(int digits) {
+        return FixedPoint.limbsFor((int) Math.ceil(digits * BITS_PER_DIGIT));
+    }
+
+    private static ReferenceOrbit sLastOrbit;
+
+    /**
+     * Returns the orbit of the view's centre point, reusing the previous orbit when the centre and
+     * escape limit have not changed and it was computed with enough digits. Repeated frames of a
+     * still view, such as those following a change of gradient, then skip the high precision work.
+     */
+    static synchronized ReferenceOrbit forView(RenderView view) {
+        int digits = digitsFor(view);
+        BigDecimal cr = view.mCentreExact[0];
+        BigDecimal ci = view.mCentreExact[1];
+        ReferenceOrbit orbit = sLastOrbit;
+
+        if (orbit == null
+                || orbit.mEscapeLimit != view.mEscapeLimit
+                || orbit.mDigits < digits
+                || orbit.mCr.compareTo(cr) != 0
+                || orbit.mCi.compareTo(ci) != 0) {
+            orbit = new ReferenceOrbit(cr, ci, view.mEscapeLimit, digits);
+            sLastOrbit = orbit;
+        }
+        return orbit;
+    }
+
+    private int iterate(int from, FixedPoint fromR, FixedPoint fromI, Listener listener) {
+        int limbs = limbsFor(mDigits);
+        FixedPoint cr = FixedPoint.valueOf(mCr, limbs);
+        FixedPoint ci = FixedPoint.valueOf(mCi, limbs);
+        FixedPoint zr = FixedPoint.valueOf(mCr, limbs);
+        FixedPoint zi = FixedPoint.valueOf(mCi, limbs);
+        FixedPoint zr2 = new FixedPoint(limbs);
+        FixedPoint zi2 = new FixedPoint(limbs);
+        double x, y;
+        int n;
+
+        if (from > 0) {
+            zr.set(fromR);
+            zi.set(fromI);
+        }
+        for (n = from; ; n++) {
+            if (listener != null && n > from && n % PROGRESS_INTERVAL == 0) {
+                listener.progress(this, n, zr, zi);
+            }
+
+            x = zr.doubleValue();
+            y = zi.doubleValue();
+            mZr[n] = x;
+            mZi[n] = y;
+
+            if (x * x + y * y > 4d || n == mEscapeLimit) break;
+
+            zr2.square(zr);
+            zi2.square(zi);
+            // zi = 2 zr zi + ci
+            zi.multiply(zr, zi);
+            zi.twice();
+            zi.add(zi, ci);
+            // zr = zr^2 - zi^2 + cr
+            zr.subtract(zr2, zi2);
+            zr.add(zr, cr);
+        }
+        return n + 1;
+    }
+
+    /**
+     * Whether the reference point itself escaped before the escape limit.
+     */
+    boolean escaped() {
+        return mLength <= mEscapeLimit;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+
+/**
+ * Progress of a long export kept on disk, so that an export stopped part way, by a crash or by
+ * the process being killed, carries on from where it got to when run again for the same view.
+ * <p>
+ * A checkpoint is two files. The escape counts of every strip completed go to an IterationFile,
+ * and a small progress file records the view, the strip height, how many rows are complete and,
+ * for perturbation exports, the reference orbit of the whole view, complete or as far as it has
+ * been iterated. Exporting the same view again with the same strip height reads the complete
+ * rows back and computes only the rest; anything else starts both files again.
+ * <p>
+ * Progress is saved at most once an interval, DEFAULT_INTERVAL_MILLIS unless set, and when an
+ * export finishes or stops. The counts are forced to disk before the rows holding them are
+ * recorded, so the progress file never names rows that are not on disk. Whole strips are
+ * recorded, so a crash loses the strips since the last save and the strip in progress.
+ * <p>
+ * The progress file is replaced as a whole, through a temporary file renamed over it, when the
+ * orbit in it changes; otherwise only the count of rows in it is rewritten in place.
+ */
+
+public final class RenderCheckpoint implements Closeable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 60000L;
+
+    static final int MAGIC = 0x4658434b; // "FXCK"
+    static final int VERSION = 1;
+    // file offset of the count of rows complete
+    private static final int ROWS_DONE = 8;
+
+    private static final int NO_ORBIT = 0;
+    private static final int PARTIAL_ORBIT = 1;
+    private static final int COMPLETE_ORBIT = 2;
+
+    private final File mProgressFile;
+    private final File mCountsFile;
+    private long mIntervalNanos = DEFAULT_INTERVAL_MILLIS * 1000000L;
+    private long mLastSave;
+
+    private RenderView mView;
+    private int mStripHeight;
+    private int mRowsDone;
+    // rows the progress file holds as complete
+    private int mRowsSaved;
+    private IterationFile mCounts;
+
+    // the orbit as far as the progress file has it: mOrbitCount values, and for a partial orbit
+    // the exact z of the next
+    private int mOrbitState;
+    private int mOrbitDigits;
+    private int mOrbitCount;
+    private double[] mOrbitZr;
+    private double[] mOrbitZi;
+    private FixedPoint mOrbitFromR;
+    private FixedPoint mOrbitFromI;
+
+    /**
+     * @param progress The progress file.
+     * @param counts The escape counts of the rows complete.
+     */
+    public RenderCheckpoint(File progress, File counts) {
+        mProgressFile = progress;
+        mCountsFile = counts;
+    }
+
+    /**
+     * Sets the time to leave between saves of progress while exporting; 0 saves every strip.
+     */
+    public void setInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Interval must not be negative: " + millis);
+        }
+        mIntervalNanos = millis * 1000000L;
+    }
+
+    public long getInterval() {
+        return mIntervalNanos / 1000000L;
+    }
+
+    /**
+     * Rows of the view complete, as far as this checkpoint knows.
+     */
+    public synchronized int getRowsDone() {
+        return mRowsDone;
+    }
+
+    /**
+     * Picks up the progress of an export of the view in strips of the given height, or starts the
+     * files again if they hold none.
+     *
+     * @return the rows complete, which can be read from getCounts().
+     */
+    synchronized int begin(RenderView view, int stripHeight) throws IOException {
+        close();
+        if (load(view, stripHeight)) {
+            mLastSave = System.nanoTime();
+            return mRowsDone;
+        }
+
+        mView = view;
+        mStripHeight = stripHeight;
+        mRowsDone = 0;
+        mOrbitState = NO_ORBIT;
+        mOrbitZr = null;
+        mOrbitZi = null;
+        mCounts = IterationFile.create(mCountsFile, view, IterationFile.DEFAULT_TILE_SIZE);
+        writeAll();
+        return 0;
+    }
+
+    // whether the files hold progress of the view
+    private boolean load(RenderView view, int stripHeight) throws IOException {
+        if (!mProgressFile.isFile() || !mCountsFile.isFile()) return false;
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mProgressFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            int rowsDone = in.readInt();
+            if (in.readInt() != stripHeight) return false;
+            RenderView saved = readView(in);
+            if (!saved.equals(view) || rowsDone < 0 || rowsDone > view.mHeight) return false;
+
+            int state = in.readInt();
+            if (state != NO_ORBIT) {
+                mOrbitDigits = in.readInt();
+                mOrbitCount = in.readInt();
+                if (state == PARTIAL_ORBIT) {
+                    int limbs = ReferenceOrbit.limbsFor(mOrbitDigits);
+                    mOrbitFromR = readFixedPoint(in, limbs);
+                    mOrbitFromI = readFixedPoint(in, limbs);
+                }
+                mOrbitZr = readDoubles(in, mOrbitCount);
+                mOrbitZi = readDoubles(in, mOrbitCount);
+            }
+            mOrbitState = state;
+            mRowsDone = rowsDone;
+            mRowsSaved = rowsDone;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+
+        IterationFile counts;
+        try {
+            counts = IterationFile.open(mCountsFile, true);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!counts.getView().equals(view)) {
+            counts.close();
+            return false;
+        }
+        mView = view;
+        mStripHeight = stripHeight;
+        mCounts = counts;
+        return true;
+    }
+
+    /**
+     * The escape counts of the rows complete, open for the rest to be written to.
+     */
+    synchronized IterationFile getCounts() {
+        return mCounts;
+    }
+
+    /**
+     * The reference orbit of the view's centre, from the progress file if it holds it, or
+     * iterated from as far as the progress file has it otherwise and saved as it goes.
+     */
+    synchronized ReferenceOrbit referenceOrbit() throws IOException {
+        RenderView view = mView;
+        int digits = ReferenceOrbit.digitsFor(view);
+        BigDecimal cr = view.mCentreExact[0];
+        BigDecimal ci = view.mCentreExact[1];
+        if (mOrbitState == COMPLETE_ORBIT && mOrbitDigits == digits) {
+            return ReferenceOrbit.completed(cr, ci, view.mEscapeLimit, digits,
+                    mOrbitZr, mOrbitZi, mOrbitCount);
+        }
+
+        boolean partial = mOrbitState == PARTIAL_ORBIT && mOrbitDigits == digits;
+        final IOException[] failure = new IOException[1];
+        ReferenceOrbit orbit = ReferenceOrbit.resume(cr, ci, view.mEscapeLimit, digits,
+                mOrbitZr, mOrbitZi, partial ? mOrbitCount : 0,
+                mOrbitFromR, mOrbitFromI, new ReferenceOrbit.Listener() {
+                    @Override
+                    public void progress(ReferenceOrbit orbit, int count, FixedPoint zr,
+                                         FixedPoint zi) {
+                        if (failure[0] != null || !due()) return;
+                        try {
+                            saveOrbit(PARTIAL_ORBIT, orbit, count, zr, zi);
+                        } catch (IOException e) {
+                            // reported once the orbit is complete, as it is still worth having
+                            failure[0] = e;
+                        }
+                    }
+                });
+        if (failure[0] != null) throw failure[0];
+        saveOrbit(COMPLETE_ORBIT, orbit, orbit.mLength, null, null);
+        return orbit;
+    }
+
+    private void saveOrbit(int state, ReferenceOrbit orbit, int count, FixedPoint zr,
+                           FixedPoint zi) throws IOException {
+        mOrbitState = state;
+        mOrbitDigits = orbit.mDigits;
+        mOrbitCount = count;
+        // the orbit's own arrays; values past count are never written
+        mOrbitZr = orbit.mZr;
+        mOrbitZi = orbit.mZi;
+        mOrbitFromR = zr;
+        mOrbitFromI = zi;
+        writeAll();
+        // the state is the orbit's, and changes as soon as iteration carries on
+        if (state == PARTIAL_ORBIT) {
+            int limbs = zr.getFractionLimbs();
+            mOrbitFromR = new FixedPoint(limbs);
+            mOrbitFromR.set(zr);
+            mOrbitFromI = new FixedPoint(limbs);
+            mOrbitFromI.set(zi);
+        }
+    }
+
+    /**
+     * Records that the first rowsDone rows are complete, their counts written to getCounts(),
+     * saving progress if the interval since the last save is up.
+     */
+    synchronized void stripDone(int rowsDone) throws IOException {
+        mRowsDone = rowsDone;
+        if (due()) {
+            save();
+        }
+    }
+
+    /**
+     * Saves progress now, if there is any not saved.
+     */
+    synchronized void save() throws IOException {
+        if (mCounts == null || mRowsDone == mRowsSaved) return;
+        mCounts.force();
+        RandomAccessFile file = new RandomAccessFile(mProgressFile, "rw");
+        try {
+            file.seek(ROWS_DONE);
+            file.writeInt(mRowsDone);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        mRowsSaved = mRowsDone;
+        mLastSave = System.nanoTime();
+    }
+
+    private boolean due() {
+        return System.nanoTime() - mLastSave >= mIntervalNanos;
+    }
+
+    // writes the whole progress file, replacing the one there once it is safely on disk
+    private void writeAll() throws IOException {
+        File temporary = new File(mProgressFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mRowsDone);
+            out.writeInt(mStripHeight);
+            writeView(out, mView);
+            out.writeInt(mOrbitState);
+            if (mOrbitState != NO_ORBIT) {
+                out.writeInt(mOrbitDigits);
+                out.writeInt(mOrbitCount);
+                if (mOrbitState == PARTIAL_ORBIT) {
+                    writeFixedPoint(out, mOrbitFromR);
+                    writeFixedPoint(out, mOrbitFromI);
+                }
+                writeDoubles(out, mOrbitZr, mOrbitCount);
+                writeDoubles(out, mOrbitZi, mOrbitCount);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        // renameTo() replaces the file on POSIX systems, but not everywhere
+        if (!temporary.renameTo(mProgressFile)
+                && !(mProgressFile.delete() && temporary.renameTo(mProgressFile))) {
+            throw new IOException("Could not replace " + mProgressFile);
+        }
+        mRowsSaved = mRowsDone;
+        mLastSave = System.nanoTime();
+    }
+
+    private static void writeView(DataOutputStream out, RenderView view) throws IOException {
+        out.writeInt(view.mWidth);
+        out.writeInt(view.mHeight);
+        out.writeInt(view.mEscapeLimit);
+        out.writeInt(view.mPrecision);
+        out.writeDouble(view.mVecA[0]);
+        out.writeDouble(view.mVecA[1]);
+        out.writeDouble(view.mVecB[0]);
+        out.writeDouble(view.mVecB[1]);
+        out.writeUTF(view.mCentreExact[0].toString());
+        out.writeUTF(view.mCentreExact[1].toString());
+    }
+
+    private static RenderView readView(DataInputStream in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int limit = in.readInt();
+        int precision = in.readInt();
+        double[] vecA = {in.readDouble(), in.readDouble()};
+        double[] vecB = {in.readDouble(), in.readDouble()};
+        BigDecimal[] centre = {new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF())};
+        return new RenderView(centre, vecA, vecB, width, height, limit, precision);
+    }
+
+    private static void writeFixedPoint(DataOutputStream out, FixedPoint x) throws IOException {
+        out.writeBoolean(x.mNegative);
+        for (int limb : x.mLimbs) {
+            out.writeInt(limb);
+        }
+    }
+
+    private static FixedPoint readFixedPoint(DataInputStream in, int limbs) throws IOException {
+        FixedPoint x = new FixedPoint(limbs);
+        x.mNegative = in.readBoolean();
+        for (int i = 0; i < x.mLimbs.length; i++) {
+            x.mLimbs[i] = in.readInt();
+        }
+        return x;
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    /**
+     * Saves any progress not yet saved and closes the counts file. The files are left for the
+     * next export of the view to carry on from, or to be deleted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mCounts == null) return;
+        try {
+            save();
+        } finally {
+            mCounts.close();
+            mCounts = null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.phillip.fractalexplorer;
+
+import java.util.Arrays;
+
+/**
+ * Counters describing the work done to produce a CPU frame.
+ * <p>
+ * Each tile collects into its own instance without synchronisation, and the renderer merges the
+ * tile instances into the frame instance once the tile is finished, so counting costs nothing in
+ * the escape loop.
+ */
+
+public class RenderStatistics {
+
+    long mTiles;
+    long mTilesDropped;     // tiles left unfinished because the frame was cancelled
+    final long[] mTilesByPrecision = new long[TexturedMandelbrot.PRECISION_MODEL_COUNT];
+    long mPixelsComputed;   // pixels an escape loop ran for
+    long mPixelsFilled;     // pixels given the count of a uniform border instead
+    long mPixelsReused;     // pixels whose count was kept from the previous frame
+    long mPixelsProbed;     // pixels escape times were probed for to split tiles by cost
+    long mIterations;       // escape counts summed, whether iterated or skipped
+    long mIterationsSkipped; // of mIterations, those nobody had to iterate
+    long mCardioidPixels;   // pixels found inside the main cardioid or period 2 bulb
+    long mPeriodicPixels;   // pixels whose orbit was found to be periodic
+    long mApproximationSteps; // linear steps taken through a BlaTable
+    long mGlitchedPixels;   // pixels the first reference could not finish
+    long mSecondaryReferences; // extra reference orbits computed to finish them
+    long mElapsedNanos;
+    // per worker, summed over the passes of a frame
+    long[] mWorkerBusyNanos = new long[0];
+    long[] mWorkerIdleNanos = new long[0];
+
+    /**
+     * Adds the time each worker spent rendering during a pass of the given length, the rest of
+     * it counting as idle.
+     */
+    synchronized void addWorkerTimes(long[] busyNanos, long passNanos) {
+        if (mWorkerBusyNanos.length < busyNanos.length) {
+            mWorkerBusyNanos = Arrays.copyOf(mWorkerBusyNanos, busyNanos.length);
+            mWorkerIdleNanos = Arrays.copyOf(mWorkerIdleNanos, busyNanos.length);
+        }
+        for (int w = 0; w < busyNanos.length; w++) {
+            mWorkerBusyNanos[w] += busyNanos[w];
+            mWorkerIdleNanos[w] += Math.max(passNanos - busyNanos[w], 0L);
+        }
+    }
+
+    synchronized void merge(RenderStatistics tile) {
+        mTiles += tile.mTiles;
+        mTilesDropped += tile.mTilesDropped;
+        for (int p = 0; p < mTilesByPrecision.length; p++) {
+            mTilesByPrecision[p] += tile.mTilesByPrecision[p];
+        }
+        mPixelsComputed += tile.mPixelsComputed;
+        mPixelsFilled += tile.mPixelsFilled;
+        mPixelsReused += tile.mPixelsReused;
+        mPixelsProbed += tile.mPixelsProbed;
+        mIterations += tile.mIterations;
+        mIterationsSkipped += tile.mIterationsSkipped;
+        mCardioidPixels += tile.mCardioidPixels;
+        mPeriodicPixels += tile.mPeriodicPixels;
+        mApproximationSteps += tile.mApproximationSteps;
+        mGlitchedPixels += tile.mGlitchedPixels;
+        mSecondaryReferences += tile.mSecondaryReferences;
+    }
+
+    public synchronized void reset() {
+        mTiles = 0;
+        mTilesDropped = 0;
+        Arrays.fill(mTilesByPrecision, 0);
+        mPixelsComputed = 0;
+        mPixelsFilled = 0;
+        mPixelsReused = 0;
+        mPixelsProbed = 0;
+        mIterations = 0;
+        mIterationsSkipped = 0;
+        mCardioidPixels = 0;
+        mPeriodicPixels = 0;
+        mApproximationSteps = 0;
+        mGlitchedPixels = 0;
+        mSecondaryReferences = 0;
+        mElapsedNanos = 0;
+        mWorkerBusyNanos = new long[0];
+        mWorkerIdleNanos = new long[0];
+    }
+
+    public synchronized long getTiles() {
+        return mTiles;
+    }
+
+    public synchronized long getTilesDropped() {
+        return mTilesDropped;
+    }
+
+    /**
+     * Number of tiles rendered with the given precision model.
+     */
+    public synchronized long getTiles(int precision) {
+        return mTilesByPrecision[precision];
+    }
+
+    public synchronized long getPixelsComputed() {
+        return mPixelsComputed;
+    }
+
+    public synchronized long getPixelsFilled() {
+        return mPixelsFilled;
+    }
+
+    public synchronized long getPixelsReused() {
+        return mPixelsReused;
+    }
+
+    public synchronized long getPixelsProbed() {
+        return mPixelsProbed;
+    }
+
+    public synchronized long getIterations() {
+        return mIterations;
+    }
+
+    public synchronized long getIterationsSkipped() {
+        return mIterationsSkipped;
+    }
+
+    public synchronized long getCardioidPixels() {
+        return mCardioidPixels;
+    }
+
+    public synchronized long getPeriodicPixels() {
+        return mPeriodicPixels;
+    }
+
+    public synchronized long getApproximationSteps() {
+        return mApproximationSteps;
+    }
+
+    public synchronized long getGlitchedPixels() {
+        return mGlitchedPixels;
+    }
+
+    public synchronized long getSecondaryReferences() {
+        return mSecondaryReferences;
+    }
+
+    public synchronized long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * Time each worker of the pool spent rendering tiles.
+     */
+    public synchronized long[] getWorkerBusyNanos() {
+        return mWorkerBusyNanos.clone();
+    }
+
+    /**
+     * Time each worker of the pool spent waiting for the others to finish, or for work.
+     */
+    public synchronized long[] getWorkerIdleNanos() {
+        return mWorkerIdleNanos.clone();
+    }
+
+    private static String millis(long[] nanos) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int w = 0; w < nanos.length; w++) {
+            if (w > 0) sb.append(", ");
+            sb.append(nanos[w] / 1000000);
+        }
+        return sb.append("]ms").toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "tiles=" + mTiles
+                + " dropped=" + mTilesDropped
+                + " byPrecision=" + Arrays.toString(mTilesByPrecision)
+                + " pixels=" + mPixelsComputed
+                + " filled=" + mPixelsFilled
+                + " reused=" + mPixelsReused
+                + " probed=" + mPixelsProbed
+                + " iterations=" + mIterations
+                + " skipped=" + mIterationsSkipped
+                + " cardioid=" + mCardioidPixels
+                + " periodic=" + mPeriodicPixels
+                + " blaSteps=" + mApproximationSteps
+                + " glitched=" + mGlitchedPixels
+                + " references=" + mSecondaryReferences
+                + " busy=" + millis(mWorkerBusyNanos)
+                + " idle=" + millis(mWorkerIdleNanos)
+                + " elapsed=" + (mElapsedNanos / 1000000) + "ms";
+    }
+}
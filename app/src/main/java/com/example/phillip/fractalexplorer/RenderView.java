@@ -0,0 +1,258 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of everything the fragment shaders are given for one frame: the centre
+ * point, the two half-extent vectors, the escape limit and the precision model, together with the
+ * pixel size of the surface being rendered.
+ * <p>
+ * CPU render paths work from one of these rather than from TexturedMandelbrot directly, so that a
+ * gesture arriving on the renderer thread can not change the view halfway through a frame.
+ * <p>
+ * Pixels are addressed from the top left, the same way the texture coordinates of the textured
+ * rect are laid out. The centre of pixel (px, py) has the texture coordinate
+ * ((px + 0.5) / width, (py + 0.5) / height), and the shaders map a texture coordinate (u, v) to
+ * c = centre - vecA - vecB + 2 * (u * vecA + v * vecB).
+ * <p>
+ * The centre point is also kept exactly, for precision models that can resolve views finer than
+ * a double can address.
+ */
+
+public final class RenderView {
+
+    final BigDecimal[] mCentreExact;
+    final double[] mCentrePoint;
+    final double[] mVecA; // parallel with screen x axis
+    final double[] mVecB; // parallel with screen y axis
+    final int mWidth;
+    final int mHeight;
+    final int mEscapeLimit;
+    final int mPrecision;
+
+    public RenderView(double[] centrePoint,
+                      double[] vecA,
+                      double[] vecB,
+                      int width,
+                      int height,
+                      int escapeLimit,
+                      int precision) {
+        this(new BigDecimal[] {new BigDecimal(centrePoint[0]), new BigDecimal(centrePoint[1])},
+                vecA, vecB, width, height, escapeLimit, precision);
+    }
+
+    public RenderView(BigDecimal[] centrePoint,
+                      double[] vecA,
+                      double[] vecB,
+                      int width,
+                      int height,
+                      int escapeLimit,
+                      int precision) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("View must have a positive size: "
+                    + width + "x" + height);
+        }
+        if (escapeLimit <= 0) {
+            throw new IllegalArgumentException("Escape limit must be positive: " + escapeLimit);
+        }
+
+        mCentreExact = new BigDecimal[] {centrePoint[0], centrePoint[1]};
+        mCentrePoint = new double[] {centrePoint[0].doubleValue(), centrePoint[1].doubleValue()};
+        mVecA = new double[] {vecA[0], vecA[1]};
+        mVecB = new double[] {vecB[0], vecB[1]};
+        mWidth = width;
+        mHeight = height;
+        mEscapeLimit = escapeLimit;
+        mPrecision = precision;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getEscapeLimit() {
+        return mEscapeLimit;
+    }
+
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    public int getPixelCount() {
+        return mWidth * mHeight;
+    }
+
+    /**
+     * Distance on the complex plane between the centres of horizontally adjacent pixels.
+     */
+    public double pixelSpacing() {
+        return 2d * Math.hypot(mVecA[0], mVecA[1]) / mWidth;
+    }
+
+    /**
+     * Distance on the complex plane from the centre of the view to its furthest corner.
+     */
+    public double viewRadius() {
+        return Math.max(Math.hypot(mVecA[0] + mVecB[0], mVecA[1] + mVecB[1]),
+                Math.hypot(mVecA[0] - mVecB[0], mVecA[1] - mVecB[1]));
+    }
+
+    /**
+     * The same view, to be rendered with another precision model.
+     */
+    public RenderView withPrecision(int precision) {
+        if (precision == mPrecision) return this;
+        return new RenderView(mCentreExact, mVecA, mVecB, mWidth, mHeight, mEscapeLimit, precision);
+    }
+
+    /**
+     * The same view, iterated to another escape limit.
+     */
+    public RenderView withEscapeLimit(int escapeLimit) {
+        if (escapeLimit == mEscapeLimit) return this;
+        return new RenderView(mCentreExact, mVecA, mVecB, mWidth, mHeight, escapeLimit, mPrecision);
+    }
+
+    /**
+     * The rows [top, top + rows) of this view as a view of their own, with the same pixels.
+     */
+    public RenderView strip(int top, int rows) {
+        if (top < 0 || rows <= 0 || top + rows > mHeight) {
+            throw new IllegalArgumentException("Rows " + top + " to " + (top + rows)
+                    + " are not in a view " + mHeight + " high");
+        }
+        if (top == 0 && rows == mHeight) return this;
+
+        // the strip's centre is (2 top + rows - height) / height of vecB below this one's
+        double[] vecB = {mVecB[0] * rows / mHeight, mVecB[1] * rows / mHeight};
+        BigDecimal offset = new BigDecimal(2L * top + rows - mHeight);
+        BigDecimal height = new BigDecimal(mHeight);
+        BigDecimal[] centre = new BigDecimal[2];
+        for (int k = 0; k < 2; k++) {
+            // enough digits to place the centre well within a row, however deep the view is
+            double row = Math.abs(mVecB[k]) / mHeight;
+            MathContext mc = row > 0d
+                    ? new MathContext(Math.max((int) Math.ceil(
+                            Math.log10((Math.abs(mCentrePoint[k]) + 1d) / row)), 0) + 16)
+                    : MathContext.DECIMAL64;
+            centre[k] = mCentreExact[k].add(new BigDecimal(mVecB[k]).multiply(offset)
+                    .divide(height, mc), mc);
+        }
+        return new RenderView(centre, mVecA, vecB, mWidth, rows, mEscapeLimit, mPrecision);
+    }
+
+    /**
+     * Where the pixel grid of the other view lies on this one's, if other differs from this view
+     * by a translation and a zoom by a power of two alone: {scale, ax, ay} such that pixel (x, y)
+     * of other has the centre pixel (ax + scale * x, ay + scale * y) of this would have, where
+     * pixel coordinates are continuous and integral at pixel centres. Null if the views differ in
+     * anything else.
+     */
+    double[] pixelMapOf(RenderView other) {
+        if (mWidth != other.mWidth || mHeight != other.mHeight
+                || mEscapeLimit != other.mEscapeLimit || mPrecision != other.mPrecision) {
+            return null;
+        }
+
+        double scale = Math.abs(mVecA[0]) >= Math.abs(mVecA[1])
+                ? other.mVecA[0] / mVecA[0]
+                : other.mVecA[1] / mVecA[1];
+        if (!(scale > 0d) || scale != Math.scalb(1d, Math.getExponent(scale))
+                || other.mVecA[0] != mVecA[0] * scale || other.mVecA[1] != mVecA[1] * scale
+                || other.mVecB[0] != mVecB[0] * scale || other.mVecB[1] != mVecB[1] * scale) {
+            return null;
+        }
+
+        // other's centre - this centre = u * vecA + v * vecB, one pixel being 2 / width of u
+        double dr = other.mCentreExact[0].subtract(mCentreExact[0]).doubleValue();
+        double di = other.mCentreExact[1].subtract(mCentreExact[1]).doubleValue();
+        double det = mVecA[0] * mVecB[1] - mVecA[1] * mVecB[0];
+        if (det == 0d) return null;
+        double u = (dr * mVecB[1] - di * mVecB[0]) / det;
+        double v = (mVecA[0] * di - mVecA[1] * dr) / det;
+
+        // pixel x of other sits at u + scale * (2 (x + 0.5) / width - 1) along vecA
+        return new double[] {
+                scale,
+                u * mWidth / 2d + (1d - scale) * (mWidth - 1) / 2d,
+                v * mHeight / 2d + (1d - scale) * (mHeight - 1) / 2d};
+    }
+
+    /**
+     * Where the centre of pixel (0, 0) lies on the lattice of points spaced as this view's pixels
+     * are and including 0: {gx, gy} such that the pixel centre is gx times the pixel spacing
+     * along the real axis and gy times it along the imaginary one, the spacing being
+     * 2 * vecA / width and 2 * vecB / height with their signs. A view whose pixel centres lie on
+     * the lattice has whole numbers here, and shares its pixels with every other such view of
+     * the same spacing wherever the two overlap. Null if the vectors are not along the axes.
+     */
+    BigDecimal[] latticeIndex() {
+        if (mVecA[1] != 0d || mVecB[0] != 0d || mVecA[0] == 0d || mVecB[1] == 0d) return null;
+        return new BigDecimal[] {
+                latticeIndex(mCentreExact[0], mVecA[0], mWidth),
+                latticeIndex(mCentreExact[1], mVecB[1], mHeight)};
+    }
+
+    // centre / spacing + (1 - pixels) / 2, the spacing being 2 * vec / pixels
+    private static BigDecimal latticeIndex(BigDecimal centre, double vec, int pixels) {
+        double spacing = 2d * vec / pixels;
+        // digits for the whole part of the index, and enough of its fraction to tell a pixel
+        // centre from a point a little way off it
+        double whole = Math.abs(centre.doubleValue() / spacing) + pixels;
+        MathContext mc = new MathContext((int) Math.ceil(Math.log10(whole)) + 16);
+        BigDecimal perSpacing = new BigDecimal(pixels).divide(new BigDecimal(2d * vec), mc);
+        return centre.multiply(perSpacing, mc).add(new BigDecimal((1d - pixels) / 2d), mc);
+    }
+
+    // texture coordinates of pixel centres, as the rasteriser hands them to the fragment shader
+    float texCoordX(int px) {
+        return (px + 0.5f) / mWidth;
+    }
+
+    float texCoordY(int py) {
+        return (py + 0.5f) / mHeight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RenderView)) return false;
+        RenderView v = (RenderView) o;
+        // BigDecimal.equals() would tell 0.5 and 0.50 apart
+        return mCentreExact[0].compareTo(v.mCentreExact[0]) == 0
+                && mCentreExact[1].compareTo(v.mCentreExact[1]) == 0
+                && Arrays.equals(mVecA, v.mVecA)
+                && Arrays.equals(mVecB, v.mVecB)
+                && mWidth == v.mWidth
+                && mHeight == v.mHeight
+                && mEscapeLimit == v.mEscapeLimit
+                && mPrecision == v.mPrecision;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Arrays.hashCode(mCentrePoint);
+        h = 31 * h + Arrays.hashCode(mVecA);
+        h = 31 * h + Arrays.hashCode(mVecB);
+        h = 31 * h + mWidth;
+        h = 31 * h + mHeight;
+        h = 31 * h + mEscapeLimit;
+        return 31 * h + mPrecision;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderView[cp=(" + mCentrePoint[0] + ", " + mCentrePoint[1]
+                + "), a=(" + mVecA[0] + ", " + mVecA[1]
+                + "), b=(" + mVecB[0] + ", " + mVecB[1]
+                + "), " + mWidth + "x" + mHeight
+                + ", limit=" + mEscapeLimit
+                + ", precision=" + mPrecision + "]";
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.phillip.fractalexplorer;
+
+/**
+ * Skips the shared beginning of every pixel's orbit in a perturbation render.
+ * <p>
+ * While the offsets dz of a view are small, they are close to a polynomial in the pixel's dc:
+ * <pre>
+ *   dz_n = A_n dc + B_n dc^2 + C_n dc^3
+ *   A_n+1 = 2 Z_n A_n + 1,   B_n+1 = 2 Z_n B_n + A_n^2,   C_n+1 = 2 Z_n C_n + 2 A_n B_n
+ * </pre>
+ * with A_0 = 1 and B_0 = C_0 = 0, since the shaders start at z = c. The coefficients only depend
+ * on the reference orbit, so they are computed once per frame and every pixel can start its escape
+ * loop at iteration mSkip with dz evaluated from the polynomial instead of at iteration 0.
+ * <p>
+ * The approximation is followed along the orbit until the cubic term stops being negligible next
+ * to the quadratic one for the largest dc in the view, or until some pixel could be about to
+ * escape. The chosen iteration is then checked against probe pixels at the corners of the view,
+ * iterated the long way, and halved until they agree.
+ */
+
+final class SeriesApproximation {
+
+    // largest allowed ratio of the cubic term to the quadratic term
+    static final double TERM_TOLERANCE = 1e-6;
+    // largest allowed error of a probe, relative to the size of its offset
+    static final double PROBE_TOLERANCE = 1e-9;
+
+    final int mSkip;
+
+    // coefficients at iteration mSkip
+    private final double mAr, mAi, mBr, mBi, mCr, mCi;
+
+    private SeriesApproximation(int skip, double[] coefficients) {
+        mSkip = skip;
+        mAr = coefficients[0];
+        mAi = coefficients[1];
+        mBr = coefficients[2];
+        mBi = coefficients[3];
+        mCr = coefficients[4];
+        mCi = coefficients[5];
+    }
+
+    /**
+     * Fits the series along the orbit for the pixels of the view.
+     *
+     * @return The approximation, skipping 0 iterations if the orbit gives it no room.
+     */
+    static SeriesApproximation forView(RenderView view, ReferenceOrbit orbit) {
+        double[] refR = orbit.mZr;
+        double[] refI = orbit.mZi;
+
+        double radius = view.viewRadius();
+        double r2 = radius * radius;
+        double r3 = r2 * radius;
+
+        // coefficients of every iteration considered, 6 to an iteration
+        int last = Math.min(orbit.mLength, view.mEscapeLimit) - 1;
+        double[] series = new double[(last + 1) * 6];
+        double ar = 1d, ai = 0d, br = 0d, bi = 0d, cr = 0d, ci = 0d;
+        double zr, zi, nar, nai, nbr, nbi, ncr;
+        int n;
+
+        series[0] = ar;
+
+        for (n = 0; n < last; n++) {
+            zr = refR[n];
+            zi = refI[n];
+
+            nar = 2d * (zr * ar - zi * ai) + 1d;
+            nai = 2d * (zr * ai + zi * ar);
+            nbr = 2d * (zr * br - zi * bi) + (ar * ar - ai * ai);
+            nbi = 2d * (zr * bi + zi * br) + 2d * ar * ai;
+            ncr = 2d * (zr * cr - zi * ci) + 2d * (ar * br - ai * bi);
+            ci = 2d * (zr * ci + zi * cr) + 2d * (ar * bi + ai * br);
+            cr = ncr;
+            ar = nar;
+            ai = nai;
+            br = nbr;
+            bi = nbi;
+
+            double a = Math.hypot(ar, ai) * radius;
+            double b = Math.hypot(br, bi) * r2;
+            double c = Math.hypot(cr, ci) * r3;
+
+            if (Double.isInfinite(a + b + c) || Double.isNaN(a + b + c)
+                    || c > TERM_TOLERANCE * b
+                    || Math.hypot(refR[n + 1], refI[n + 1]) + a + b + c >= 2d) {
+                break;
+            }
+
+            int k = (n + 1) * 6;
+            series[k] = ar;
+            series[k + 1] = ai;
+            series[k + 2] = br;
+            series[k + 3] = bi;
+            series[k + 4] = cr;
+            series[k + 5] = ci;
+        }
+
+        int skip = n;
+        double[] coefficients = new double[6];
+        while (skip > 0) {
+            System.arraycopy(series, skip * 6, coefficients, 0, 6);
+            SeriesApproximation candidate = new SeriesApproximation(skip, coefficients);
+            if (candidate.agreesWithProbes(view, orbit)) {
+                return candidate;
+            }
+            skip /= 2;
+        }
+        coefficients[0] = 1d;
+        return new SeriesApproximation(0, coefficients);
+    }
+
+    /**
+     * Evaluates dz at iteration mSkip for the pixel offset (dcr, dci), into result[0] and
+     * result[1].
+     */
+    void evaluate(double dcr, double dci, double[] result) {
+        double dc2r = dcr * dcr - dci * dci;
+        double dc2i = 2d * dcr * dci;
+        double dc3r = dc2r * dcr - dc2i * dci;
+        double dc3i = dc2r * dci + dc2i * dcr;
+
+        result[0] = (mAr * dcr - mAi * dci)
+                + (mBr * dc2r - mBi * dc2i)
+                + (mCr * dc3r - mCi * dc3i);
+        result[1] = (mAr * dci + mAi * dcr)
+                + (mBr * dc2i + mBi * dc2r)
+                + (mCr * dc3i + mCi * dc3r);
+    }
+
+    private boolean agreesWithProbes(RenderView view, ReferenceOrbit orbit) {
+        double[] approximated = new double[2];
+
+        for (int corner = 0; corner < 4; corner++) {
+            double du = (corner & 1) == 0 ? -1d : 1d;
+            double dv = (corner & 2) == 0 ? -1d : 1d;
+            double dcr = du * view.mVecA[0] + dv * view.mVecB[0];
+            double dci = du * view.mVecA[1] + dv * view.mVecB[1];
+
+            // the long way round
+            double dzr = dcr, dzi = dci, t;
+            for (int n = 0; n < mSkip; n++) {
+                double zr = orbit.mZr[n];
+                double zi = orbit.mZi[n];
+                t = 2d * (zr * dzr - zi * dzi) + (dzr * dzr - dzi * dzi) + dcr;
+                dzi = 2d * (zr * dzi + zi * dzr) + 2d * dzr * dzi + dci;
+                dzr = t;
+            }
+
+            evaluate(dcr, dci, approximated);
+            double error = Math.hypot(approximated[0] - dzr, approximated[1] - dzi);
+            if (!(error <= PROBE_TOLERANCE * Math.hypot(dzr, dzi))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Renders views far larger than memory to an ImageEncoder, a horizontal strip of rows at a time.
+ * Each strip is rendered by a CpuRenderer as a view of its own (RenderView.strip()), coloured
+ * from the gradient and handed to the encoder before the next is started, so the memory an
+ * export takes depends on the width of the view and the height of a strip, never on the height
+ * of the view.
+ * <p>
+ * Strips are STRIP_PIXELS pixels, or as near as whole rows make them, unless a height is set.
+ * That keeps the escape counts, orbits and colours of a strip to a few tens of megabytes at the
+ * most for any precision model.
+ * <p>
+ * Nothing is kept between strips: the renderer is best kept to exports, with incremental pans,
+ * zoom reuse and the tile cache left off, so that it holds one strip at a time. The counts of
+ * the strips can be kept in an IterationFile as well, to colour or export any part of the view
+ * again from later without computing it.
+ * <p>
+ * With a RenderCheckpoint set, an export that is stopped, or dies with the process, carries on
+ * from the last strip the checkpoint saved when the view is exported again: the strips before
+ * it are coloured from their counts on disk. Perturbation exports iterate one reference orbit,
+ * at the centre of the whole view, for every strip, which the checkpoint saves as it goes too.
+ */
+
+public final class StripExporter {
+
+    public static final int STRIP_PIXELS = 1 << 19;
+
+    private final CpuRenderer mRenderer;
+    // rows a strip, or 0 to fit STRIP_PIXELS
+    private int mStripHeight;
+    // where the counts of each strip are kept as well, if anywhere
+    private IterationFile mCountsFile;
+    private RenderCheckpoint mCheckpoint;
+    private volatile boolean mCancelled;
+    // rows of the last export read back from the checkpoint rather than computed
+    private int mRowsResumed;
+
+    public StripExporter(CpuRenderer renderer) {
+        mRenderer = renderer;
+    }
+
+    /**
+     * Sets how many rows a strip has; 0, the default, fits them to STRIP_PIXELS.
+     */
+    public void setStripHeight(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Strip height must not be negative: " + rows);
+        }
+        mStripHeight = rows;
+    }
+
+    public int getStripHeight() {
+        return mStripHeight;
+    }
+
+    /**
+     * Keeps the escape counts of every strip exported from now on in the file as well, which
+     * must have been created for the view being exported. Null, the default, keeps none.
+     */
+    public void setCountsFile(IterationFile file) {
+        mCountsFile = file;
+    }
+
+    public IterationFile getCountsFile() {
+        return mCountsFile;
+    }
+
+    /**
+     * Checkpoints every export from now on, resuming any the checkpoint holds progress of, in
+     * place of a counts file. Null, the default, starts every export from the top.
+     */
+    public void setCheckpoint(RenderCheckpoint checkpoint) {
+        mCheckpoint = checkpoint;
+    }
+
+    public RenderCheckpoint getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    /**
+     * Rows of the last export coloured from a checkpoint, without computing them.
+     */
+    public int getRowsResumed() {
+        return mRowsResumed;
+    }
+
+    /**
+     * Rows a strip of the view has.
+     */
+    int stripHeight(RenderView view) {
+        int rows = mStripHeight > 0 ? mStripHeight : Math.max(STRIP_PIXELS / view.mWidth, 1);
+        return Math.min(rows, view.mHeight);
+    }
+
+    /**
+     * Stops an export in progress, from any thread. The export throws InterruptedIOException
+     * once the strip being rendered is dropped.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mRenderer.cancel();
+    }
+
+    /**
+     * Renders the whole view to the encoder, coloured from the gradient as the shaders would
+     * colour it for the mapping, and finishes the image.
+     *
+     * @throws InterruptedIOException if the export was cancelled, leaving the image unfinished
+     * and any checkpoint saved.
+     */
+    public void export(RenderView view, Gradient gradient, ColourMapping mapping,
+                       ImageEncoder encoder) throws IOException {
+        mCancelled = false;
+        mRowsResumed = 0;
+        RenderCheckpoint checkpoint = mCheckpoint;
+        IterationFile counts = mCountsFile;
+        int rows = stripHeight(view);
+        int done = 0;
+        if (checkpoint != null) {
+            done = checkpoint.begin(view, rows);
+            counts = checkpoint.getCounts();
+        } else if (counts != null && !counts.getView().equals(view)) {
+            throw new IllegalArgumentException("Counts file is of another view");
+        }
+
+        try {
+            if (view.mPrecision == TexturedMandelbrot.PERTURBATION && done < view.mHeight) {
+                mRenderer.setReferenceOrbit(checkpoint != null
+                        ? checkpoint.referenceOrbit() : ReferenceOrbit.forView(view));
+            }
+            int[] table = mapping.colourTable(mapping.compile(gradient, view.mEscapeLimit),
+                    view.mEscapeLimit, ByteOrder.nativeOrder());
+            ByteBuffer strip = CpuRenderer.allocateFrame(view.strip(0, rows));
+
+            encoder.begin(view.mWidth, view.mHeight);
+            for (int top = 0; top < view.mHeight; top += rows) {
+                int height = Math.min(rows, view.mHeight - top);
+                IterationField field;
+                if (top + height <= done) {
+                    if (mCancelled) {
+                        throw new InterruptedIOException("Export cancelled at row " + top);
+                    }
+                    field = new IterationField(view.mWidth, height, view.mEscapeLimit);
+                    counts.read(0, top, field);
+                    mRowsResumed += height;
+                } else {
+                    field = mRenderer.compute(view.strip(top, height));
+                    if (mCancelled || !mRenderer.isComplete()) {
+                        throw new InterruptedIOException("Export cancelled at row " + top);
+                    }
+                    if (counts != null) {
+                        counts.write(0, top, field);
+                    }
+                    if (checkpoint != null) {
+                        checkpoint.stripDone(top + height);
+                    }
+                }
+                CpuRenderer.colour(field, table, strip);
+                encoder.writeRows(strip, height);
+            }
+            encoder.finish();
+        } finally {
+            mRenderer.setReferenceOrbit(null);
+            if (checkpoint != null) {
+                checkpoint.save();
+            }
+        }
+    }
+
+    /**
+     * Exports the pixels [x0, x0 + width) x [y0, y0 + height) of the counts in the file, coloured
+     * from the gradient for the mapping, without computing anything. Only the tiles under the
+     * region are read, a strip at a time.
+     *
+     * @throws IllegalStateException if a tile under the region has not been written.
+     */
+    public void export(IterationFile counts, int x0, int y0, int width, int height,
+                       Gradient gradient, ColourMapping mapping, ImageEncoder encoder)
+            throws IOException {
+        mCancelled = false;
+        int limit = counts.getView().mEscapeLimit;
+        int[] table = mapping.colourTable(mapping.compile(gradient, limit), limit,
+                ByteOrder.nativeOrder());
+        int rows = Math.min(mStripHeight > 0 ? mStripHeight : Math.max(STRIP_PIXELS / width, 1),
+                height);
+        IterationField field = new IterationField(width, rows, limit);
+        ByteBuffer strip = ByteBuffer.allocateDirect(width * rows * CpuRenderer.BYTES_PER_PIXEL);
+        strip.order(ByteOrder.nativeOrder());
+
+        encoder.begin(width, height);
+        for (int top = 0; top < height; top += rows) {
+            if (mCancelled) {
+                throw new InterruptedIOException("Export cancelled at row " + top);
+            }
+            int count = Math.min(rows, height - top);
+            if (count < rows) {
+                field = new IterationField(width, count, limit);
+            }
+            counts.read(x0, y0 + top, field);
+            CpuRenderer.colour(field, table, strip);
+            encoder.writeRows(strip, count);
+        }
+        encoder.finish();
+    }
+}
@@ -10,6 +10,11 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -19,8 +24,14 @@ public class TexturedMandelbrot {
 
     static public final int F32 = 0;
     static public final int EMULATED_DOUBLE = 1;
+    static public final int PERTURBATION = 2; // rendered on the cpu, see PerturbationKernel
+    static public final int DOUBLE_DOUBLE = 3; // rendered on the cpu, see DoubleDoubleKernel
+    static public final int QUAD_DOUBLE = 4; // rendered on the cpu, see QuadDoubleKernel
+    static public final int FIXED_64 = 5; // rendered on the cpu, see Fixed64Kernel
+    static public final int FIXED_128 = 6; // rendered on the cpu, see Fixed128Kernel
+    static public final int F64 = 7; // rendered on the cpu, see F64Kernel
     
-    static final int PRECISION_MODEL_COUNT = 2;
+    static final int PRECISION_MODEL_COUNT = 8;
     
     static final String VERTEX_SHADER_CODE =
             "uniform mat4 u_mvpMatrix;" +       // model/view/projection matrix
@@ -33,6 +44,18 @@ public class TexturedMandelbrot {
                     "  v_texCoord = a_texCoord;" +
                     "}";
 
+    // position along the palette of escape count i, by the transfer function of ColourMapping
+    static final String COLOUR_INDEX_CODE =
+            "  if(i == u_iter) {" +
+                    "    textureIndex.x = u_transfer.w;" +
+                    "  } else if(u_transfer.x < 0.5) {" +
+                    "    textureIndex.x = float(i) / float(u_iter);" +
+                    "  } else if(u_transfer.x < 1.5) {" +
+                    "    textureIndex.x = log(float(i) + 1.0) / log(float(u_iter) + 1.0);" +
+                    "  } else {" +
+                    "    textureIndex.x = fract((float(i) + u_transfer.z) / u_transfer.y);" +
+                    "  }";
+
     static final String F32_FRAGMENT_SHADER_CODE =
             "precision mediump float;" +
                     "uniform sampler2D u_texture;" + // interpolated gradient in 1 high 2D texture
@@ -41,6 +64,7 @@ public class TexturedMandelbrot {
                     "uniform vec2 u_vecA;"+
                     "uniform vec2 u_vecB;"+
                     "uniform int u_iter;" +            // escape limit
+                    "uniform vec4 u_transfer;" +       // see ColourMapping.uniforms()
 
                     "void main() {" +
                     "  vec2 z, c, textureIndex;" +
@@ -48,13 +72,21 @@ public class TexturedMandelbrot {
                     "c = u_cp - u_vecA - u_vecB + (2.0 * (v_texCoord.x * u_vecA + v_texCoord.y * u_vecB));"+
 
                     "  int i;" +
-                    "  z = c;" +
-                    "  for(i = 0; i < u_iter; i++) {" +
-                    "    if((z.x * z.x + z.y * z.y) > 4.0) break;" +
-                    "    z = (vec2(z.x * z.x - z.y * z.y, 2.0 * z.y * z.x) + c);" +
+                    // main cardioid and period 2 bulb, see InteriorChecks
+                    "  float qx = c.x - 0.25;" +
+                    "  float q = qx * qx + c.y * c.y;" +
+                    "  if(q * (q + qx) < 0.25 * (c.y * c.y) - 1e-5" +
+                    "      || (c.x + 1.0) * (c.x + 1.0) + c.y * c.y < 0.0625 - 1e-5) {" +
+                    "    i = u_iter;" +
+                    "  } else {" +
+                    "    z = c;" +
+                    "    for(i = 0; i < u_iter; i++) {" +
+                    "      if((z.x * z.x + z.y * z.y) > 4.0) break;" +
+                    "      z = (vec2(z.x * z.x - z.y * z.y, 2.0 * z.y * z.x) + c);" +
+                    "    }" +
                     "  }" +
 
-                    "  textureIndex.x = i == u_iter ? 1.0 - 1.0 / float(u_iter) : float(i) / float(u_iter);"+
+                    COLOUR_INDEX_CODE +
                     "  textureIndex.y = 0.0;"+
                     "  gl_FragColor = texture2D(u_texture, textureIndex);" +
                     "}";
@@ -67,6 +99,7 @@ public class TexturedMandelbrot {
                     "uniform vec4 u_vecA;"+
                     "uniform vec4 u_vecB;"+
                     "uniform int u_iter;" +            // escape limit
+                    "uniform vec4 u_transfer;" +       // see ColourMapping.uniforms()
 
                     "bool ds_greater_than(vec2 dsA, vec2 dsB);" +
                     "vec2 ds_set(float a);" +
@@ -80,15 +113,23 @@ public class TexturedMandelbrot {
                     "  c.xy = ds_add(ds_add(ds_add(u_cp.xy, -u_vecA.xy), -u_vecB.xy), ds_mul(ds_set(2.0), ds_add(ds_mul(ds_set(v_texCoord.x), u_vecA.xy), ds_mul(ds_set(v_texCoord.y), u_vecB.xy))));" +
                     "  c.zw = ds_add(ds_add(ds_add(u_cp.zw, -u_vecA.zw), -u_vecB.zw), ds_mul(ds_set(2.0), ds_add(ds_mul(ds_set(v_texCoord.x), u_vecA.zw), ds_mul(ds_set(v_texCoord.y), u_vecB.zw))));" +
                     "  int i = 1;" +
-                    "  z = c;" +
-                    "  for(i = 0; i < u_iter; i++) {" +
-                    "    if(ds_greater_than(ds_add(ds_mul(z.xy, z.xy), ds_mul(z.zw, z.zw)), ds_set(4.0))) break;" +
-                    "    z = vec4(ds_add(ds_mul(z.xy, z.xy), -ds_mul(z.zw, z.zw))," +
-                    "             ds_mul(ds_mul(ds_set(2.0), z.xy), z.zw)) " +
-                    "        + c;" +
+                    // main cardioid and period 2 bulb, from the high parts of c
+                    "  float qx = c.x - 0.25;" +
+                    "  float q = qx * qx + c.z * c.z;" +
+                    "  if(q * (q + qx) < 0.25 * (c.z * c.z) - 1e-5" +
+                    "      || (c.x + 1.0) * (c.x + 1.0) + c.z * c.z < 0.0625 - 1e-5) {" +
+                    "    i = u_iter;" +
+                    "  } else {" +
+                    "    z = c;" +
+                    "    for(i = 0; i < u_iter; i++) {" +
+                    "      if(ds_greater_than(ds_add(ds_mul(z.xy, z.xy), ds_mul(z.zw, z.zw)), ds_set(4.0))) break;" +
+                    "      z = vec4(ds_add(ds_mul(z.xy, z.xy), -ds_mul(z.zw, z.zw))," +
+                    "               ds_mul(ds_mul(ds_set(2.0), z.xy), z.zw)) " +
+                    "          + c;" +
+                    "    }" +
                     "  }" +
 
-                    "  textureIndex.x = i == u_iter ? 1.0 - 1.0 / float(u_iter) : float(i) / float(u_iter);"+
+                    COLOUR_INDEX_CODE +
                     "  textureIndex.y = 0.0;"+
                     "  gl_FragColor = texture2D(u_texture, textureIndex);" +
                     "}" +
@@ -146,9 +187,20 @@ public class TexturedMandelbrot {
                     "  return dsC;" +
                     "}";
 
+    // shows a frame that has already been rendered by CpuRenderer
+    static final String CPU_FRAME_FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+                    "uniform sampler2D u_texture;" + // rendered frame, top row first
+                    "varying vec2 v_texCoord;" +     // vertex coord, proportion
+
+                    "void main() {" +
+                    "  gl_FragColor = texture2D(u_texture, v_texCoord);" +
+                    "}";
+
     static String[] FRAGMENT_SHADER_LIST = new String[] {
             F32_FRAGMENT_SHADER_CODE,
-            EMULATED_DOUBLE_FRAGMENT_SHADER_CODE};
+            EMULATED_DOUBLE_FRAGMENT_SHADER_CODE,
+            CPU_FRAME_FRAGMENT_SHADER_CODE};
     
     /**
      * Model/view matrix for this object.  Updated by setPosition() and setScale().  This
@@ -194,16 +246,42 @@ public class TexturedMandelbrot {
     private static int sPositionHandle = -1;
     private static int sMVPMatrixHandle = -1;
     private static int sIterUniformHandle = -1;
+    private static int sTransferUniformHandle = -1;
     private static int sVecAUniformHandle = -1;
     private static int sVecBUniformHandle = -1;
     private static int sCentrePointHandle = -1;
     private static int[] sProgramHandles = new int[PRECISION_MODEL_COUNT];
+    private static boolean sProgramStale;
+    // slot of sProgramHandles holding the program last built, while sProgramStale
+    private static int sStaleProgram;
     
     // Texture data for this instance.
     private int mTextureDataHandle = -1;
     private int mTextureWidth = -1;
     private int mTextureHeight = 1;
     private FloatBuffer mTexBuffer;
+    // gradient texture data, kept for the next upload, and the version of the palette in it
+    private ByteBuffer mPaletteBuffer;
+    private int mPaletteVersion;
+
+    // Frame data for precision models rendered on the cpu.
+    // volatile so that the UI thread can cancel a frame the GL thread is rendering
+    private static volatile CpuRenderer sCpuRenderer;
+    // tiles of cpu frames, kept across views so that returning to one does not compute it again
+    private static final TileCache sTileCache = new TileCache(TileCache.DEFAULT_BUDGET_BYTES);
+    private int mFrameTextureHandle = -1;
+    private ByteBuffer mFrameBuffer;
+    // view whose escape counts the cpu renderer holds, so a frame of it only needs colouring
+    private RenderView mFrameView;
+    // whether the cpu renderer has finished refining mFrameView
+    private boolean mFrameComplete;
+    private int mFramePaletteVersion;
+    private ColourMapping mFrameMapping;
+    private int mSurfaceWidth = -1;
+    private int mSurfaceHeight = -1;
+    // surface pixel cpu frames are rendered outward from; NaN for the centre
+    private float mFocusX = Float.NaN;
+    private float mFocusY = Float.NaN;
 
     // Sanity check on draw prep.
     private static boolean sDrawPrepared;
@@ -217,20 +295,39 @@ public class TexturedMandelbrot {
     public static final int VERTEX_COUNT = COORDS.length / COORDS_PER_VERTEX;
 
     private Gradient mGradient;
+    private ColourMapping mColourMapping = ColourMapping.ESCAPE_LIMIT;
     private int mEscapeLimit;
     private static int sPrecision;
+    private static boolean sAutomaticPrecision;
+    private static boolean sSubdivision = true;
+    private static boolean sIncrementalPan = true;
+    // part of a pixel moved but not yet applied, while pans are snapped to whole pixels
+    private static double[] sPanRemainder = new double[2];
+    private static boolean sZoomSnapping = true;
+    // log2 of the zoom asked for but not yet applied, while zooms are snapped to powers of two
+    private static double sZoomRemainder;
+    // whether the view has turned since the last zoom, which then has no pixels to line up with
+    private static boolean sRotated;
+    private static boolean sProgressive = true;
 
     private static double[] sVecA = new double[2]; // parallel with screen x axis
     private static double[] sVecB = new double[2]; // parallel with screen y axis
     private static double[] sCentrePoint = new double[2];
+    // sCentrePoint rounded from this; doubles run out of digits for the centre long before the
+    // cpu precision models run out of depth
+    private static BigDecimal[] sCentreExact = new BigDecimal[] {BigDecimal.ZERO, BigDecimal.ZERO};
 
 
     private static float[] sTempMVP = new float[16];
+    private static float[] sTempUniform = new float[4];
 
     //format and internal format for sending data to opengl target
     private static final int DATA_FORMAT = GLES20.GL_RGBA;
     //R,G,B,A values each held in 1 byte values 00-ff
     private static final int BYTES_PER_PIXEL = 4;
+    // time a progressively rendered cpu frame may take, which keeps gestures near 30 frames a
+    // second
+    static final long PROGRESSIVE_BUDGET_NANOS = 25000000L;
 
     //bounds are calculated to match pixel ratio
     //todo overload constructor
@@ -258,9 +355,11 @@ public class TexturedMandelbrot {
         sVecA = vecA;
         sVecB = vecB;
         sCentrePoint = centrePoint;
+        sCentreExact = new BigDecimal[] {
+                new BigDecimal(centrePoint[0]),
+                new BigDecimal(centrePoint[1])};
 
         mEscapeLimit = escapeLimit;
-        mTextureWidth = escapeLimit;
     }
 
     // TODO: 5/02/2017 parameter setter methods -cp -veca -vecb, necessary for what? this vs new mandelbrot instance
@@ -275,34 +374,262 @@ public class TexturedMandelbrot {
         return sPrecision;
     }
 
-    private float getMagnitude(double [] vector) {
-        return (float) Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1]);
+    /**
+     * Changes precision model. Takes effect on the next prepareToDraw(), which rebuilds the GL
+     * program on the renderer thread.
+     */
+    public void setPrecision(int precision) {
+        if (precision < 0 || precision >= PRECISION_MODEL_COUNT) {
+            throw new IllegalArgumentException("Unknown precision model " + precision);
+        }
+        // every CPU model draws through the same program, so moving between them rebuilds nothing
+        if (programSlot(precision) != programSlot(sPrecision)) {
+            // only the program last built is live; models set since have built nothing
+            if (!sProgramStale) {
+                sStaleProgram = programSlot(sPrecision);
+                sProgramStale = true;
+            }
+        }
+        sPrecision = precision;
+    }
+
+    /**
+     * With automatic precision on, choosePrecision() picks the cheapest precision model able to
+     * resolve the current view before each frame, and CPU rendered frames choose again per tile.
+     * Setting a precision model explicitly does not turn it off.
+     */
+    public void setAutomaticPrecision(boolean automatic) {
+        sAutomaticPrecision = automatic;
+    }
+
+    public boolean isAutomaticPrecision() {
+        return sAutomaticPrecision;
+    }
+
+    /**
+     * Switches CPU rendered frames between Mariani-Silver subdivision, the default, and computing
+     * every pixel.
+     */
+    public void setSubdivision(boolean subdivision) {
+        sSubdivision = subdivision;
+    }
+
+    public boolean isSubdivision() {
+        return sSubdivision;
+    }
+
+    /**
+     * With incremental pan on, the default, moves of CPU rendered views are snapped to whole
+     * pixels, carrying the rest forward to the next move, so that CpuRenderer can keep the part
+     * of the frame still in view and compute only what a move brings into it.
+     */
+    public void setIncrementalPan(boolean incrementalPan) {
+        sIncrementalPan = incrementalPan;
+        sPanRemainder[0] = 0d;
+        sPanRemainder[1] = 0d;
+    }
+
+    public boolean isIncrementalPan() {
+        return sIncrementalPan;
+    }
+
+    /**
+     * With zoom snapping on, the default, zoom() changes the scale of CPU rendered views by
+     * powers of two only, carrying the rest forward, and nudges the centre by a fraction of a
+     * pixel so that pixel centres of the new view fall on those of the old. CpuRenderer then keeps
+     * the escape counts of those pixels.
+     */
+    public void setZoomSnapping(boolean zoomSnapping) {
+        sZoomSnapping = zoomSnapping;
+        sZoomRemainder = 0d;
+    }
+
+    public boolean isZoomSnapping() {
+        return sZoomSnapping;
+    }
+
+    /**
+     * With progressive rendering on, the default, CPU rendered frames take not much more than
+     * PROGRESSIVE_BUDGET_NANOS each: a new view is drawn coarsely first, and each frame after it
+     * refines the same view further until isFrameComplete().
+     */
+    public void setProgressive(boolean progressive) {
+        sProgressive = progressive;
+        mFrameView = null;
+    }
+
+    public boolean isProgressive() {
+        return sProgressive;
+    }
+
+    /**
+     * Whether the last frame drawn is final, or a CPU rendered frame still to be refined by
+     * drawing again.
+     */
+    public boolean isFrameComplete() {
+        return !isCpuModel(sPrecision) || mFrameView == null || mFrameComplete;
+    }
+
+    /**
+     * Has CPU rendered frames complete outward from the given surface pixel, the point the user
+     * is touching, rather than from the centre. NaN returns to the centre.
+     */
+    public void setFocus(float x, float y) {
+        mFocusX = x;
+        mFocusY = y;
+    }
+
+    /**
+     * Drops whatever is left of the CPU frame being rendered, if there is one. Safe to call from
+     * any thread, so that input arriving on the UI thread can cut short a slow frame of a view it
+     * is about to change; the frame is left incomplete and drawn again afterwards.
+     */
+    public static void cancelCpuFrame() {
+        CpuRenderer renderer = sCpuRenderer;
+        if (renderer != null) {
+            renderer.cancel();
+        }
+    }
+
+    /**
+     * Escape counts of CPU rendered tiles kept across views. Its budget may be changed, or the
+     * cache cleared, at any time.
+     */
+    public static TileCache getTileCache() {
+        return sTileCache;
+    }
+
+    /**
+     * Whether zooms of the current view are being snapped, in which case rotating it would stop
+     * the renderer reusing anything.
+     */
+    public boolean isZoomSnapped() {
+        return sZoomSnapping && isCpuModel(sPrecision) && mSurfaceWidth > 0 && mSurfaceHeight > 0;
+    }
+
+    /**
+     * Applies automatic precision to the current view, if it is on. Call before prepareToDraw(),
+     * which then builds the program for the model chosen.
+     */
+    public void choosePrecision() {
+        if (!sAutomaticPrecision || mSurfaceWidth <= 0 || mSurfaceHeight <= 0) return;
+
+        int precision = PrecisionSelector.forFrame(getRenderView(mSurfaceWidth, mSurfaceHeight));
+        if (precision != sPrecision) {
+            Log.d(TAG, "precision model " + sPrecision + " -> " + precision);
+            setPrecision(precision);
+        }
+    }
+
+    // precision models whose escape loop has no shader, and which draw a frame from CpuRenderer
+    static boolean isCpuModel(int precision) {
+        return precision >= PERTURBATION;
+    }
+
+    // every cpu model draws its frame texture with the same program, built from the PERTURBATION
+    // shader and kept in that model's slot of sProgramHandles
+    private static int programSlot(int precision) {
+        return isCpuModel(precision) ? PERTURBATION : precision;
+    }
+
+    private static String fragmentShaderCode(int precision) {
+        return FRAGMENT_SHADER_LIST[programSlot(precision)];
+    }
+
+    // the program of the current model
+    private static int program() {
+        return sProgramHandles[programSlot(sPrecision)];
+    }
+
+    /**
+     * Size in pixels of the surface drawn to, which CPU rendered frames are sized to match.
+     */
+    public void setSurfaceSize(int width, int height) {
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        // a new surface may come with a new GL context, in which the old handle means nothing
+        mFrameTextureHandle = -1;
+        mFrameBuffer = null;
+        mFrameView = null;
+    }
+
+    public Gradient getGradient() {
+        return mGradient;
+    }
+
+    /**
+     * Changes how escape counts are mapped onto the gradient. Mappings with a fixed palette size
+     * keep the gradient texture through changes of escape limit, and mappings differing only in
+     * offset share it.
+     */
+    public void setColourMapping(ColourMapping mapping) {
+        mColourMapping = mapping;
+    }
+
+    public ColourMapping getColourMapping() {
+        return mColourMapping;
+    }
+
+    /**
+     * Renders the current view as a width x height PNG on the calling thread, a strip at a time,
+     * so that images far larger than memory can be exported. Takes as long as the view needs at
+     * that size, in a model precise enough for it; StripExporter can be used directly to cancel
+     * an export part way.
+     */
+    public void exportPng(int width, int height, OutputStream out) throws IOException {
+        CpuRenderer renderer = new CpuRenderer();
+        ParallelPngEncoder encoder = new ParallelPngEncoder(out);
+        try {
+            RenderView view = getRenderView(width, height);
+            // the model on screen was picked for the surface's far coarser pixels
+            view = view.withPrecision(PrecisionSelector.forExport(view));
+            new StripExporter(renderer).export(view, mGradient, mColourMapping, encoder);
+        } finally {
+            renderer.shutdown();
+            encoder.shutdown();
+        }
+    }
+
+    /**
+     * Captures the current view, as the shaders would see it on a surface of the given size, for
+     * rendering on the CPU.
+     */
+    public RenderView getRenderView(int width, int height) {
+        return new RenderView(sCentreExact, sVecA, sVecB, width, height, mEscapeLimit, sPrecision);
+    }
+
+    // kept in double; a float has no exponent left for a view narrower than about 1e-38
+    private double getMagnitude(double [] vector) {
+        return Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1]);
     }
 
 
-    public float getWidth() {
+    public double getWidth() {
         return getMagnitude(sVecA);
     }
 
-    public float getHeight() {
+    public double getHeight() {
         return getMagnitude(sVecB);
     }
 
+    /**
+     * Changes the escape limit. The gradient texture is only sampled and uploaded again if the
+     * colour mapping has a colour per iteration.
+     */
     public void setLimit(int limit){
         mEscapeLimit = limit;
-        mTextureWidth = limit;
     }
 
     //changes the vector lengths to a desired ratio, ensuring
     public void setRatio(float viewRatio) {
-        float magA, magB, vectorRatio;
+        double magA, magB, vectorRatio;
 
         magA = getMagnitude(sVecA);
         magB = getMagnitude(sVecB);
 
         vectorRatio = magB / magA;
 
-        if(vectorRatio >= 1f) {
+        if(vectorRatio >= 1d) {
             if(viewRatio >= 1f) {
                 setHeight(magB * viewRatio/vectorRatio);
             } else {
@@ -322,11 +649,10 @@ public class TexturedMandelbrot {
 
     }
 
-    private double [] setVectorLength(double[] v, float l) {
-        double length = (double) l;
+    private double [] setVectorLength(double[] v, double l) {
         double [] result = new double[2];
 
-        if(l == 0f) {
+        if(l == 0d) {
             return result;
         }
 
@@ -339,11 +665,11 @@ public class TexturedMandelbrot {
         return result;
     }
 
-    public void setWidth(float w){
+    public void setWidth(double w){
         sVecA = setVectorLength(sVecA, w);
     }
 
-    public void setHeight(float h){
+    public void setHeight(double h){
         sVecB = setVectorLength(sVecB, h);
     }
 
@@ -357,20 +683,145 @@ public class TexturedMandelbrot {
         return this;
     }
 
+    /**
+     * The factor zoom(proportion) would scale the view vectors by: the proportion itself, or with
+     * zoom snapping the power of two nearest the zooms not yet applied, which is 1 until they
+     * come to a whole step.
+     */
+    public float zoomFactor(float proportion) {
+        if (!isZoomSnapped()) return proportion;
+        int steps = (int) Math.rint(sZoomRemainder + Math.log(proportion) / Math.log(2d));
+        return (float) Math.scalb(1d, steps);
+    }
+
+    /**
+     * Scales both view vectors by the proportion, snapped to a power of two if zoom snapping
+     * applies to the view. Snapped zooms line the new pixel grid up with the old one, unless the
+     * view has been rotated since the last zoom, as a rotated view shares no pixels with the
+     * last frame anyway.
+     */
+    public TexturedMandelbrot zoom(float proportion) {
+        boolean rotated = sRotated;
+        sRotated = false;
+        if (!isZoomSnapped()) {
+            return scaleWidth(proportion).scaleHeight(proportion);
+        }
+
+        sZoomRemainder += Math.log(proportion) / Math.log(2d);
+        int steps = (int) Math.rint(sZoomRemainder);
+        if (steps == 0) return this;
+        sZoomRemainder -= steps;
+        double scale = Math.scalb(1d, steps);
+
+        if (rotated) {
+            // exact, as the scale is a power of two
+            sVecA = new double[] {sVecA[0] * scale, sVecA[1] * scale};
+            sVecB = new double[] {sVecB[0] * scale, sVecB[1] * scale};
+            return this;
+        }
+        if (sVecA[1] == 0d && sVecB[0] == 0d) {
+            // exact, as the scale is a power of two; the lattices of the two spacings nest, so
+            // aligning to the new one keeps the pixels the old view had on the old one
+            sVecA = new double[] {sVecA[0] * scale, 0d};
+            sVecB = new double[] {0d, sVecB[1] * scale};
+            alignToLattice();
+            return this;
+        }
+
+        // Pixel x of the new view lies at a + scale * x on the old grid, with
+        // a = (1 - scale) * (width - 1) / 2 for an unmoved centre. Moving the centre by u times
+        // vecA adds u * width / 2 to a, which is chosen to bring a onto the nearest position
+        // that puts some new pixel centres on old ones.
+        double u = gridNudge(scale, mSurfaceWidth);
+        double v = gridNudge(scale, mSurfaceHeight);
+        MathContext mc = centreContext();
+        sCentreExact[0] = sCentreExact[0].add(
+                new BigDecimal(u * sVecA[0] + v * sVecB[0]), mc);
+        sCentreExact[1] = sCentreExact[1].add(
+                new BigDecimal(u * sVecA[1] + v * sVecB[1]), mc);
+        sCentrePoint[0] = sCentreExact[0].doubleValue();
+        sCentrePoint[1] = sCentreExact[1].doubleValue();
+
+        // exact, as the scale is a power of two
+        sVecA = new double[] {sVecA[0] * scale, sVecA[1] * scale};
+        sVecB = new double[] {sVecB[0] * scale, sVecB[1] * scale};
+        return this;
+    }
+
+    // centre movement, in units of the half-extent vector, aligning grids across a zoom
+    private static double gridNudge(double scale, int pixels) {
+        // zooming in puts new pixels half way between old ones, zooming out skips old ones
+        double step = scale < 1d ? scale : 1d;
+        double a = (1d - scale) * (pixels - 1) / 2d;
+        return (Math.rint(a / step) * step - a) * 2d / pixels;
+    }
+
     public TexturedMandelbrot move(float [] normalizedOffset) {
+        double u = normalizedOffset[0];
+        double v = normalizedOffset[1];
+
+        if (sIncrementalPan && isCpuModel(sPrecision) && mSurfaceWidth > 0 && mSurfaceHeight > 0) {
+            double x = u * mSurfaceWidth + sPanRemainder[0];
+            double y = v * mSurfaceHeight + sPanRemainder[1];
+            sPanRemainder[0] = x - Math.rint(x);
+            sPanRemainder[1] = y - Math.rint(y);
+            u = Math.rint(x) / mSurfaceWidth;
+            v = Math.rint(y) / mSurfaceHeight;
+        }
 
-        double [] xVector = Util.scaleVector(sVecA,  2f * normalizedOffset[0]);
-        double [] yVector = Util.scaleVector(sVecB,  2f * normalizedOffset[1]);
+        // in double throughout, so a whole number of pixels stays one to well within a pixel
+        double dr = 2d * (u * sVecA[0] + v * sVecB[0]);
+        double di = 2d * (u * sVecA[1] + v * sVecB[1]);
 
-        sCentrePoint[0] -= xVector[0] + yVector[0];
-        sCentrePoint[1] -= xVector[1] + yVector[1];
+        MathContext mc = centreContext();
+        sCentreExact[0] = sCentreExact[0].subtract(new BigDecimal(dr), mc);
+        sCentreExact[1] = sCentreExact[1].subtract(new BigDecimal(di), mc);
+
+        sCentrePoint[0] = sCentreExact[0].doubleValue();
+        sCentrePoint[1] = sCentreExact[1].doubleValue();
+
+        if (sIncrementalPan && sZoomSnapping && isCpuModel(sPrecision)
+                && mSurfaceWidth > 0 && mSurfaceHeight > 0) {
+            alignToLattice();
+        }
         return this;
     }
 
+    // Moves the centre by under a pixel so that the pixel centres of an axis aligned view lie on
+    // the lattice TileCache addresses tiles by. Once aligned, whole pixel pans and power of two
+    // zooms keep the view there, so this only moves the centre the first time.
+    private void alignToLattice() {
+        BigDecimal[] index = getRenderView(mSurfaceWidth, mSurfaceHeight).latticeIndex();
+        if (index == null) return;
+
+        double[] spacing = {2d * sVecA[0] / mSurfaceWidth, 2d * sVecB[1] / mSurfaceHeight};
+        MathContext mc = centreContext();
+        for (int k = 0; k < 2; k++) {
+            double fraction = index[k].subtract(
+                    index[k].setScale(0, RoundingMode.HALF_EVEN)).doubleValue();
+            sCentreExact[k] = sCentreExact[k].subtract(
+                    new BigDecimal(fraction * spacing[k]), mc);
+        }
+        sCentrePoint[0] = sCentreExact[0].doubleValue();
+        sCentrePoint[1] = sCentreExact[1].doubleValue();
+    }
+
+    // enough digits to place the centre within a small fraction of the narrowest view side
+    private MathContext centreContext() {
+        double extent = Math.min(getWidth(), getHeight());
+        int digits = extent > 0d ? (int) Math.ceil(-Math.log10(extent)) : 0;
+        return new MathContext(Math.max(digits, 0) + ReferenceOrbit.GUARD_DIGITS + 6,
+                RoundingMode.HALF_EVEN);
+    }
+
     // Takes an angular offset in radians
     public TexturedMandelbrot rotate(float r) {
         double x, y;
 
+        if (r != 0f) {
+            sRotated = true;
+        }
+
         x = sVecA[0];
         y = sVecA[1];
 
@@ -393,22 +844,35 @@ public class TexturedMandelbrot {
         mTextureHeight = height;
     }
 
-    private ByteBuffer generateTexture() {
-
-        byte[] buffer = new byte[mTextureWidth * mTextureHeight * BYTES_PER_PIXEL];
-
-        int[] gradientArray = mGradient.makeGradient(mEscapeLimit);
+    // writes the palette into the reusable upload buffer, growing it only when it is too small
+    private ByteBuffer paletteBuffer(Palette palette) {
+        int bytes = palette.size() * BYTES_PER_PIXEL;
+        if (mPaletteBuffer == null || mPaletteBuffer.capacity() < bytes) {
+            mPaletteBuffer = ByteBuffer.allocateDirect(bytes);
+            mPaletteBuffer.order(ByteOrder.nativeOrder());
+        }
+        palette.writeTo(mPaletteBuffer);
+        return mPaletteBuffer;
+    }
 
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(buffer.length);
+    /**
+     * Uploads the gradient texture again if the gradient or the escape limit has changed since
+     * it was last uploaded. Unchanged, this costs a comparison of the gradient's colours.
+     */
+    private void updatePalette() {
+        if (mTextureDataHandle == -1) return;
 
-        for(int i = 0; i < gradientArray.length; i++) {
+        Palette palette = mColourMapping.compile(mGradient, mEscapeLimit);
+        if (palette.getVersion() == mPaletteVersion) return;
 
-            buffer[i] = (byte) gradientArray[i];
+        if (palette.size() == mTextureWidth) {
+            Util.updateImageTexture(mTextureDataHandle, paletteBuffer(palette),
+                    mTextureWidth, mTextureHeight, DATA_FORMAT);
+        } else {
+            GLES20.glDeleteTextures(1, new int[] {mTextureDataHandle}, 0);
+            setTexture(paletteBuffer(palette), palette.size(), 1, DATA_FORMAT);
         }
-
-        byteBuffer.put(buffer).position(0);
-
-        return byteBuffer;
+        mPaletteVersion = palette.getVersion();
     }
 
 
@@ -418,42 +882,47 @@ public class TexturedMandelbrot {
 
     // todo look at the order of location getters below, is this required or preferential
     public static void createProgram() {
-        sProgramHandles[sPrecision]= Util.createProgram(VERTEX_SHADER_CODE,
-                FRAGMENT_SHADER_LIST[sPrecision]);
-        Log.d(TAG, "Created program " + sProgramHandles[sPrecision]);
+        sProgramHandles[programSlot(sPrecision)] = Util.createProgram(VERTEX_SHADER_CODE,
+                fragmentShaderCode(sPrecision));
+        Log.d(TAG, "Created program " + program());
+        sProgramStale = false;
 
         // Get handle to vertex shader's a_position member.
-        sPositionHandle = GLES20.glGetAttribLocation(sProgramHandles[sPrecision], "a_position");
+        sPositionHandle = GLES20.glGetAttribLocation(program(), "a_position");
         Util.checkGlError("glGetAttribLocation");
 
         // Get handle to vertex shader's a_texCoord member.
-        sTexCoordHandle = GLES20.glGetAttribLocation(sProgramHandles[sPrecision], "a_texCoord");
+        sTexCoordHandle = GLES20.glGetAttribLocation(program(), "a_texCoord");
         Log.d(TAG, "texCoordHandle" + sTexCoordHandle);
         Util.checkGlError("glGetAttribLocation");
 
         // Get handle to transformation matrix.
-        sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_mvpMatrix");
+        sMVPMatrixHandle = GLES20.glGetUniformLocation(program(), "u_mvpMatrix");
         Util.checkGlError("glGetUniformLocation");
 
         // Get handle to texture reference.
-        int textureUniformHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_texture");
+        int textureUniformHandle = GLES20.glGetUniformLocation(program(), "u_texture");
+        Util.checkGlError("glGetUniformLocation");
+
+        sVecAUniformHandle = GLES20.glGetUniformLocation(program(), "u_vecA");
         Util.checkGlError("glGetUniformLocation");
 
-        sVecAUniformHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_vecA");
+        sVecBUniformHandle = GLES20.glGetUniformLocation(program(), "u_vecB");
         Util.checkGlError("glGetUniformLocation");
 
-        sVecBUniformHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_vecB");
+        sCentrePointHandle = GLES20.glGetUniformLocation(program(), "u_cp");
         Util.checkGlError("glGetUniformLocation");
 
-        sCentrePointHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_cp");
+        sIterUniformHandle = GLES20.glGetUniformLocation(program(), "u_iter");
         Util.checkGlError("glGetUniformLocation");
 
-        sIterUniformHandle = GLES20.glGetUniformLocation(sProgramHandles[sPrecision], "u_iter");
+        sTransferUniformHandle = GLES20.glGetUniformLocation(program(),
+                "u_transfer");
         Util.checkGlError("glGetUniformLocation");
 
         // Set u_texture to reference texture unit 0.  (We don't change the value, so we can just
         // set it here.)
-        GLES20.glUseProgram(sProgramHandles[sPrecision]);
+        GLES20.glUseProgram(program());
         GLES20.glUniform1i(textureUniformHandle, 0);
         Util.checkGlError("glUniform1i");
         GLES20.glUseProgram(0);
@@ -476,13 +945,23 @@ public class TexturedMandelbrot {
     }
 
     public void allocTexturedMandelbrot(){
-        setTexture(generateTexture(), mTextureWidth, mTextureHeight, DATA_FORMAT);
+        Palette palette = mColourMapping.compile(mGradient, mEscapeLimit);
+        setTexture(paletteBuffer(palette), palette.size(), 1, DATA_FORMAT);
+        mPaletteVersion = palette.getVersion();
     }
 
 
     public static void prepareToDraw(){
+        if (sProgramStale) {
+            // precision has changed since the program was built; deleting 0 is silently ignored,
+            // and the slot is cleared so that its name, which GL may reuse, is never deleted twice
+            GLES20.glDeleteProgram(sProgramHandles[sStaleProgram]);
+            sProgramHandles[sStaleProgram] = 0;
+            createProgram();
+        }
+
         // Select our program.
-        GLES20.glUseProgram(sProgramHandles[sPrecision]);
+        GLES20.glUseProgram(program());
         Util.checkGlError("glUseProgram");
 
         // Enable the "a_position" vertex attribute.
@@ -536,22 +1015,30 @@ public class TexturedMandelbrot {
         GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
 //        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniformMatrix4fv");
 
+        if (!isCpuModel(sPrecision)) {
+            updatePalette();
+            mColourMapping.uniforms(sTempUniform, mTextureWidth);
+            GLES20.glUniform4fv(sTransferUniformHandle, 1, sTempUniform, 0);
+        }
+
         switch(sPrecision){
             case F32:
-                GLES20.glUniform2fv(sVecAUniformHandle, 1, FloatBuffer.wrap(vecToF32(sVecA)));
+                GLES20.glUniform2fv(sVecAUniformHandle, 1, vecToF32(sVecA), 0);
 
-                GLES20.glUniform2fv(sVecBUniformHandle, 1, FloatBuffer.wrap(vecToF32(sVecB)));
+                GLES20.glUniform2fv(sVecBUniformHandle, 1, vecToF32(sVecB), 0);
 
-                GLES20.glUniform2fv(sCentrePointHandle, 1, FloatBuffer.wrap(vecToF32(sCentrePoint)));
+                GLES20.glUniform2fv(sCentrePointHandle, 1, vecToF32(sCentrePoint), 0);
                 break;
             case EMULATED_DOUBLE:
-                GLES20.glUniform4fv(sVecAUniformHandle, 1, FloatBuffer.wrap(vecToDs(sVecA)));
+                GLES20.glUniform4fv(sVecAUniformHandle, 1, vecToDs(sVecA), 0);
 
-                GLES20.glUniform4fv(sVecBUniformHandle, 1, FloatBuffer.wrap(vecToDs(sVecB)));
+                GLES20.glUniform4fv(sVecBUniformHandle, 1, vecToDs(sVecB), 0);
 
-                GLES20.glUniform4fv(sCentrePointHandle, 1, FloatBuffer.wrap(vecToDs(sCentrePoint)));
+                GLES20.glUniform4fv(sCentrePointHandle, 1, vecToDs(sCentrePoint), 0);
+                break;
+            default:
+                renderCpuFrame();
                 break;
-            
         }
         
         
@@ -566,7 +1053,8 @@ public class TexturedMandelbrot {
         // required in 2.0, and will actually raise a GL_INVALID_ENUM error.
 
         // Bind the texture data to the 2D texture target.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
+                isCpuModel(sPrecision) ? mFrameTextureHandle : mTextureDataHandle);
 //        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glBindTexture");
 
         // Draw the rect.
@@ -575,18 +1063,82 @@ public class TexturedMandelbrot {
     }
 
 
-    private float[] vecToF32(double[] vec) {
-        return new float[] {(float) vec[0], (float) vec[1]};
+    /**
+     * Renders the view on the cpu and uploads the result into the frame texture. When the view is
+     * the one last rendered, the escape counts are kept and only the colouring pass runs again,
+     * unless the frame is still being refined.
+     */
+    private void renderCpuFrame() {
+        if (mSurfaceWidth <= 0 || mSurfaceHeight <= 0) {
+            throw new RuntimeException("surface size not set");
+        }
+        if (sCpuRenderer == null) {
+            sCpuRenderer = new CpuRenderer();
+            sCpuRenderer.setTileCache(sTileCache);
+        }
+
+        RenderView view = getRenderView(mSurfaceWidth, mSurfaceHeight);
+        if (mFrameBuffer == null) {
+            mFrameBuffer = CpuRenderer.allocateFrame(view);
+            mFrameView = null;
+        }
+
+        ColourMapping mapping = mColourMapping;
+        Palette palette = mapping.compile(mGradient, mEscapeLimit);
+        if (view.equals(mFrameView) && mFrameComplete
+                && sCpuRenderer.isPrecisionPerTile() == sAutomaticPrecision
+                && sCpuRenderer.isSubdivision() == sSubdivision) {
+            // the frame texture already holds this frame in these colours
+            if (palette.getVersion() == mFramePaletteVersion
+                    && mapping.equals(mFrameMapping)) {
+                return;
+            }
+            // nothing but the colours have changed, and the escape counts are kept
+            sCpuRenderer.colour(palette, mapping, mFrameBuffer);
+        } else {
+            sCpuRenderer.setPrecisionPerTile(sAutomaticPrecision);
+            sCpuRenderer.setSubdivision(sSubdivision);
+            sCpuRenderer.setIncrementalPan(sIncrementalPan);
+            sCpuRenderer.setZoomReuse(sZoomSnapping);
+            sCpuRenderer.setFocus(mFocusX, mFocusY);
+            if (sProgressive) {
+                mFrameComplete = sCpuRenderer.refine(view, PROGRESSIVE_BUDGET_NANOS);
+                sCpuRenderer.colour(palette, mapping, mFrameBuffer);
+            } else {
+                sCpuRenderer.render(view, palette, mapping, mFrameBuffer);
+                mFrameComplete = sCpuRenderer.isComplete();
+            }
+            mFrameView = view;
+            Log.d(TAG, "cpu frame " + sCpuRenderer.getStatistics());
+        }
+        mFramePaletteVersion = palette.getVersion();
+        mFrameMapping = mapping;
+
+        if (mFrameTextureHandle == -1) {
+            mFrameTextureHandle = Util.createImageTexture(mFrameBuffer,
+                    mSurfaceWidth, mSurfaceHeight, DATA_FORMAT);
+        } else {
+            Util.updateImageTexture(mFrameTextureHandle, mFrameBuffer,
+                    mSurfaceWidth, mSurfaceHeight, DATA_FORMAT);
+        }
     }
 
-    private float[] floatsForGL(double d) {
-        return new float[] {(float) d, (float) (d - (float) d)};
+    // The conversions below fill sTempUniform, which GL copies out of during glUniform*fv, so
+    // drawing a frame allocates nothing.
+
+    private float[] vecToF32(double[] vec) {
+        float[] out = sTempUniform;
+        out[0] = (float) vec[0];
+        out[1] = (float) vec[1];
+        return out;
     }
-    
-    private float[] vecToDs(double[] vec) {
-        float[] temp1 = floatsForGL(vec[0]);
-        float[] temp2 = floatsForGL(vec[1]);
 
-        return new float[] {temp1[0], temp1[1], temp2[0], temp2[1]};
+    private float[] vecToDs(double[] vec) {
+        float[] out = sTempUniform;
+        out[0] = (float) vec[0];
+        out[1] = (float) (vec[0] - out[0]);
+        out[2] = (float) vec[1];
+        out[3] = (float) (vec[1] - out[2]);
+        return out;
     }
 }
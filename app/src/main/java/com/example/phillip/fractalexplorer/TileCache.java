@@ -0,0 +1,319 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Escape counts of square tiles of the complex plane, kept across frames so that panning back or
+ * zooming out to a view seen before does not compute it again.
+ * <p>
+ * Tiles sit on the lattices RenderView.latticeIndex() describes. The lattice of each pixel spacing
+ * is a level of a quadtree: the points of one level are the even points of the level with half
+ * its spacing, so tile (tx, ty) of a level covers the same part of the plane as tiles
+ * (2 tx, 2 ty) to (2 tx + 1, 2 ty + 1) of the level below. A tile is addressed by its level,
+ * (tx, ty), the escape limit and the precision model, and holds TILE_SIZE x TILE_SIZE counts in
+ * an IterationField.
+ * <p>
+ * Only views whose pixel centres lie on their lattice can use the cache; TexturedMandelbrot keeps
+ * its CPU views there while zooms and pans are snapped. A tile of such a view that is missing may
+ * still be assembled from its level's neighbours: a quarter of its points from the tile above it
+ * in the quadtree, or all of them from the four below.
+ * <p>
+ * Tiles are only stored whole, from frames that computed every one of their pixels, and the least
+ * recently used are evicted once the tiles held take more than the memory budget.
+ */
+
+public final class TileCache {
+
+    public static final int TILE_SIZE = 64;
+    public static final long DEFAULT_BUDGET_BYTES = 32L << 20;
+
+    // how far from a lattice point a pixel centre may be and still count as on it, in pixels
+    static final double LATTICE_TOLERANCE = 1e-6;
+
+    private static final BigInteger BIG_TILE_SIZE = BigInteger.valueOf(TILE_SIZE);
+
+    // in access order, least recently used first
+    private final LinkedHashMap<Key, IterationField> mTiles =
+            new LinkedHashMap<Key, IterationField>(64, 0.75f, true);
+    private long mBudgetBytes;
+    private long mBytes;
+    private long mHits;
+    private long mMisses;
+    private long mAssembled;
+    private long mEvictions;
+
+    public TileCache(long budgetBytes) {
+        setBudget(budgetBytes);
+    }
+
+    /**
+     * Changes the memory the tiles may take, evicting the least recently used straight away if
+     * they take more.
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budgetBytes);
+        }
+        mBudgetBytes = budgetBytes;
+        evict();
+    }
+
+    public synchronized long getBudget() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Bytes of escape counts the tiles held take.
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getTileCount() {
+        return mTiles.size();
+    }
+
+    /**
+     * Tiles of frames found in the cache.
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Tiles of frames not found in the cache, whether or not they could be assembled.
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Of the misses, tiles given some of their counts by the levels above or below them.
+     */
+    public synchronized long getAssembled() {
+        return mAssembled;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    public synchronized void clear() {
+        mTiles.clear();
+        mBytes = 0;
+    }
+
+    public synchronized void resetCounters() {
+        mHits = 0;
+        mMisses = 0;
+        mAssembled = 0;
+        mEvictions = 0;
+    }
+
+    /**
+     * Copies into field the counts of every pixel of the view the cache has, and flags them in
+     * known, which is allocated if null and there are any.
+     *
+     * @return known, or null if it was null and the cache had nothing for the view.
+     */
+    synchronized byte[] fill(RenderView view, IterationField field, byte[] known) {
+        BigInteger[] origin = lattice(view);
+        if (origin == null) return known;
+
+        int width = view.mWidth;
+        BigInteger[] first = {floorDiv(origin[0]), floorDiv(origin[1])};
+        BigInteger[] last = {
+                floorDiv(origin[0].add(BigInteger.valueOf(width - 1))),
+                floorDiv(origin[1].add(BigInteger.valueOf(view.mHeight - 1)))};
+
+        for (BigInteger ty = first[1]; ty.compareTo(last[1]) <= 0; ty = ty.add(BigInteger.ONE)) {
+            for (BigInteger tx = first[0]; tx.compareTo(last[0]) <= 0;
+                    tx = tx.add(BigInteger.ONE)) {
+                // pixel of the view at the tile's top left corner
+                int x0 = tx.multiply(BIG_TILE_SIZE).subtract(origin[0]).intValue();
+                int y0 = ty.multiply(BIG_TILE_SIZE).subtract(origin[1]).intValue();
+
+                IterationField tile = mTiles.get(key(view, 1, tx, ty));
+                if (tile != null) {
+                    mHits++;
+                    known = copy(tile, 0, 0, 1, view, x0, y0, 1, field, known);
+                    continue;
+                }
+                mMisses++;
+
+                // a quarter of the points are the even points of the tile above
+                boolean assembled = false;
+                IterationField parent =
+                        mTiles.get(key(view, 2, tx.shiftRight(1), ty.shiftRight(1)));
+                if (parent != null) {
+                    int u0 = tx.testBit(0) ? TILE_SIZE / 2 : 0;
+                    int v0 = ty.testBit(0) ? TILE_SIZE / 2 : 0;
+                    known = copy(parent, u0, v0, 1, view, x0, y0, 2, field, known);
+                    assembled = true;
+                }
+                // every point is the top left point of a 2 x 2 block of a tile below
+                for (int k = 0; k < 4; k++) {
+                    BigInteger cx = tx.shiftLeft(1).add(BigInteger.valueOf(k & 1));
+                    BigInteger cy = ty.shiftLeft(1).add(BigInteger.valueOf(k >> 1));
+                    IterationField child = mTiles.get(key(view, 0.5d, cx, cy));
+                    if (child != null) {
+                        int half = TILE_SIZE / 2;
+                        known = copy(child, 0, 0, 2, view,
+                                x0 + (k & 1) * half, y0 + (k >> 1) * half, 1, field, known);
+                        assembled = true;
+                    }
+                }
+                if (assembled) {
+                    mAssembled++;
+                }
+            }
+        }
+        return known;
+    }
+
+    // Copies from tile every step'th point from (u0, v0) to every stride'th pixel of the view from
+    // (x0, y0), as far as both go.
+    private static byte[] copy(IterationField tile, int u0, int v0, int step,
+                               RenderView view, int x0, int y0, int stride,
+                               IterationField field, byte[] known) {
+        int width = view.mWidth;
+        for (int v = v0, y = y0; v < TILE_SIZE && y < view.mHeight; v += step, y += stride) {
+            if (y < 0) continue;
+            for (int u = u0, x = x0; u < TILE_SIZE && x < width; u += step, x += stride) {
+                if (x < 0) continue;
+                if (known == null) {
+                    known = new byte[view.getPixelCount()];
+                }
+                field.set(y * width + x, tile.get(v * TILE_SIZE + u));
+                known[y * width + x] = 1;
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Keeps the tiles lying wholly inside the view from a field holding every one of its counts.
+     */
+    synchronized void store(RenderView view, IterationField field) {
+        BigInteger[] origin = lattice(view);
+        if (origin == null) return;
+
+        int width = view.mWidth;
+        // the first tiles starting on or after pixel 0
+        BigInteger[] first = {
+                floorDiv(origin[0].add(BIG_TILE_SIZE).subtract(BigInteger.ONE)),
+                floorDiv(origin[1].add(BIG_TILE_SIZE).subtract(BigInteger.ONE))};
+        int x0 = first[0].multiply(BIG_TILE_SIZE).subtract(origin[0]).intValue();
+        int y0 = first[1].multiply(BIG_TILE_SIZE).subtract(origin[1]).intValue();
+
+        BigInteger ty = first[1];
+        for (int y = y0; y + TILE_SIZE <= view.mHeight; y += TILE_SIZE) {
+            BigInteger tx = first[0];
+            for (int x = x0; x + TILE_SIZE <= width; x += TILE_SIZE) {
+                Key key = key(view, 1, tx, ty);
+                if (!mTiles.containsKey(key)) {
+                    IterationField tile = new IterationField(TILE_SIZE, TILE_SIZE,
+                            view.mEscapeLimit);
+                    for (int v = 0; v < TILE_SIZE; v++) {
+                        for (int u = 0; u < TILE_SIZE; u++) {
+                            tile.set(v * TILE_SIZE + u, field.get((y + v) * width + x + u));
+                        }
+                    }
+                    mTiles.put(key, tile);
+                    mBytes += bytes(tile);
+                }
+                tx = tx.add(BigInteger.ONE);
+            }
+            ty = ty.add(BigInteger.ONE);
+        }
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, IterationField>> eldest = mTiles.entrySet().iterator();
+        while (mBytes > mBudgetBytes && eldest.hasNext()) {
+            mBytes -= bytes(eldest.next().getValue());
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    private static long bytes(IterationField tile) {
+        return (long) tile.getPixelCount() * tile.getBytesPerPixel();
+    }
+
+    // the lattice point of pixel (0, 0) of the view, or null if its pixels are not on the lattice
+    private static BigInteger[] lattice(RenderView view) {
+        BigDecimal[] index = view.latticeIndex();
+        if (index == null) return null;
+
+        BigInteger[] origin = new BigInteger[2];
+        for (int k = 0; k < 2; k++) {
+            BigDecimal rounded = index[k].setScale(0, RoundingMode.HALF_EVEN);
+            if (index[k].subtract(rounded).abs().doubleValue() > LATTICE_TOLERANCE) return null;
+            origin[k] = rounded.toBigIntegerExact();
+        }
+        return origin;
+    }
+
+    // the tile holding lattice point g
+    private static BigInteger floorDiv(BigInteger g) {
+        BigInteger[] qr = g.divideAndRemainder(BIG_TILE_SIZE);
+        return qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0];
+    }
+
+    // tile (tx, ty) of the level whose spacing is scale times that of the view
+    private static Key key(RenderView view, double scale, BigInteger tx, BigInteger ty) {
+        return new Key(2d * view.mVecA[0] / view.mWidth * scale,
+                2d * view.mVecB[1] / view.mHeight * scale,
+                tx, ty, view.mEscapeLimit, view.mPrecision);
+    }
+
+    private static final class Key {
+        final double mSpacingX;
+        final double mSpacingY;
+        final BigInteger mTileX;
+        final BigInteger mTileY;
+        final int mEscapeLimit;
+        final int mPrecision;
+
+        Key(double spacingX, double spacingY, BigInteger tileX, BigInteger tileY,
+            int escapeLimit, int precision) {
+            mSpacingX = spacingX;
+            mSpacingY = spacingY;
+            mTileX = tileX;
+            mTileY = tileY;
+            mEscapeLimit = escapeLimit;
+            mPrecision = precision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return Double.compare(mSpacingX, k.mSpacingX) == 0
+                    && Double.compare(mSpacingY, k.mSpacingY) == 0
+                    && mTileX.equals(k.mTileX)
+                    && mTileY.equals(k.mTileY)
+                    && mEscapeLimit == k.mEscapeLimit
+                    && mPrecision == k.mPrecision;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(mSpacingX) * 31
+                    + Double.doubleToLongBits(mSpacingY);
+            int h = (int) (bits ^ (bits >>> 32));
+            h = 31 * h + mTileX.hashCode();
+            h = 31 * h + mTileY.hashCode();
+            h = 31 * h + mEscapeLimit;
+            return 31 * h + mPrecision;
+        }
+    }
+}
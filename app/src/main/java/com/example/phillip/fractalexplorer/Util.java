@@ -100,6 +100,24 @@ public final class Util {
         return textureHandle;
     }
 
+    /**
+     * Replaces the contents of a texture made by createImageTexture() with new data of the same
+     * size, without allocating new texture storage.
+     *
+     * @param textureHandle Texture to update.
+     * @param data Image data.
+     * @param width Texture width, in pixels (not bytes).
+     * @param height Texture height, in pixels.
+     * @param format Image data format, as given to createImageTexture().
+     */
+    public static void updateImageTexture(int textureHandle, ByteBuffer data,
+                                          int width, int height, int format) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, /*level*/ 0, /*xoffset*/ 0, /*yoffset*/ 0,
+                width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+        Util.checkGlError("updateImageTexture");
+    }
+
     /**
      * Utility method for checking for OpenGL errors.  Use like this:
      *
@@ -0,0 +1,84 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the transfer functions mapping escape counts onto palettes.
+ */
+public class ColourMappingTest {
+
+    @Test
+    public void escapeLimit_givesTexelPerIteration() throws Exception {
+        ColourMapping mapping = ColourMapping.ESCAPE_LIMIT;
+        assertEquals(150, mapping.paletteSize(150));
+        for (int i = 0; i < 150; i++) {
+            assertEquals(i, mapping.texel(i, 150, 150));
+        }
+        assertEquals(149, mapping.texel(150, 150, 150));
+
+        // beyond the widest texture the iterations share colours
+        int limit = 3 * ColourMapping.MAX_PALETTE_SIZE;
+        assertEquals(ColourMapping.MAX_PALETTE_SIZE, mapping.paletteSize(limit));
+        assertEquals(1, mapping.texel(5, limit, ColourMapping.MAX_PALETTE_SIZE));
+    }
+
+    @Test
+    public void fixedSize_keepsPaletteAcrossLimits() throws Exception {
+        Gradient gradient = CpuRendererTest.gradient();
+        ColourMapping mapping = ColourMapping.log(256);
+
+        Palette palette = mapping.compile(gradient, 150);
+        assertSame(palette, mapping.compile(gradient, 500000));
+        assertSame(palette, mapping.withOffset(3f).compile(gradient, 1000));
+
+        assertEquals(0, mapping.texel(0, 500000, 256));
+        assertEquals(255, mapping.texel(499999, 500000, 256));
+        int previous = 0;
+        for (int i = 0; i < 500000; i += 997) {
+            int texel = mapping.texel(i, 500000, 256);
+            assertTrue(texel >= previous);
+            previous = texel;
+        }
+    }
+
+    @Test
+    public void cyclic_wrapsEveryPeriod() throws Exception {
+        ColourMapping mapping = ColourMapping.cyclic(64, 32f, 0f);
+        assertTrue(mapping.isPeriodic());
+        assertTrue(mapping.compile(CpuRendererTest.gradient(), 150).isPeriodic());
+
+        assertEquals(0, mapping.texel(0, 1000, 64));
+        assertEquals(32, mapping.texel(16, 1000, 64));
+        assertEquals(0, mapping.texel(32, 1000, 64));
+        assertEquals(2, mapping.texel(33, 1000, 64));
+        // an offset of a quarter period moves every count a quarter of the way round
+        assertEquals(16, mapping.withOffset(8f).texel(32, 1000, 64));
+        assertEquals(63, mapping.texel(1000, 1000, 64));
+    }
+
+    @Test
+    public void renderer_coloursThroughMapping() throws Exception {
+        RenderView view = new RenderView(
+                new double[] {-0.5d, 0d}, new double[] {2d, 0d}, new double[] {0d, 2d},
+                40, 30, 300, TexturedMandelbrot.F32);
+        Gradient gradient = CpuRendererTest.gradient();
+        ColourMapping mapping = ColourMapping.cyclic(128, 20f, 5f);
+        Palette palette = mapping.compile(gradient, view.getEscapeLimit());
+
+        CpuRenderer renderer = new CpuRenderer(1, 16);
+        ByteBuffer out = CpuRenderer.allocateFrame(view);
+        IterationField field = renderer.compute(view);
+        renderer.colour(palette, mapping, out);
+        renderer.shutdown();
+
+        for (int index = 0; index < view.getPixelCount(); index++) {
+            int rgba = palette.getRgba(mapping.texel(field.get(index), 300, 128));
+            assertEquals((byte) (rgba >>> 24), out.get(index * 4));
+            assertEquals((byte) rgba, out.get(index * 4 + 3));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for splitting frames into chunks of equal estimated cost.
+ */
+public class CostPartitionerTest {
+
+    private static final int[] TILES = {0, 0, 32, 32, 32, 0, 64, 32, 0, 32, 32, 64, 32, 32, 64, 64};
+
+    // a 64x64 field whose top left quarter never escapes at a limit of 10000
+    private static IterationField field() {
+        IterationField field = new IterationField(64, 64, 10000);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                field.set(y * 64 + x, 10000);
+            }
+        }
+        return field;
+    }
+
+    @Test
+    public void partition_splitsExpensiveTilesOnly() throws Exception {
+        CostPartitioner costs = CostPartitioner.fromField(field());
+        int[] chunks = costs.partition(TILES, 2);
+
+        long area = 0;
+        long total = 0;
+        long largest = 0;
+        int cheap = 0;
+        for (int c = 0; c < chunks.length; c += 4) {
+            area += (long) (chunks[c + 2] - chunks[c]) * (chunks[c + 3] - chunks[c + 1]);
+            long cost = costs.cost(chunks[c], chunks[c + 1], chunks[c + 2], chunks[c + 3]);
+            total += cost;
+            largest = Math.max(largest, cost);
+            if (chunks[c] >= 32 || chunks[c + 1] >= 32) cheap++;
+        }
+        assertEquals(64 * 64, area);
+        // the three tiles that escape at once stay whole
+        assertEquals(3, cheap);
+        assertTrue(largest <= total / (2 * CostPartitioner.CHUNKS_PER_WORKER));
+    }
+
+    @Test
+    public void probe_estimatesFromTheView() throws Exception {
+        RenderView view = new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 0d}, new double[] {0d, 2d}, 64, 64, 500,
+                TexturedMandelbrot.F64);
+        InteriorChecks.setEnabled(false);
+        try {
+            CostPartitioner costs = CostPartitioner.probe(EscapeKernel.create(view),
+                    new RenderStatistics());
+            // the set lies in the middle of the view, its corners escaping at once
+            assertTrue(costs.cost(16, 16, 48, 48) > 10 * costs.cost(0, 0, 16, 16));
+        } finally {
+            InteriorChecks.setEnabled(true);
+        }
+    }
+
+    @Test
+    public void coarsePass_ofAFreshField_isNotProbed() throws Exception {
+        RenderView view = new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 0d}, new double[] {0d, 2d}, 128, 128, 500,
+                TexturedMandelbrot.F64);
+        CpuRenderer refined = new CpuRenderer(4, 16);
+        // no budget, so only the coarsest pass runs
+        assertFalse(refined.refine(view, 0L));
+        assertEquals(0L, refined.getStatistics().getPixelsProbed());
+        refined.shutdown();
+
+        // whereas a full resolution frame is
+        CpuRenderer computed = new CpuRenderer(4, 16);
+        computed.compute(view);
+        assertEquals(64L, computed.getStatistics().getPixelsProbed());
+        computed.shutdown();
+    }
+}
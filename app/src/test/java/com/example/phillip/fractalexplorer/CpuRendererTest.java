@@ -0,0 +1,420 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CPU render path, run on the development machine.
+ */
+public class CpuRendererTest {
+
+    private static final int LIMIT = 150;
+
+    static Gradient gradient() {
+        Gradient gradient = new Gradient(
+                new ColorProportion(0f, 0f, 80f, 255f, 0f),
+                new ColorProportion(0f, 250f, 50f, 255f, 1f));
+        gradient.add(new ColorProportion(15f, 200f, 120f, 255f, 0.15f));
+        return gradient;
+    }
+
+    private static RenderView defaultView(int width, int height, int precision) {
+        return new RenderView(
+                new double[] {-0.5d, 0d},
+                new double[] {2d, 0d},
+                new double[] {0d, 2d},
+                width, height, LIMIT, precision);
+    }
+
+    @Test
+    public void f32Kernel_knownPoints() throws Exception {
+        assertEquals(LIMIT, F32Kernel.iterate(0f, 0f, LIMIT));
+        assertEquals(LIMIT, F32Kernel.iterate(-1f, 0f, LIMIT));
+        assertEquals(0, F32Kernel.iterate(2f, 2f, LIMIT));
+        // 1 -> 2 -> 5
+        assertEquals(2, F32Kernel.iterate(1f, 0f, LIMIT));
+    }
+
+    @Test
+    public void kernels_agreeOnShallowView() throws Exception {
+        RenderView f32 = defaultView(64, 64, TexturedMandelbrot.F32);
+        RenderView ds = defaultView(64, 64, TexturedMandelbrot.EMULATED_DOUBLE);
+        EscapeKernel f32Kernel = EscapeKernel.create(f32);
+        EscapeKernel dsKernel = EscapeKernel.create(ds);
+
+        int differences = 0;
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                RenderStatistics stats = new RenderStatistics();
+                if (f32Kernel.escapeTime(x, y, stats) != dsKernel.escapeTime(x, y, stats)) {
+                    differences++;
+                }
+            }
+        }
+        // only pixels sitting on a band edge may round differently
+        assertTrue("differences: " + differences, differences < 64 * 64 / 50);
+    }
+
+    @Test
+    public void render_colourMatchesGradientTexture() throws Exception {
+        Gradient gradient = gradient();
+        int[] texture = gradient.makeGradient(LIMIT);
+        RenderView view = defaultView(33, 17, TexturedMandelbrot.EMULATED_DOUBLE);
+        EscapeKernel kernel = EscapeKernel.create(view);
+
+        CpuRenderer renderer = new CpuRenderer(3, 8);
+        ByteBuffer out = CpuRenderer.allocateFrame(view);
+        renderer.render(view, gradient, out);
+        renderer.shutdown();
+
+        for (int y = 0; y < view.getHeight(); y++) {
+            for (int x = 0; x < view.getWidth(); x++) {
+                int texel = Math.min(kernel.escapeTime(x, y, new RenderStatistics()), LIMIT - 1) * 4;
+                int offset = (y * view.getWidth() + x) * 4;
+                for (int k = 0; k < 4; k++) {
+                    assertEquals((byte) texture[texel + k], out.get(offset + k));
+                }
+            }
+        }
+        assertEquals(33 * 17, renderer.getStatistics().getPixelsComputed());
+        assertEquals(5 * 3, renderer.getStatistics().getTiles());
+    }
+
+    @Test
+    public void render_independentOfParallelism() throws Exception {
+        RenderView view = defaultView(100, 70, TexturedMandelbrot.F32);
+        ByteBuffer serial = CpuRenderer.allocateFrame(view);
+        ByteBuffer parallel = CpuRenderer.allocateFrame(view);
+
+        CpuRenderer one = new CpuRenderer(1, 100);
+        CpuRenderer many = new CpuRenderer(4, 16);
+        one.render(view, gradient(), serial);
+        many.render(view, gradient(), parallel);
+        one.shutdown();
+        many.shutdown();
+
+        assertEquals(serial, parallel);
+        assertEquals(one.getStatistics().getIterations(), many.getStatistics().getIterations());
+    }
+
+    @Test
+    public void subdivision_fillsUniformRectangles() throws Exception {
+        RenderView view = defaultView(128, 96, TexturedMandelbrot.F32);
+        ByteBuffer brute = CpuRenderer.allocateFrame(view);
+        ByteBuffer subdivided = CpuRenderer.allocateFrame(view);
+
+        CpuRenderer renderer = new CpuRenderer(2, 32);
+        renderer.render(view, gradient(), brute);
+        long iterations = renderer.getStatistics().getIterations();
+        renderer.setSubdivision(true);
+        renderer.render(view, gradient(), subdivided);
+        renderer.shutdown();
+
+        RenderStatistics stats = renderer.getStatistics();
+        assertEquals(view.getPixelCount(), stats.getPixelsComputed() + stats.getPixelsFilled());
+        // the cardioid and the outer bands fill a good part of the default view
+        assertTrue(stats.toString(), stats.getPixelsFilled() > view.getPixelCount() / 4);
+        assertEquals(iterations, stats.getIterations());
+        assertEquals(brute, subdivided);
+    }
+
+    @Test
+    public void colour_reusesEscapeCounts() throws Exception {
+        RenderView view = defaultView(64, 48, TexturedMandelbrot.F32);
+        Gradient other = gradient();
+        other.add(new ColorProportion(200f, 30f, 0f, 255f, 0.5f));
+        ByteBuffer rendered = CpuRenderer.allocateFrame(view);
+        ByteBuffer recoloured = CpuRenderer.allocateFrame(view);
+
+        CpuRenderer renderer = new CpuRenderer(2, 16);
+        renderer.render(view, other, rendered);
+        renderer.render(view, gradient(), recoloured);
+        long iterations = renderer.getStatistics().getIterations();
+        renderer.colour(other, recoloured);
+        renderer.shutdown();
+
+        assertEquals(rendered, recoloured);
+        // colouring leaves the statistics of the frame alone
+        assertEquals(iterations, renderer.getStatistics().getIterations());
+    }
+
+    @Test
+    public void iterationField_widensAboveSixteenBits() throws Exception {
+        IterationField narrow = new IterationField(3, 2, IterationField.MAX_NARROW_LIMIT);
+        IterationField wide = new IterationField(3, 2, IterationField.MAX_NARROW_LIMIT + 1);
+        assertEquals(2, narrow.getBytesPerPixel());
+        assertEquals(4, wide.getBytesPerPixel());
+
+        narrow.set(5, IterationField.MAX_NARROW_LIMIT);
+        wide.set(5, IterationField.MAX_NARROW_LIMIT + 1);
+        assertEquals(IterationField.MAX_NARROW_LIMIT, narrow.get(5));
+        assertEquals(IterationField.MAX_NARROW_LIMIT + 1, wide.get(5));
+        assertEquals(0, narrow.get(4));
+    }
+
+    @Test
+    public void incrementalPan_computesOnlyExposedStrips() throws Exception {
+        // a pixel is 1/16 wide, so every centre and pixel below is exact in binary
+        int width = 64, height = 48;
+        CpuRenderer panning = new CpuRenderer(2, 16);
+        panning.setIncrementalPan(true);
+        panning.setSubdivision(true);
+        CpuRenderer fresh = new CpuRenderer(2, 16);
+        fresh.setSubdivision(true);
+        ByteBuffer panned = ByteBuffer.allocateDirect(width * height * 4);
+        ByteBuffer expected = ByteBuffer.allocateDirect(width * height * 4);
+
+        panning.render(pannedView(0, 0, width, height), gradient(), panned);
+        int[][] moves = {{-5, 3}, {7, 0}, {0, -11}, {2, 2}};
+        int x = 0, y = 0;
+        for (int[] move : moves) {
+            x += move[0];
+            y += move[1];
+            RenderView view = pannedView(x, y, width, height);
+            panning.render(view, gradient(), panned);
+            fresh.render(view, gradient(), expected);
+            assertEquals(expected, panned);
+
+            RenderStatistics stats = panning.getStatistics();
+            long kept = (long) (width - Math.abs(move[0])) * (height - Math.abs(move[1]));
+            assertEquals(kept, stats.getPixelsReused());
+            assertEquals(width * height - kept,
+                    stats.getPixelsComputed() + stats.getPixelsFilled());
+        }
+
+        // half a pixel is no pan
+        RenderView offGrid = new RenderView(new double[] {-0.5d + 1d / 32, 0d},
+                new double[] {2d, 0d}, new double[] {0d, -1.5d}, width, height, LIMIT,
+                TexturedMandelbrot.F64);
+        panning.render(offGrid, gradient(), panned);
+        assertEquals(0, panning.getStatistics().getPixelsReused());
+        panning.shutdown();
+        fresh.shutdown();
+    }
+
+    // the default view moved by whole pixels, pixel (x, y) of it being (x + dx, y + dy) of the
+    // unmoved view
+    private static RenderView pannedView(int dx, int dy, int width, int height) {
+        return new RenderView(new double[] {-0.5d + dx / 16d, -dy / 16d},
+                new double[] {2d, 0d}, new double[] {0d, -1.5d}, width, height, LIMIT,
+                TexturedMandelbrot.F64);
+    }
+
+    @Test
+    public void zoomReuse_keepsCoincidingPixels() throws Exception {
+        int width = 64, height = 48;
+        // zoomed in by 2 about the centre nudged a quarter pixel, so that every other pixel
+        // centre of the new grid falls on one of the old
+        RenderView out = new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 0d}, new double[] {0d, -1.5d}, width, height, LIMIT,
+                TexturedMandelbrot.F64);
+        RenderView in = new RenderView(new double[] {-0.5d + 1d / 64, -1d / 64},
+                new double[] {1d, 0d}, new double[] {0d, -0.75d}, width, height, LIMIT,
+                TexturedMandelbrot.F64);
+
+        CpuRenderer zooming = new CpuRenderer(2, 16);
+        zooming.setZoomReuse(true);
+        zooming.setSubdivision(true);
+        CpuRenderer fresh = new CpuRenderer(2, 16);
+        fresh.setSubdivision(true);
+        ByteBuffer zoomed = ByteBuffer.allocateDirect(width * height * 4);
+        ByteBuffer expected = ByteBuffer.allocateDirect(width * height * 4);
+
+        zooming.render(out, gradient(), zoomed);
+        for (RenderView view : new RenderView[] {in, out, in}) {
+            zooming.render(view, gradient(), zoomed);
+            fresh.render(view, gradient(), expected);
+            assertEquals(expected, zoomed);
+
+            RenderStatistics stats = zooming.getStatistics();
+            assertEquals(width * height / 4, stats.getPixelsReused());
+            assertEquals(width * height * 3 / 4,
+                    stats.getPixelsComputed() + stats.getPixelsFilled());
+        }
+        zooming.shutdown();
+        fresh.shutdown();
+    }
+
+    @Test
+    public void refine_computesEachPixelOnceAcrossPasses() throws Exception {
+        int width = 64, height = 48;
+        RenderView view = pannedView(0, 0, width, height);
+        CpuRenderer progressive = new CpuRenderer(2, 16);
+        CpuRenderer fresh = new CpuRenderer(2, 16);
+        ByteBuffer refined = ByteBuffer.allocateDirect(width * height * 4);
+        ByteBuffer expected = ByteBuffer.allocateDirect(width * height * 4);
+
+        // with no budget every call runs a single pass: blocks of 8, 4, 2, then single pixels
+        long[] computed = {8 * 6, 16 * 12 - 8 * 6, 32 * 24 - 16 * 12, 64 * 48 - 32 * 24};
+        for (int pass = 0; pass < computed.length; pass++) {
+            assertEquals(pass == computed.length - 1, progressive.refine(view, 0));
+            assertEquals(computed[pass], progressive.getStatistics().getPixelsComputed());
+        }
+        assertTrue(progressive.refine(view, 0));
+
+        progressive.colour(gradient(), refined);
+        fresh.render(view, gradient(), expected);
+        assertEquals(expected, refined);
+
+        // subdivision of the last pass starts from the pixels the coarse passes computed
+        progressive.setSubdivision(true);
+        fresh.setSubdivision(true);
+        assertTrue(progressive.refine(view, Long.MAX_VALUE));
+        progressive.colour(gradient(), refined);
+        fresh.render(view, gradient(), expected);
+        assertEquals(expected, refined);
+
+        progressive.shutdown();
+        fresh.shutdown();
+    }
+
+    @Test
+    public void raisedLimit_resumesUnescapedOrbits() throws Exception {
+        int width = 64, height = 48;
+        for (int precision : new int[] {TexturedMandelbrot.F64, TexturedMandelbrot.DOUBLE_DOUBLE}) {
+            RenderView view = pannedView(0, 0, width, height).withPrecision(precision);
+            RenderView raised = view.withEscapeLimit(LIMIT * 2);
+            CpuRenderer resuming = new CpuRenderer(2, 16);
+            CpuRenderer fresh = new CpuRenderer(2, 16);
+            ByteBuffer resumed = ByteBuffer.allocateDirect(width * height * 4);
+            ByteBuffer expected = ByteBuffer.allocateDirect(width * height * 4);
+
+            IterationField field = resuming.compute(view);
+            int unescaped = 0;
+            for (int index = 0; index < field.getPixelCount(); index++) {
+                if (field.get(index) == LIMIT) unescaped++;
+            }
+
+            resuming.render(raised, gradient(), resumed);
+            fresh.render(raised, gradient(), expected);
+            assertEquals(expected, resumed);
+
+            // escaped pixels are kept, and those found inside the set need no more iterations
+            RenderStatistics stats = resuming.getStatistics();
+            assertTrue(stats.getPixelsComputed() > 0);
+            assertTrue(stats.getPixelsComputed() < unescaped);
+            assertEquals(width * height, stats.getPixelsComputed() + stats.getPixelsReused());
+            // the first LIMIT iterations of each resumed pixel were not repeated
+            assertTrue(stats.getIterationsSkipped() >= LIMIT * stats.getPixelsComputed());
+
+            resuming.shutdown();
+            fresh.shutdown();
+        }
+    }
+
+    @Test
+    public void raisedLimit_resumesOrbitsOfTilesWithTheirOwnPrecision() throws Exception {
+        int width = 64, height = 48;
+        // a model that can not resume for the frame, whose tiles all take F64 at this depth
+        RenderView view = pannedView(0, 0, width, height)
+                .withPrecision(TexturedMandelbrot.QUAD_DOUBLE);
+        RenderView raised = view.withEscapeLimit(LIMIT * 2);
+        CpuRenderer resuming = new CpuRenderer(2, 16);
+        CpuRenderer fresh = new CpuRenderer(2, 16);
+        resuming.setPrecisionPerTile(true);
+        fresh.setPrecisionPerTile(true);
+        ByteBuffer resumed = ByteBuffer.allocateDirect(width * height * 4);
+        ByteBuffer expected = ByteBuffer.allocateDirect(width * height * 4);
+
+        IterationField field = resuming.compute(view);
+        int unescaped = 0;
+        for (int index = 0; index < field.getPixelCount(); index++) {
+            if (field.get(index) == LIMIT) unescaped++;
+        }
+
+        resuming.render(raised, gradient(), resumed);
+        fresh.render(raised, gradient(), expected);
+        assertEquals(expected, resumed);
+
+        RenderStatistics stats = resuming.getStatistics();
+        assertTrue(stats.getPixelsComputed() > 0);
+        assertTrue(stats.getPixelsComputed() < unescaped);
+        assertEquals(width * height, stats.getPixelsComputed() + stats.getPixelsReused());
+        assertTrue(stats.getIterationsSkipped() >= LIMIT * stats.getPixelsComputed());
+
+        resuming.shutdown();
+        fresh.shutdown();
+    }
+
+    @Test
+    public void render_reportsWorkerTimes() throws Exception {
+        RenderView view = defaultView(64, 64, TexturedMandelbrot.F64);
+        CpuRenderer renderer = new CpuRenderer(2, 16);
+        renderer.render(view, gradient(), ByteBuffer.allocateDirect(64 * 64 * 4));
+
+        RenderStatistics stats = renderer.getStatistics();
+        assertEquals(2, stats.getWorkerBusyNanos().length);
+        assertEquals(2, stats.getWorkerIdleNanos().length);
+        long busy = stats.getWorkerBusyNanos()[0] + stats.getWorkerBusyNanos()[1];
+        assertTrue(busy > 0);
+        assertTrue(busy <= 2 * stats.getElapsedNanos());
+        renderer.shutdown();
+    }
+
+    @Test
+    public void orderTiles_nearestFocusFirst() throws Exception {
+        int[] tiles = {0, 0, 16, 16, 16, 0, 32, 16, 0, 16, 16, 32, 16, 16, 32, 32, 32, 0, 40, 16};
+        int[] ordered = CpuRenderer.orderTiles(tiles, 30f, 20f);
+        assertArrayEquals(new int[] {16, 16, 32, 32}, Arrays.copyOfRange(ordered, 0, 4));
+
+        double previous = -1d;
+        for (int t = 0; t < ordered.length; t += 4) {
+            double dx = (ordered[t] + ordered[t + 2]) / 2d - 30d;
+            double dy = (ordered[t + 1] + ordered[t + 3]) / 2d - 20d;
+            assertTrue(dx * dx + dy * dy >= previous);
+            previous = dx * dx + dy * dy;
+        }
+    }
+
+    @Test
+    public void orderTiles_farFromTheFocus() throws Exception {
+        // tile centres 50,000 and 100,000 pixels out, as in the strip of a wide export
+        int[] tiles = {99984, 0, 100016, 16, 0, 0, 16, 16, 49984, 0, 50016, 16};
+        int[] ordered = CpuRenderer.orderTiles(tiles, 8f, 8f);
+        assertArrayEquals(new int[] {0, 0, 16, 16, 49984, 0, 50016, 16, 99984, 0, 100016, 16},
+                ordered);
+    }
+
+    @Test
+    public void cancel_dropsRemainingTiles() throws Exception {
+        // every pixel inside the set runs to a high limit, so the frame takes a while
+        InteriorChecks.setEnabled(false);
+        try {
+            final RenderView view = new RenderView(new double[] {-0.5d, 0d},
+                    new double[] {2d, 0d}, new double[] {0d, 2d}, 64, 64, 200000,
+                    TexturedMandelbrot.F64);
+            final CpuRenderer renderer = new CpuRenderer(1, 16);
+            Thread rendering = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    renderer.compute(view);
+                }
+            });
+            rendering.start();
+            while (renderer.getStatistics().getTiles() == 0) {
+                Thread.sleep(1);
+            }
+            renderer.cancel();
+            rendering.join(10000);
+
+            assertFalse(rendering.isAlive());
+            assertFalse(renderer.isComplete());
+            RenderStatistics stats = renderer.getStatistics();
+            assertTrue(stats.getTilesDropped() > 0);
+            assertEquals(16, stats.getTiles() + stats.getTilesDropped());
+            renderer.shutdown();
+        } finally {
+            InteriorChecks.setEnabled(true);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void render_rejectsSmallBuffer() throws Exception {
+        RenderView view = defaultView(10, 10, TexturedMandelbrot.F32);
+        new CpuRenderer(1, 8).render(view, gradient(), ByteBuffer.allocateDirect(10));
+    }
+}
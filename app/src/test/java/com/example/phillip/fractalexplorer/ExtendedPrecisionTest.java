@@ -0,0 +1,181 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks DoubleDouble, QuadDouble and the fixed point products against BigDecimal and BigInteger,
+ * and the kernels built on them against brute force iteration.
+ */
+public class ExtendedPrecisionTest {
+
+    private static final MathContext EXACT = new MathContext(200);
+
+    // a random number of about 1 with bits well past the end of a double
+    private static BigDecimal random(Random random) {
+        BigDecimal x = BigDecimal.ZERO;
+        BigDecimal scale = BigDecimal.ONE;
+        for (int k = 0; k < 6; k++) {
+            x = x.add(new BigDecimal(random.nextDouble() - 0.5d).multiply(scale));
+            scale = scale.multiply(new BigDecimal(0x1p-50));
+        }
+        return random.nextBoolean() ? x.multiply(BigDecimal.TEN) : x;
+    }
+
+    private static void assertClose(BigDecimal expected, BigDecimal actual, BigDecimal scale,
+                                    double tolerance) {
+        double error = expected.subtract(actual).abs().divide(scale.abs(), EXACT).doubleValue();
+        assertTrue("relative error " + error, error <= tolerance);
+    }
+
+    @Test
+    public void doubleDouble_matchesBigDecimal() throws Exception {
+        Random random = new Random(7);
+        double[] r = new double[4];
+
+        for (int n = 0; n < 1000; n++) {
+            BigDecimal a = random(random);
+            BigDecimal b = random(random);
+            DoubleDouble.set(a, r, 0);
+            DoubleDouble.set(b, r, 2);
+            a = DoubleDouble.toBigDecimal(r[0], r[1]);
+            b = DoubleDouble.toBigDecimal(r[2], r[3]);
+            BigDecimal scale = a.abs().max(b.abs());
+            double aHi = r[0], aLo = r[1], bHi = r[2], bLo = r[3];
+
+            DoubleDouble.add(aHi, aLo, bHi, bLo, r, 0);
+            assertClose(a.add(b), DoubleDouble.toBigDecimal(r[0], r[1]), scale, 0x1p-104);
+            DoubleDouble.mul(aHi, aLo, bHi, bLo, r, 0);
+            assertClose(a.multiply(b), DoubleDouble.toBigDecimal(r[0], r[1]),
+                    a.multiply(b), 0x1p-102);
+            DoubleDouble.square(aHi, aLo, r, 0);
+            assertClose(a.multiply(a), DoubleDouble.toBigDecimal(r[0], r[1]),
+                    a.multiply(a), 0x1p-102);
+            assertEquals(a.compareTo(b), DoubleDouble.compare(aHi, aLo, bHi, bLo));
+        }
+    }
+
+    @Test
+    public void quadDouble_matchesBigDecimal() throws Exception {
+        Random random = new Random(11);
+        double[] q = new double[3 * QuadDouble.SIZE];
+        int a0 = 0, b0 = QuadDouble.SIZE, r0 = 2 * QuadDouble.SIZE;
+
+        for (int n = 0; n < 1000; n++) {
+            QuadDouble.set(random(random), q, a0);
+            QuadDouble.set(random(random), q, b0);
+            BigDecimal a = QuadDouble.toBigDecimal(q, a0);
+            BigDecimal b = QuadDouble.toBigDecimal(q, b0);
+            BigDecimal scale = a.abs().max(b.abs());
+
+            QuadDouble.add(q, a0, q, b0, q, r0);
+            assertClose(a.add(b), QuadDouble.toBigDecimal(q, r0), scale, 0x1p-206);
+            QuadDouble.subtract(q, a0, q, b0, q, r0);
+            assertClose(a.subtract(b), QuadDouble.toBigDecimal(q, r0), scale, 0x1p-206);
+            QuadDouble.mul(q, a0, q, b0, q, r0);
+            assertClose(a.multiply(b), QuadDouble.toBigDecimal(q, r0), a.multiply(b), 0x1p-204);
+            QuadDouble.square(q, a0, q, r0);
+            assertClose(a.multiply(a), QuadDouble.toBigDecimal(q, r0), a.multiply(a), 0x1p-204);
+            assertEquals(a.compareTo(b), QuadDouble.compare(q, a0, q, b0));
+        }
+    }
+
+    @Test
+    public void multiplyHigh_matchesBigInteger() throws Exception {
+        Random random = new Random(13);
+        BigInteger unsigned = BigInteger.ONE.shiftLeft(64);
+        for (int n = 0; n < 10000; n++) {
+            long x = random.nextLong() >> random.nextInt(64);
+            long y = random.nextLong() >> random.nextInt(64);
+            BigInteger bx = BigInteger.valueOf(x), by = BigInteger.valueOf(y);
+            assertEquals(bx.multiply(by).shiftRight(64).longValue(), LongMath.multiplyHigh(x, y));
+
+            if (x < 0) bx = bx.add(unsigned);
+            if (y < 0) by = by.add(unsigned);
+            assertEquals(bx.multiply(by).shiftRight(64).longValue(),
+                    LongMath.unsignedMultiplyHigh(x, y));
+        }
+    }
+
+    @Test
+    public void fixed128Products_matchBigInteger() throws Exception {
+        Random random = new Random(17);
+        long[] a = new long[2], b = new long[2], r = new long[2];
+        BigDecimal range = BigDecimal.valueOf(4);
+
+        for (int n = 0; n < 10000; n++) {
+            BigDecimal x = random(random).multiply(range).remainder(range);
+            BigDecimal y = random(random).multiply(range).remainder(range);
+            Fixed128Kernel.toFixed(x, a, 0);
+            Fixed128Kernel.toFixed(y, b, 0);
+            Fixed128Kernel.multiply(a[0], a[1], b[0], b[1], r);
+
+            BigInteger bx = BigInteger.valueOf(a[0]).shiftLeft(64)
+                    .add(BigInteger.valueOf(a[1]).and(BigInteger.ONE.shiftLeft(64).subtract(
+                            BigInteger.ONE)));
+            BigInteger by = BigInteger.valueOf(b[0]).shiftLeft(64)
+                    .add(BigInteger.valueOf(b[1]).and(BigInteger.ONE.shiftLeft(64).subtract(
+                            BigInteger.ONE)));
+            BigInteger product = bx.abs().multiply(by.abs())
+                    .shiftRight(Fixed128Kernel.FRACTION_BITS);
+            if (bx.signum() * by.signum() < 0) product = product.negate();
+
+            assertEquals(product.shiftRight(64).longValue(), r[0]);
+            assertEquals(product.longValue(), r[1]);
+
+            Fixed128Kernel.square(a[0], a[1], r);
+            product = bx.multiply(bx).shiftRight(Fixed128Kernel.FRACTION_BITS);
+            assertEquals(product.shiftRight(64).longValue(), r[0]);
+            assertEquals(product.longValue(), r[1]);
+        }
+    }
+
+    // views of the Misiurewicz point c = i, where escape counts grow only with the log of the
+    // zoom, so brute force stays cheap at any depth
+    private static RenderView misiurewiczView(double width, int precision) {
+        return new RenderView(new BigDecimal[] {BigDecimal.ZERO, BigDecimal.ONE},
+                new double[] {width, 0d},
+                new double[] {0d, width},
+                16, 16, 1000, precision);
+    }
+
+    private static int mismatches(RenderView view, int digits) {
+        EscapeKernel kernel = EscapeKernel.create(view);
+        int mismatches = 0;
+        for (int y = 0; y < view.mHeight; y++) {
+            for (int x = 0; x < view.mWidth; x++) {
+                if (kernel.escapeTime(x, y, new RenderStatistics())
+                        != PerturbationKernelTest.bruteForce(view, x, y, digits)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    @Test
+    public void doubleDoubleKernel_matchesBruteForce() throws Exception {
+        assertEquals(0, mismatches(misiurewiczView(1e-25, TexturedMandelbrot.DOUBLE_DOUBLE), 50));
+    }
+
+    @Test
+    public void quadDoubleKernel_matchesBruteForce() throws Exception {
+        assertEquals(0, mismatches(misiurewiczView(1e-50, TexturedMandelbrot.QUAD_DOUBLE), 80));
+    }
+
+    @Test
+    public void fixed64Kernel_matchesBruteForce() throws Exception {
+        assertEquals(0, mismatches(misiurewiczView(1e-13, TexturedMandelbrot.FIXED_64), 40));
+    }
+
+    @Test
+    public void fixed128Kernel_matchesBruteForce() throws Exception {
+        assertEquals(0, mismatches(misiurewiczView(1e-30, TexturedMandelbrot.FIXED_128), 60));
+    }
+}
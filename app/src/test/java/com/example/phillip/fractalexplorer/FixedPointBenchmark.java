@@ -0,0 +1,78 @@
+package com.example.phillip.fractalexplorer;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Times one step of z^2 + c in FixedPoint and in BigDecimal at matching precision. Run the main
+ * method on the development machine; it is not part of the unit tests.
+ */
+public class FixedPointBenchmark {
+
+    private static final int[] BITS = {128, 512, 2048};
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        for (int bits : BITS) {
+            int limbs = FixedPoint.limbsFor(bits);
+            // a point whose orbit stays bounded, with bits all the way down
+            BigDecimal cr = new BigDecimal("-0.1").add(
+                    FixedPointTest.random(random, limbs).movePointLeft(20));
+            BigDecimal ci = new BigDecimal("0.1").add(
+                    FixedPointTest.random(random, limbs).movePointLeft(20));
+            int steps = Math.max(4000000 / (limbs * limbs), 1000);
+
+            double fixed = Double.MAX_VALUE, big = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                fixed = Math.min(fixed, fixedPoint(cr, ci, limbs, steps));
+                big = Math.min(big, bigDecimal(cr, ci, bits, steps));
+            }
+            System.out.printf("%5d bits: FixedPoint %9.0f ns/step, BigDecimal %9.0f ns/step,"
+                    + " %.1fx%n", bits, fixed, big, big / fixed);
+        }
+    }
+
+    private static double fixedPoint(BigDecimal x, BigDecimal y, int limbs, int steps) {
+        FixedPoint cr = FixedPoint.valueOf(x, limbs);
+        FixedPoint ci = FixedPoint.valueOf(y, limbs);
+        FixedPoint zr = FixedPoint.valueOf(x, limbs);
+        FixedPoint zi = FixedPoint.valueOf(y, limbs);
+        FixedPoint zr2 = new FixedPoint(limbs);
+        FixedPoint zi2 = new FixedPoint(limbs);
+
+        long start = System.nanoTime();
+        for (int n = 0; n < steps; n++) {
+            zr2.square(zr);
+            zi2.square(zi);
+            zi.multiply(zr, zi);
+            zi.twice();
+            zi.add(zi, ci);
+            zr.subtract(zr2, zi2);
+            zr.add(zr, cr);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (Double.isNaN(zr.doubleValue())) throw new AssertionError();
+        return (double) elapsed / steps;
+    }
+
+    private static double bigDecimal(BigDecimal cr, BigDecimal ci, int bits, int steps) {
+        MathContext mc = new MathContext((int) Math.ceil(bits * Math.log10(2)),
+                RoundingMode.HALF_EVEN);
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal zr = cr.round(mc), zi = ci.round(mc), zr2, zi2;
+
+        long start = System.nanoTime();
+        for (int n = 0; n < steps; n++) {
+            zr2 = zr.multiply(zr, mc);
+            zi2 = zi.multiply(zi, mc);
+            zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+            zr = zr2.subtract(zi2, mc).add(cr, mc);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (zr.signum() == 2) throw new AssertionError();
+        return (double) elapsed / steps;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks FixedPoint arithmetic against BigDecimal.
+ */
+public class FixedPointTest {
+
+    // a random number in (-4, 4) with bits down to 2^-(limbs * 32)
+    static BigDecimal random(Random random, int limbs) {
+        BigDecimal x = BigDecimal.valueOf(random.nextInt(8) - 4);
+        BigDecimal scale = BigDecimal.ONE;
+        BigDecimal limb = new BigDecimal(0x1p-32);
+        for (int k = 0; k < limbs; k++) {
+            scale = scale.multiply(limb);
+            x = x.add(BigDecimal.valueOf(random.nextInt() & 0xffffffffL).multiply(scale));
+        }
+        return x;
+    }
+
+    private static void assertWithin(BigDecimal expected, FixedPoint actual, int ulps) {
+        BigDecimal ulp = new BigDecimal(0x1p-32).pow(actual.getFractionLimbs());
+        BigDecimal error = expected.subtract(actual.toBigDecimal()).abs();
+        assertTrue("error " + error.divide(ulp, MathContext.DECIMAL64) + " ulp",
+                error.compareTo(ulp.multiply(BigDecimal.valueOf(ulps))) <= 0);
+    }
+
+    @Test
+    public void set_roundTrips() throws Exception {
+        Random random = new Random(3);
+        for (int n = 0; n < 100; n++) {
+            BigDecimal x = random(random, 4);
+            FixedPoint f = FixedPoint.valueOf(x, 4);
+            assertEquals(0, x.compareTo(f.toBigDecimal()));
+            assertEquals(x.doubleValue(), f.doubleValue(), Math.ulp(x.doubleValue()));
+        }
+        assertTrue(FixedPoint.valueOf(new BigDecimal("-0.0"), 2).isZero());
+        assertFalse(FixedPoint.valueOf(new BigDecimal("-0.0"), 2).mNegative);
+    }
+
+    @Test
+    public void arithmetic_matchesBigDecimal() throws Exception {
+        Random random = new Random(5);
+        for (int bits : new int[] {128, 512, 2048}) {
+            int limbs = FixedPoint.limbsFor(bits);
+            FixedPoint a = new FixedPoint(limbs);
+            FixedPoint b = new FixedPoint(limbs);
+            FixedPoint r = new FixedPoint(limbs);
+
+            for (int n = 0; n < 200; n++) {
+                BigDecimal x = random(random, limbs);
+                BigDecimal y = random(random, limbs);
+                a.set(x);
+                b.set(y);
+
+                r.add(a, b);
+                assertWithin(x.add(y), r, 0);
+                r.subtract(a, b);
+                assertWithin(x.subtract(y), r, 0);
+                r.multiply(a, b);
+                assertWithin(x.multiply(y), r, limbs + 2);
+                r.square(a);
+                assertWithin(x.multiply(x), r, limbs + 2);
+                r.set(a);
+                r.twice();
+                assertWithin(x.add(x), r, 0);
+                assertEquals(x.compareTo(y), a.compareTo(b));
+
+                // results may overwrite an operand
+                a.multiply(a, b);
+                assertWithin(x.multiply(y), a, limbs + 2);
+                b.subtract(a, b);
+                assertWithin(a.toBigDecimal().subtract(y), b, 0);
+            }
+        }
+    }
+
+    @Test
+    public void referenceOrbit_matchesBigDecimalIteration() throws Exception {
+        RenderView view = PerturbationKernelTest.deepView(1e-40, 16, 2000,
+                TexturedMandelbrot.PERTURBATION);
+        int digits = ReferenceOrbit.digitsFor(view);
+        ReferenceOrbit orbit = ReferenceOrbit.create(
+                view.mCentreExact[0], view.mCentreExact[1], 2000, digits);
+
+        MathContext mc = new MathContext(digits + 10);
+        BigDecimal cr = view.mCentreExact[0], ci = view.mCentreExact[1];
+        BigDecimal zr = cr, zi = ci, t;
+        for (int n = 0; n < orbit.mLength; n++) {
+            assertEquals(zr.doubleValue(), orbit.mZr[n], 1e-15);
+            assertEquals(zi.doubleValue(), orbit.mZi[n], 1e-15);
+            t = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+            zi = zr.multiply(zi, mc).multiply(BigDecimal.valueOf(2), mc).add(ci, mc);
+            zr = t;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cardioid and bulb tests and periodicity checking against plain iteration.
+ */
+public class InteriorChecksTest {
+
+    private static final int LIMIT = 5000;
+
+    // the period 3 bulb at the top of the main cardioid, which only periodicity checking finds
+    private static RenderView rabbitView(int precision) {
+        return new RenderView(new double[] {-0.12d, 0.74d},
+                new double[] {0.1d, 0d},
+                new double[] {0d, 0.1d},
+                48, 48, LIMIT, precision);
+    }
+
+    @After
+    public void restoreChecks() {
+        InteriorChecks.setEnabled(true);
+    }
+
+    @Test
+    public void cardioidAndBulb_knownPoints() throws Exception {
+        assertTrue(InteriorChecks.inCardioidOrBulb(0d, 0d));
+        assertTrue(InteriorChecks.inCardioidOrBulb(-0.1d, 0.1d));
+        assertTrue(InteriorChecks.inCardioidOrBulb(-1d, 0d));
+        assertTrue(InteriorChecks.inCardioidOrBulb(-1.2d, 0.1d));
+        // inside, but closer to the cusp than the margin
+        assertFalse(InteriorChecks.inCardioidOrBulb(0.25d, 0d));
+        assertFalse(InteriorChecks.inCardioidOrBulb(0.3d, 0d));
+        assertFalse(InteriorChecks.inCardioidOrBulb(-1.3d, 0d));
+        assertFalse(InteriorChecks.inCardioidOrBulb(-0.12d, 0.74d));
+
+        assertTrue(InteriorChecks.inCardioidOrBulb(-0.1f, 0.1f));
+        assertTrue(InteriorChecks.inCardioidOrBulb(-1f, 0f));
+        assertFalse(InteriorChecks.inCardioidOrBulb(0.3f, 0f));
+    }
+
+    private static int mismatches(int precision, RenderStatistics stats) {
+        RenderView view = rabbitView(precision);
+        EscapeKernel checked = EscapeKernel.create(view);
+        InteriorChecks.setEnabled(false);
+        EscapeKernel plain = EscapeKernel.create(view);
+        InteriorChecks.setEnabled(true);
+
+        int mismatches = 0;
+        for (int y = 0; y < view.mHeight; y++) {
+            for (int x = 0; x < view.mWidth; x++) {
+                if (checked.escapeTime(x, y, stats) != plain.escapeTime(x, y, stats)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    @Test
+    public void periodicity_agreesWithPlainIteration() throws Exception {
+        int[] models = {TexturedMandelbrot.F64, TexturedMandelbrot.FIXED_64,
+                TexturedMandelbrot.DOUBLE_DOUBLE, TexturedMandelbrot.FIXED_128};
+        for (int precision : models) {
+            RenderStatistics stats = new RenderStatistics();
+            assertEquals("precision " + precision, 0, mismatches(precision, stats));
+            assertTrue(stats.toString(), stats.getPeriodicPixels() > 48 * 48 / 10);
+            assertTrue(stats.toString(), stats.getCardioidPixels() > 0);
+        }
+    }
+
+    @Test
+    public void render_countsIterationsSaved() throws Exception {
+        RenderView view = rabbitView(TexturedMandelbrot.F64);
+        CpuRenderer renderer = new CpuRenderer(1, 16);
+        renderer.render(view, CpuRendererTest.gradient(), CpuRenderer.allocateFrame(view));
+        renderer.shutdown();
+
+        RenderStatistics stats = renderer.getStatistics();
+        long interior = stats.getCardioidPixels() + stats.getPeriodicPixels();
+        // all but the last few thousand iterations of each interior pixel are saved
+        assertTrue(stats.toString(), stats.getIterationsSkipped() > interior * (LIMIT - 2000));
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for escape count files, run on the development machine.
+ */
+public class IterationFileTest {
+
+    private static final int LIMIT = 150;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // a centre with more digits than a double holds
+    private static RenderView view(int width, int height, int limit) {
+        return new RenderView(new BigDecimal[] {
+                        new BigDecimal("-0.50000000000000000000000000000000001"), BigDecimal.ZERO},
+                new double[] {2d, 0d}, new double[] {0d, -1.5d}, width, height, limit,
+                TexturedMandelbrot.F64);
+    }
+
+    private static void assertSameCounts(IterationField expected, int x0, int y0,
+                                         IterationField actual) {
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                assertEquals("pixel " + x + ", " + y,
+                        expected.get((y0 + y) * expected.getWidth() + x0 + x),
+                        actual.get(y * actual.getWidth() + x));
+            }
+        }
+    }
+
+    @Test
+    public void counts_surviveReopening() throws Exception {
+        RenderView view = view(100, 70, LIMIT);
+        CpuRenderer renderer = new CpuRenderer(2, 16);
+        IterationField counts = renderer.compute(view);
+        File file = mFolder.newFile();
+
+        IterationFile written = IterationFile.create(file, view, 32);
+        assertEquals(4, written.getTilesAcross());
+        assertEquals(3, written.getTilesDown());
+        assertFalse(written.hasTile(0, 0));
+        // in strips that split tiles, as an export writes them
+        for (int top = 0; top < 70; top += 20) {
+            int rows = Math.min(20, 70 - top);
+            written.write(0, top, renderer.compute(view.strip(top, rows)));
+        }
+        assertTrue(written.hasRegion(0, 0, 100, 70));
+        assertEquals(12, written.getTilesWritten());
+        written.close();
+
+        IterationFile read = IterationFile.open(file, false);
+        assertEquals(view, read.getView());
+        assertEquals(0, view.mCentreExact[0].compareTo(read.getView().mCentreExact[0]));
+        // across the corner of four tiles
+        IterationField region = new IterationField(30, 25, LIMIT);
+        read.read(17, 21, region);
+        assertSameCounts(counts, 17, 21, region);
+        read.close();
+        renderer.shutdown();
+    }
+
+    @Test
+    public void wideCounts_roundTrip() throws Exception {
+        int limit = IterationField.MAX_NARROW_LIMIT + 10;
+        RenderView view = view(40, 30, limit);
+        IterationField field = new IterationField(40, 30, limit);
+        for (int i = 0; i < field.getPixelCount(); i++) {
+            field.set(i, i * 97 % (limit + 1));
+        }
+
+        File file = mFolder.newFile();
+        IterationFile counts = IterationFile.create(file, view, 16);
+        counts.write(0, 0, field);
+        IterationField back = new IterationField(40, 30, limit);
+        counts.read(0, 0, back);
+        assertSameCounts(field, 0, 0, back);
+        counts.close();
+    }
+
+    @Test
+    public void missingTiles_areReported() throws Exception {
+        RenderView view = view(64, 64, LIMIT);
+        IterationFile counts = IterationFile.create(mFolder.newFile(), view, 32);
+        counts.write(0, 0, new IterationField(32, 32, LIMIT));
+        assertTrue(counts.hasRegion(0, 0, 32, 32));
+        assertFalse(counts.hasRegion(0, 0, 33, 32));
+        try {
+            counts.read(16, 16, new IterationField(32, 32, LIMIT));
+            fail("read a missing tile");
+        } catch (IllegalStateException expected) {
+            // tiles (1, 0), (0, 1) and (1, 1) were never written
+        }
+        counts.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws Exception {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[200]);
+        out.close();
+        IterationFile.open(file, false);
+    }
+
+    @Test
+    public void region_exportsAsRendered() throws Exception {
+        RenderView view = view(60, 45, LIMIT);
+        IterationFile counts = IterationFile.create(mFolder.newFile(), view, 16);
+        StripExporter exporter = new StripExporter(new CpuRenderer(2, 16));
+        exporter.setStripHeight(10);
+        exporter.setCountsFile(counts);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        exporter.export(view, CpuRendererTest.gradient(), ColourMapping.ESCAPE_LIMIT,
+                new PngEncoder(whole));
+
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        exporter.export(counts, 11, 7, 35, 30, CpuRendererTest.gradient(),
+                ColourMapping.ESCAPE_LIMIT, new PngEncoder(part));
+        counts.close();
+
+        BufferedImage rendered = ImageIO.read(new ByteArrayInputStream(whole.toByteArray()));
+        BufferedImage region = ImageIO.read(new ByteArrayInputStream(part.toByteArray()));
+        assertEquals(35, region.getWidth());
+        assertEquals(30, region.getHeight());
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 35; x++) {
+                assertEquals(rendered.getRGB(11 + x, 7 + y), region.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compiled gradient palettes, run on the development machine.
+ */
+public class PaletteTest {
+
+    @Test
+    public void compile_samplesEvenlyIncludingEnds() throws Exception {
+        Gradient gradient = new Gradient(
+                new ColorProportion(0f, 100f, 200f, 255f, 0f),
+                new ColorProportion(200f, 0f, 100f, 255f, 1f));
+        Palette palette = gradient.compile(5);
+
+        assertEquals(5, palette.size());
+        assertEquals(0x0064c8ff, palette.getRgba(0));
+        assertEquals(0x643296ff, palette.getRgba(2));
+        assertEquals(0xc80064ff, palette.getRgba(4));
+    }
+
+    @Test
+    public void compile_cachesUntilGradientChanges() throws Exception {
+        Gradient gradient = CpuRendererTest.gradient();
+        Palette first = gradient.compile(150);
+        Palette other = gradient.compile(300);
+
+        assertSame(first, gradient.compile(150));
+        assertSame(other, gradient.compile(300));
+        assertNotEquals(first.getVersion(), other.getVersion());
+
+        gradient.add(new ColorProportion(90f, 0f, 0f, 255f, 0.05f));
+        Palette edited = gradient.compile(150);
+        assertNotSame(first, edited);
+        assertNotEquals(first.getVersion(), edited.getVersion());
+
+        // a colour changed in place through getColours() is noticed too
+        gradient.getColours().get(0).mVec[0] = 255f;
+        assertNotSame(edited, gradient.compile(150));
+    }
+
+    @Test
+    public void compile_handlesColoursCloserThanSamples() throws Exception {
+        Gradient gradient = new Gradient(
+                new ColorProportion(0f, 0f, 0f, 255f, 0f),
+                new ColorProportion(255f, 255f, 255f, 255f, 1f));
+        gradient.add(new ColorProportion(255f, 0f, 0f, 255f, 0.41f));
+        gradient.add(new ColorProportion(0f, 255f, 0f, 255f, 0.42f));
+        gradient.add(new ColorProportion(0f, 0f, 255f, 255f, 0.43f));
+        Palette palette = gradient.compile(3);
+
+        // the middle sample lies past all three inner colours, 0.07 / 0.57 of the way from blue
+        // to white
+        assertEquals(0x1f1fffff, palette.getRgba(1));
+        assertEquals(0xffffffff, palette.getRgba(2));
+    }
+
+    @Test
+    public void writeTo_laysOutRgbaInEitherByteOrder() throws Exception {
+        Palette palette = CpuRendererTest.gradient().compile(150);
+        int[] components = palette.unpack();
+
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer out = ByteBuffer.allocateDirect(150 * 4).order(order);
+            palette.writeTo(out);
+            assertEquals(0, out.position());
+            for (int k = 0; k < components.length; k++) {
+                assertEquals((byte) components[k], out.get(k));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the parallel PNG encoder, run on the development machine.
+ */
+public class ParallelPngEncoderTest {
+
+    // bands with some noise, so that blocks neither compress to nothing nor not at all
+    static ByteBuffer image(int width, int height) {
+        ByteBuffer rgba = ByteBuffer.allocateDirect(width * height * 4);
+        Random random = new Random(3);
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width, y = i / width;
+            int band = (x * x + y * y) / 97;
+            rgba.put(i * 4, (byte) (band * 7));
+            rgba.put(i * 4 + 1, (byte) (band * 13 + random.nextInt(3)));
+            rgba.put(i * 4 + 2, (byte) (x + y));
+            rgba.put(i * 4 + 3, (byte) 255);
+        }
+        return rgba;
+    }
+
+    // writes the image in strips of the given height, from a buffer holding one strip
+    static void encode(ImageEncoder encoder, ByteBuffer image, int width, int height,
+                       int stripHeight) throws Exception {
+        ByteBuffer strip = ByteBuffer.allocateDirect(width * stripHeight * 4);
+        encoder.begin(width, height);
+        for (int top = 0; top < height; top += stripHeight) {
+            int rows = Math.min(stripHeight, height - top);
+            for (int i = 0; i < rows * width * 4; i++) {
+                strip.put(i, image.get(top * width * 4 + i));
+            }
+            encoder.writeRows(strip, rows);
+        }
+        encoder.finish();
+    }
+
+    @Test
+    public void encode_decodesToTheImage() throws Exception {
+        int width = 37, height = 29;
+        ByteBuffer image = image(width, height);
+
+        // blocks of a few rows, some of them split by strip edges
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelPngEncoder encoder = new ParallelPngEncoder(out, 6, 3, 450);
+        encode(encoder, image, width, height, 7);
+        encoder.shutdown();
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 4;
+                int rgba = decoded.getRGB(x, y);
+                int expected = (image.get(i + 3) & 0xff) << 24 | (image.get(i) & 0xff) << 16
+                        | (image.get(i + 1) & 0xff) << 8 | (image.get(i + 2) & 0xff);
+                assertEquals("pixel " + x + ", " + y, expected, rgba);
+            }
+        }
+    }
+
+    @Test
+    public void dictionaries_keepCompressionCloseToOneStream() throws Exception {
+        int width = 256, height = 256;
+        ByteBuffer image = image(width, height);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        encode(new PngEncoder(single), image, width, height, 64);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        ParallelPngEncoder encoder = new ParallelPngEncoder(parallel, -1, 4, 16 << 10);
+        encode(encoder, image, width, height, 64);
+        encoder.shutdown();
+
+        assertTrue(parallel.size() + " against " + single.size(),
+                parallel.size() < single.size() * 1.05d);
+    }
+
+    @Test
+    public void combineAdler_matchesOneChecksum() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(5).nextBytes(data);
+        for (int split : new int[] {0, 1, 5552, 65521, 70000, data.length}) {
+            Adler32 whole = new Adler32();
+            whole.update(data, 0, data.length);
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            assertEquals(whole.getValue(), ParallelPngEncoder.combineAdler(first.getValue(),
+                    second.getValue(), data.length - split));
+        }
+    }
+
+    @Test
+    public void zlibHeader_checksOut() throws Exception {
+        for (int level = -1; level <= 9; level++) {
+            byte[] header = ParallelPngEncoder.zlibHeader(level);
+            assertEquals(0x78, header[0] & 0xff);
+            assertEquals(0, ((header[0] & 0xff) << 8 | (header[1] & 0xff)) % 31);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks perturbation rendering against brute force iteration in BigDecimal.
+ */
+public class PerturbationKernelTest {
+
+    // a point on the boundary in the seahorse valley, given well beyond double precision
+    static final BigDecimal[] SEAHORSE = new BigDecimal[] {
+            new BigDecimal("-0.743643887037158704752191506114774"),
+            new BigDecimal("0.131825904205311970493132056385139")};
+
+    static RenderView deepView(double width, int size, int limit, int precision) {
+        return new RenderView(SEAHORSE,
+                new double[] {width, 0d},
+                new double[] {0d, width},
+                size, size, limit, precision);
+    }
+
+    // escape count of pixel (px, py), iterated directly at the given number of digits
+    static int bruteForce(RenderView view, int px, int py, int digits) {
+        MathContext mc = new MathContext(digits, RoundingMode.HALF_EVEN);
+        double du = 2d * (px + 0.5d) / view.mWidth - 1d;
+        double dv = 2d * (py + 0.5d) / view.mHeight - 1d;
+        BigDecimal cr = view.mCentreExact[0]
+                .add(new BigDecimal(du * view.mVecA[0] + dv * view.mVecB[0]), mc);
+        BigDecimal ci = view.mCentreExact[1]
+                .add(new BigDecimal(du * view.mVecA[1] + dv * view.mVecB[1]), mc);
+        BigDecimal zr = cr, zi = ci, t;
+        BigDecimal four = BigDecimal.valueOf(4);
+        int i;
+
+        for (i = 0; i < view.mEscapeLimit; i++) {
+            if (zr.multiply(zr, mc).add(zi.multiply(zi, mc), mc).compareTo(four) > 0) break;
+            t = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+            zi = zr.multiply(zi, mc).multiply(BigDecimal.valueOf(2), mc).add(ci, mc);
+            zr = t;
+        }
+        return i;
+    }
+
+    @Test
+    public void referenceOrbit_digitsFollowZoom() throws Exception {
+        int shallow = ReferenceOrbit.digitsFor(
+                deepView(1e-5, 100, 100, TexturedMandelbrot.PERTURBATION));
+        int deep = ReferenceOrbit.digitsFor(
+                deepView(1e-100, 100, 100, TexturedMandelbrot.PERTURBATION));
+        assertEquals(deep - shallow, 95);
+        assertTrue(deep >= 102 + ReferenceOrbit.GUARD_DIGITS);
+    }
+
+    @Test
+    public void perturbation_matchesBruteForceAtDeepZoom() throws Exception {
+        RenderView view = deepView(1e-30, 16, 3000, TexturedMandelbrot.PERTURBATION);
+        EscapeKernel kernel = EscapeKernel.create(view);
+
+        int mismatches = 0;
+        for (int y = 0; y < 16; y += 3) {
+            for (int x = 0; x < 16; x += 3) {
+                if (kernel.escapeTime(x, y, new RenderStatistics()) != bruteForce(view, x, y, 60)) {
+                    mismatches++;
+                }
+            }
+        }
+        assertEquals(0, mismatches);
+    }
+
+    @Test
+    public void perturbation_resolvesBeyondEmulatedDouble() throws Exception {
+        RenderView view = deepView(1e-20, 32, 12000, TexturedMandelbrot.PERTURBATION);
+        EscapeKernel kernel = EscapeKernel.create(view);
+
+        int first = kernel.escapeTime(0, 0, new RenderStatistics());
+        boolean varied = false;
+        for (int x = 1; x < 32; x++) {
+            varied |= kernel.escapeTime(x, x, new RenderStatistics()) != first;
+        }
+        assertTrue("a view this deep should still show structure", varied);
+    }
+
+    static EscapeKernel kernel(RenderView view, boolean series, boolean linear) {
+        PerturbationKernel.setSeriesApproximation(series);
+        PerturbationKernel.setLinearApproximation(linear);
+        try {
+            return EscapeKernel.create(view);
+        } finally {
+            PerturbationKernel.setSeriesApproximation(true);
+            PerturbationKernel.setLinearApproximation(true);
+        }
+    }
+
+    // counts the pixels where the two kernels disagree
+    static int mismatches(EscapeKernel a, RenderStatistics aStats,
+                          EscapeKernel b, RenderStatistics bStats) {
+        int mismatches = 0;
+        for (int y = 0; y < a.mView.mHeight; y++) {
+            for (int x = 0; x < a.mView.mWidth; x++) {
+                if (a.escapeTime(x, y, aStats) != b.escapeTime(x, y, bStats)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    @Test
+    public void seriesApproximation_skipsWithoutChangingResult() throws Exception {
+        RenderView view = deepView(1e-50, 24, 5000, TexturedMandelbrot.PERTURBATION);
+        RenderStatistics skipped = new RenderStatistics();
+        RenderStatistics plain = new RenderStatistics();
+
+        assertEquals(0, mismatches(kernel(view, true, false), skipped,
+                kernel(view, false, false), plain));
+        assertEquals(0, plain.getIterationsSkipped());
+        // at this depth nearly the whole shared orbit prefix should go
+        assertTrue("skipped " + skipped.getIterationsSkipped(),
+                skipped.getIterationsSkipped() > 24 * 24 * 100);
+    }
+
+    @Test
+    public void linearApproximation_skipsWithoutChangingResult() throws Exception {
+        RenderView view = deepView(1e-20, 24, 20000, TexturedMandelbrot.PERTURBATION);
+        RenderStatistics skipped = new RenderStatistics();
+        RenderStatistics plain = new RenderStatistics();
+
+        int mismatches = mismatches(kernel(view, false, true), skipped,
+                kernel(view, false, false), plain);
+        assertTrue("mismatches " + mismatches, mismatches <= 24 * 24 / 100);
+        assertTrue(skipped.getApproximationSteps() > 0);
+        // escape counts here are around 9000
+        assertTrue("skipped " + skipped.getIterationsSkipped(),
+                skipped.getIterationsSkipped() > 24 * 24 * 1000);
+    }
+
+    @Test
+    public void renderer_fixesGlitchesWithSecondaryReferences() throws Exception {
+        // off centre, the reference escapes after ~1100 iterations while parts of the view live
+        // much longer
+        RenderView view = new RenderView(
+                new BigDecimal[] {SEAHORSE[0].add(new BigDecimal(0.7e-10)), SEAHORSE[1]},
+                new double[] {1e-10, 0d},
+                new double[] {0d, 1e-10},
+                16, 16, 4000, TexturedMandelbrot.PERTURBATION);
+        Gradient gradient = CpuRendererTest.gradient();
+        int[] texture = gradient.makeGradient(view.mEscapeLimit);
+
+        CpuRenderer renderer = new CpuRenderer(2, 8);
+        ByteBuffer out = CpuRenderer.allocateFrame(view);
+        renderer.render(view, gradient, out);
+        renderer.shutdown();
+
+        RenderStatistics stats = renderer.getStatistics();
+        assertTrue(ReferenceOrbit.forView(view).escaped());
+        assertTrue(stats.getGlitchedPixels() > 0);
+        assertTrue(stats.getSecondaryReferences() > 0);
+
+        int mismatches = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                int texel = Math.min(bruteForce(view, x, y, 40), view.mEscapeLimit - 1) * 4;
+                int offset = (y * 16 + x) * 4;
+                for (int k = 0; k < 4; k++) {
+                    if (out.get(offset + k) != (byte) texture[texel + k]) {
+                        mismatches++;
+                        break;
+                    }
+                }
+            }
+        }
+        assertEquals(0, mismatches);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.phillip.fractalexplorer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Times PngEncoder and ParallelPngEncoder on a wide image, handed over in export sized strips,
+ * for each thread count up to the number of cores. Run the main method on the development
+ * machine; it is not part of the unit tests.
+ */
+public class PngEncoderBenchmark {
+
+    private static final int WIDTH = 16384;
+    private static final int HEIGHT = 2048;
+    private static final int STRIP_HEIGHT = 32;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        ByteBuffer image = ParallelPngEncoderTest.image(WIDTH, HEIGHT);
+        double megabytes = WIDTH * (double) HEIGHT * 4 / (1 << 20);
+
+        double single = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            single = Math.min(single, time(new PngEncoder(new Discard()), image));
+        }
+        System.out.printf("PngEncoder:               %7.1f MB/s%n", megabytes / single);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double parallel = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                ParallelPngEncoder encoder = new ParallelPngEncoder(new Discard(),
+                        Deflater.DEFAULT_COMPRESSION, threads);
+                parallel = Math.min(parallel, time(encoder, image));
+                encoder.shutdown();
+            }
+            System.out.printf("ParallelPngEncoder, %2d: %7.1f MB/s, %.1fx%n", threads,
+                    megabytes / parallel, single / parallel);
+        }
+    }
+
+    private static double time(ImageEncoder encoder, ByteBuffer image) throws Exception {
+        long start = System.nanoTime();
+        ParallelPngEncoderTest.encode(encoder, image, WIDTH, HEIGHT, STRIP_HEIGHT);
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static final class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
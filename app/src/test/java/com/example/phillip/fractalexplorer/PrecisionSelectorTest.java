@@ -0,0 +1,79 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.example.phillip.fractalexplorer.PerturbationKernelTest.deepView;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the precision ladder over a range of zoom depths, and choosing the model per tile.
+ */
+public class PrecisionSelectorTest {
+
+    private static final int LIMIT = 1000;
+
+    private static int forWidth(double width) {
+        return PrecisionSelector.forFrame(deepView(width, 100, LIMIT, TexturedMandelbrot.F32));
+    }
+
+    @After
+    public void restorePerturbation() {
+        PrecisionSelector.setPerturbation(true);
+    }
+
+    @Test
+    public void forFrame_cheapestSufficientModel() throws Exception {
+        assertEquals(TexturedMandelbrot.F32, forWidth(1e-1));
+        assertEquals(TexturedMandelbrot.EMULATED_DOUBLE, forWidth(1e-6));
+        assertEquals(TexturedMandelbrot.F64, forWidth(1e-10));
+        assertEquals(TexturedMandelbrot.FIXED_64, forWidth(1e-12));
+        assertEquals(TexturedMandelbrot.PERTURBATION, forWidth(1e-20));
+        assertEquals(TexturedMandelbrot.PERTURBATION, forWidth(1e-200));
+    }
+
+    @Test
+    public void forFrame_withoutPerturbation() throws Exception {
+        PrecisionSelector.setPerturbation(false);
+        assertEquals(TexturedMandelbrot.FIXED_64, forWidth(1e-12));
+        assertEquals(TexturedMandelbrot.DOUBLE_DOUBLE, forWidth(1e-20));
+        assertEquals(TexturedMandelbrot.FIXED_128, forWidth(1e-30));
+        assertEquals(TexturedMandelbrot.QUAD_DOUBLE, forWidth(1e-40));
+        assertEquals(TexturedMandelbrot.QUAD_DOUBLE, forWidth(1e-200));
+    }
+
+    @Test
+    public void forTile_onlyStepsDown() throws Exception {
+        RenderView fixed = deepView(1e-10, 64, LIMIT, TexturedMandelbrot.FIXED_64);
+        assertEquals(TexturedMandelbrot.F64, PrecisionSelector.forTile(fixed, 0, 0, 16, 16));
+
+        RenderView deep = deepView(1e-20, 64, LIMIT, TexturedMandelbrot.PERTURBATION);
+        assertEquals(TexturedMandelbrot.PERTURBATION,
+                PrecisionSelector.forTile(deep, 0, 0, 16, 16));
+
+        // nothing on the CPU is cheaper than F64
+        RenderView f64 = deepView(1e-1, 64, LIMIT, TexturedMandelbrot.F64);
+        assertEquals(TexturedMandelbrot.F64, PrecisionSelector.forTile(f64, 0, 0, 16, 16));
+    }
+
+    @Test
+    public void render_perTileUsesCheaperKernel() throws Exception {
+        RenderView fixed = deepView(1e-10, 32, LIMIT, TexturedMandelbrot.FIXED_64);
+        RenderView f64 = fixed.withPrecision(TexturedMandelbrot.F64);
+        ByteBuffer expected = CpuRenderer.allocateFrame(f64);
+        ByteBuffer perTile = CpuRenderer.allocateFrame(fixed);
+
+        CpuRenderer renderer = new CpuRenderer(2, 8);
+        renderer.render(f64, CpuRendererTest.gradient(), expected);
+        renderer.getStatistics().reset();
+        renderer.setPrecisionPerTile(true);
+        renderer.render(fixed, CpuRendererTest.gradient(), perTile);
+        renderer.shutdown();
+
+        assertEquals(expected, perTile);
+        assertEquals(16, renderer.getStatistics().getTiles(TexturedMandelbrot.F64));
+        assertEquals(0, renderer.getStatistics().getTiles(TexturedMandelbrot.FIXED_64));
+    }
+}
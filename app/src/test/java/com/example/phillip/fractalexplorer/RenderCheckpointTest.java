@@ -0,0 +1,178 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for checkpointed exports, run on the development machine.
+ */
+public class RenderCheckpointTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static RenderView view(int limit, int precision) {
+        BigDecimal[] centre = {
+                new BigDecimal("-0.7436438870371587"), new BigDecimal("0.1318259042053119")};
+        return new RenderView(centre,
+                new double[] {2e-4, 0d}, new double[] {0d, -1.5e-4}, 48, 36, limit, precision);
+    }
+
+    private RenderCheckpoint checkpoint() {
+        File folder = mFolder.getRoot();
+        RenderCheckpoint checkpoint = new RenderCheckpoint(new File(folder, "export.progress"),
+                new File(folder, "export.counts"));
+        checkpoint.setInterval(0);
+        return checkpoint;
+    }
+
+    private static byte[] export(StripExporter exporter, RenderView view) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(view, CpuRendererTest.gradient(), ColourMapping.ESCAPE_LIMIT,
+                new PngEncoder(out));
+        return out.toByteArray();
+    }
+
+    // stops the export once the given number of strips are written
+    private static void exportUntil(final StripExporter exporter, RenderView view,
+                                    final int strips) throws IOException {
+        final PngEncoder png = new PngEncoder(new ByteArrayOutputStream());
+        ImageEncoder encoder = new ImageEncoder() {
+            private int mStrips;
+
+            @Override
+            public void begin(int width, int height) throws IOException {
+                png.begin(width, height);
+            }
+
+            @Override
+            public void writeRows(ByteBuffer rgba, int rows) throws IOException {
+                png.writeRows(rgba, rows);
+                if (++mStrips == strips) {
+                    exporter.cancel();
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                png.finish();
+            }
+        };
+        try {
+            exporter.export(view, CpuRendererTest.gradient(), ColourMapping.ESCAPE_LIMIT,
+                    encoder);
+            fail("export ran to the end");
+        } catch (InterruptedIOException expected) {
+            // the strips before were saved
+        }
+    }
+
+    @Test
+    public void stoppedExport_resumesWhereItStopped() throws Exception {
+        RenderView view = view(400, TexturedMandelbrot.PERTURBATION);
+        StripExporter fresh = new StripExporter(new CpuRenderer(2, 16));
+        fresh.setStripHeight(8);
+        byte[] expected = export(fresh, view);
+
+        StripExporter stopped = new StripExporter(new CpuRenderer(2, 16));
+        stopped.setStripHeight(8);
+        RenderCheckpoint first = checkpoint();
+        stopped.setCheckpoint(first);
+        exportUntil(stopped, view, 3);
+        first.close();
+
+        // as though the process had been started again
+        StripExporter resumed = new StripExporter(new CpuRenderer(2, 16));
+        resumed.setStripHeight(8);
+        RenderCheckpoint second = checkpoint();
+        resumed.setCheckpoint(second);
+        assertArrayEquals(expected, export(resumed, view));
+        assertEquals(24, resumed.getRowsResumed());
+        assertEquals(36, second.getRowsDone());
+        second.close();
+    }
+
+    @Test
+    public void otherView_startsAgain() throws Exception {
+        StripExporter exporter = new StripExporter(new CpuRenderer(2, 16));
+        exporter.setStripHeight(8);
+        RenderCheckpoint checkpoint = checkpoint();
+        exporter.setCheckpoint(checkpoint);
+        export(exporter, view(200, TexturedMandelbrot.F64));
+        export(exporter, view(200, TexturedMandelbrot.F64));
+        assertEquals(36, exporter.getRowsResumed());
+
+        export(exporter, view(300, TexturedMandelbrot.F64));
+        assertEquals(0, exporter.getRowsResumed());
+        // and in strips of another height
+        exporter.setStripHeight(12);
+        export(exporter, view(300, TexturedMandelbrot.F64));
+        assertEquals(0, exporter.getRowsResumed());
+        checkpoint.close();
+    }
+
+    @Test
+    public void referenceOrbit_survivesReopening() throws Exception {
+        RenderView view = view(1000, TexturedMandelbrot.PERTURBATION);
+        RenderCheckpoint first = checkpoint();
+        first.begin(view, 8);
+        ReferenceOrbit iterated = first.referenceOrbit();
+        first.close();
+
+        RenderCheckpoint second = checkpoint();
+        assertEquals(0, second.begin(view, 8));
+        ReferenceOrbit read = second.referenceOrbit();
+        second.close();
+        assertEquals(iterated.mLength, read.mLength);
+        assertEquals(iterated.mDigits, read.mDigits);
+        for (int n = 0; n < iterated.mLength; n++) {
+            assertEquals(iterated.mZr[n], read.mZr[n], 0d);
+            assertEquals(iterated.mZi[n], read.mZi[n], 0d);
+        }
+    }
+
+    @Test
+    public void resumedOrbit_matchesUninterrupted() {
+        // in the main cardioid, so that it runs to the limit
+        BigDecimal cr = new BigDecimal("-0.1");
+        BigDecimal ci = new BigDecimal("0.1");
+        int limit = 3 * ReferenceOrbit.PROGRESS_INTERVAL;
+        final int stopAt = 2 * ReferenceOrbit.PROGRESS_INTERVAL;
+        final int digits = 40;
+        final int limbs = ReferenceOrbit.limbsFor(digits);
+        final FixedPoint fromR = new FixedPoint(limbs);
+        final FixedPoint fromI = new FixedPoint(limbs);
+        final double[][] saved = new double[2][];
+        ReferenceOrbit whole = ReferenceOrbit.resume(cr, ci, limit, digits, null, null, 0,
+                null, null, new ReferenceOrbit.Listener() {
+                    @Override
+                    public void progress(ReferenceOrbit orbit, int count, FixedPoint zr,
+                                         FixedPoint zi) {
+                        if (count != stopAt) return;
+                        fromR.set(zr);
+                        fromI.set(zi);
+                        saved[0] = orbit.mZr.clone();
+                        saved[1] = orbit.mZi.clone();
+                    }
+                });
+
+        ReferenceOrbit resumed = ReferenceOrbit.resume(cr, ci, limit, digits,
+                saved[0], saved[1], stopAt, fromR, fromI, null);
+        assertEquals(limit + 1, whole.mLength);
+        assertEquals(whole.mLength, resumed.mLength);
+        for (int n = 0; n < whole.mLength; n++) {
+            assertEquals(whole.mZr[n], resumed.mZr[n], 0d);
+            assertEquals(whole.mZi[n], resumed.mZi[n], 0d);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for strip exports and the PNG encoder, run on the development machine.
+ */
+public class StripExporterTest {
+
+    private static final int LIMIT = 150;
+
+    private static RenderView view(int width, int height) {
+        return new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 0d}, new double[] {0d, -1.5d}, width, height, LIMIT,
+                TexturedMandelbrot.F64);
+    }
+
+    // the pixels of a decoded image as R, G, B, A bytes
+    private static byte[] rgba(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        byte[] bytes = new byte[width * height * 4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = image.getRGB(x, y);
+                int i = (y * width + x) * 4;
+                bytes[i] = (byte) (argb >>> 16);
+                bytes[i + 1] = (byte) (argb >>> 8);
+                bytes[i + 2] = (byte) argb;
+                bytes[i + 3] = (byte) (argb >>> 24);
+            }
+        }
+        return bytes;
+    }
+
+    @Test
+    public void strip_hasTheRowsOfTheView() throws Exception {
+        RenderView view = view(40, 32);
+        RenderView strip = view.strip(8, 8);
+        // a quarter of the height, its centre a quarter of vecB above the view's
+        assertEquals(-0.375d, strip.mVecB[1], 0d);
+        assertEquals(0.375d, strip.mCentreExact[1].doubleValue(), 0d);
+        assertSame(view, view.strip(0, 32));
+    }
+
+    @Test
+    public void export_matchesAWholeFrame() throws Exception {
+        RenderView view = view(48, 36);
+        CpuRenderer whole = new CpuRenderer(2, 16);
+        ByteBuffer expected = CpuRenderer.allocateFrame(view);
+        whole.render(view, CpuRendererTest.gradient(), expected);
+
+        CpuRenderer renderer = new CpuRenderer(2, 16);
+        StripExporter exporter = new StripExporter(renderer);
+        // strips that do not divide the height
+        exporter.setStripHeight(8);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        exporter.export(view, CpuRendererTest.gradient(), ColourMapping.ESCAPE_LIMIT,
+                new PngEncoder(png));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        assertEquals(48, image.getWidth());
+        assertEquals(36, image.getHeight());
+        byte[] pixels = new byte[view.getPixelCount() * 4];
+        expected.get(pixels);
+        assertArrayEquals(pixels, rgba(image));
+        whole.shutdown();
+        renderer.shutdown();
+    }
+
+    @Test
+    public void stripHeight_fitsTheStripPixels() throws Exception {
+        StripExporter exporter = new StripExporter(new CpuRenderer(1, 16));
+        assertEquals(StripExporter.STRIP_PIXELS / 100000,
+                exporter.stripHeight(view(100000, 100000)));
+        assertEquals(1, exporter.stripHeight(view(StripExporter.STRIP_PIXELS * 2, 10)));
+        assertEquals(10, exporter.stripHeight(view(100, 10)));
+    }
+
+    @Test
+    public void export_largerThanTheSurface_picksAModelForItsSize() throws Exception {
+        // F32 resolves the view on a 16 x 12 surface, but not 16 times as wide
+        BigDecimal[] centre = {
+                new BigDecimal("-0.74364"), new BigDecimal("0.13182")};
+        RenderView shown = new RenderView(centre, new double[] {4e-4, 0d},
+                new double[] {0d, -3e-4}, 16, 12, LIMIT, TexturedMandelbrot.F32);
+        assertEquals(TexturedMandelbrot.F32, PrecisionSelector.forFrame(shown));
+        assertEquals(TexturedMandelbrot.F32, PrecisionSelector.forExport(shown));
+        RenderView large = new RenderView(centre, shown.mVecA, shown.mVecB, 256, 192, LIMIT,
+                shown.mPrecision);
+        int precision = PrecisionSelector.forExport(large);
+        assertNotEquals(TexturedMandelbrot.F32, precision);
+        assertTrue(PrecisionSelector.resolves(precision, large.pixelSpacing(),
+                PrecisionSelector.largestCoordinate(large, 0, 0, 256, 192)));
+        // never a cheaper model than the one the view has
+        assertEquals(TexturedMandelbrot.QUAD_DOUBLE,
+                PrecisionSelector.forExport(large.withPrecision(TexturedMandelbrot.QUAD_DOUBLE)));
+
+        RenderView exported = large.withPrecision(precision);
+        CpuRenderer whole = new CpuRenderer(2, 16);
+        ByteBuffer expected = CpuRenderer.allocateFrame(exported);
+        whole.render(exported, CpuRendererTest.gradient(), expected);
+        StripExporter exporter = new StripExporter(new CpuRenderer(2, 16));
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        exporter.export(exported, CpuRendererTest.gradient(), ColourMapping.ESCAPE_LIMIT,
+                new PngEncoder(png));
+
+        byte[] pixels = new byte[exported.getPixelCount() * 4];
+        expected.get(pixels);
+        byte[] image = rgba(ImageIO.read(new ByteArrayInputStream(png.toByteArray())));
+        assertArrayEquals(pixels, image);
+        // the model of the surface gets it wrong at this size
+        ByteBuffer blocky = CpuRenderer.allocateFrame(large);
+        whole.render(large, CpuRendererTest.gradient(), blocky);
+        byte[] blockyPixels = new byte[large.getPixelCount() * 4];
+        blocky.get(blockyPixels);
+        assertFalse(Arrays.equals(blockyPixels, image));
+        whole.shutdown();
+    }
+
+    @Test
+    public void cancel_stopsTheExport() throws Exception {
+        final StripExporter exporter = new StripExporter(new CpuRenderer(1, 16));
+        exporter.setStripHeight(1);
+        final PngEncoder png = new PngEncoder(new ByteArrayOutputStream());
+        ImageEncoder encoder = new ImageEncoder() {
+            @Override
+            public void begin(int width, int height) throws IOException {
+                png.begin(width, height);
+            }
+
+            @Override
+            public void writeRows(ByteBuffer rgba, int rows) throws IOException {
+                png.writeRows(rgba, rows);
+                exporter.cancel();
+            }
+
+            @Override
+            public void finish() throws IOException {
+                png.finish();
+            }
+        };
+        try {
+            exporter.export(view(16, 16), CpuRendererTest.gradient(),
+                    ColourMapping.ESCAPE_LIMIT, encoder);
+            fail("export ran to the end");
+        } catch (InterruptedIOException expected) {
+            // the first row was written, the second dropped
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finish_rejectsMissingRows() throws Exception {
+        PngEncoder encoder = new PngEncoder(new ByteArrayOutputStream());
+        encoder.begin(4, 4);
+        encoder.writeRows(ByteBuffer.allocateDirect(4 * 4 * 2), 2);
+        encoder.finish();
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.phillip.fractalexplorer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the tile cache, run on the development machine.
+ */
+public class TileCacheTest {
+
+    private static final int LIMIT = 150;
+    private static final int SIZE = 128;
+
+    // a view whose pixel centres lie on the lattice of spacing 1/32, pixel (0, 0) being lattice
+    // point (-79 + dx, -64 + dy); two whole tiles fit in it
+    private static RenderView fineView(int dx, int dy) {
+        return new RenderView(new double[] {-0.5d + 1d / 64 + dx / 32d, 1d / 64 - dy / 32d},
+                new double[] {2d, 0d}, new double[] {0d, -2d}, SIZE, SIZE, LIMIT,
+                TexturedMandelbrot.F64);
+    }
+
+    // on the lattice of spacing 1/16, which holds every other point of the fine one
+    private static RenderView coarseView() {
+        return new RenderView(new double[] {-0.5d + 1d / 32, -1d / 32},
+                new double[] {4d, 0d}, new double[] {0d, -4d}, SIZE, SIZE, LIMIT,
+                TexturedMandelbrot.F64);
+    }
+
+    private static CpuRenderer renderer(TileCache cache) {
+        CpuRenderer renderer = new CpuRenderer(2, 16);
+        renderer.setSubdivision(false);
+        renderer.setIncrementalPan(false);
+        renderer.setZoomReuse(false);
+        renderer.setTileCache(cache);
+        return renderer;
+    }
+
+    @Test
+    public void latticeIndex_wholeOnlyOnTheLattice() throws Exception {
+        assertEquals(-79, fineView(0, 0).latticeIndex()[0].doubleValue(), 0d);
+        assertEquals(-64, fineView(0, 0).latticeIndex()[1].doubleValue(), 0d);
+        RenderView offLattice = new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 0d}, new double[] {0d, -2d}, SIZE, SIZE, LIMIT,
+                TexturedMandelbrot.F64);
+        assertEquals(0.5d, Math.abs(offLattice.latticeIndex()[0].doubleValue() % 1d), 0d);
+        RenderView rotated = new RenderView(new double[] {-0.5d, 0d},
+                new double[] {2d, 1d}, new double[] {-1d, 2d}, SIZE, SIZE, LIMIT,
+                TexturedMandelbrot.F64);
+        assertNull(rotated.latticeIndex());
+    }
+
+    @Test
+    public void returningToAView_hitsItsTiles() throws Exception {
+        TileCache cache = new TileCache(TileCache.DEFAULT_BUDGET_BYTES);
+        CpuRenderer cached = renderer(cache);
+        CpuRenderer fresh = renderer(null);
+        ByteBuffer out = CpuRenderer.allocateFrame(fineView(0, 0));
+        ByteBuffer expected = CpuRenderer.allocateFrame(fineView(0, 0));
+
+        cached.render(fineView(0, 0), CpuRendererTest.gradient(), out);
+        assertEquals(2, cache.getTileCount());
+        assertEquals(0, cache.getHits());
+
+        // well away, then back
+        cached.render(fineView(3 * SIZE, 0), CpuRendererTest.gradient(), out);
+        cache.resetCounters();
+        cached.render(fineView(0, 0), CpuRendererTest.gradient(), out);
+        fresh.render(fineView(0, 0), CpuRendererTest.gradient(), expected);
+        assertEquals(expected, out);
+
+        int tilePixels = TileCache.TILE_SIZE * TileCache.TILE_SIZE;
+        assertEquals(2, cache.getHits());
+        assertEquals(2 * tilePixels, cached.getStatistics().getPixelsReused());
+        assertEquals(SIZE * SIZE - 2 * tilePixels, cached.getStatistics().getPixelsComputed());
+
+        // another escape limit is another tile
+        cache.resetCounters();
+        cached.compute(fineView(0, 0).withEscapeLimit(LIMIT * 2));
+        assertEquals(0, cache.getHits());
+        cached.shutdown();
+        fresh.shutdown();
+    }
+
+    @Test
+    public void missingTiles_assembledFromOtherLevels() throws Exception {
+        TileCache cache = new TileCache(TileCache.DEFAULT_BUDGET_BYTES);
+        CpuRenderer cached = renderer(cache);
+        CpuRenderer fresh = renderer(null);
+        ByteBuffer out = CpuRenderer.allocateFrame(fineView(0, 0));
+        ByteBuffer expected = CpuRenderer.allocateFrame(fineView(0, 0));
+
+        // zooming out: the fine tiles are children of coarse ones
+        cached.render(fineView(0, 0), CpuRendererTest.gradient(), out);
+        cache.resetCounters();
+        cached.render(coarseView(), CpuRendererTest.gradient(), out);
+        fresh.render(coarseView(), CpuRendererTest.gradient(), expected);
+        assertEquals(expected, out);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getAssembled());
+        int quarterTile = TileCache.TILE_SIZE * TileCache.TILE_SIZE / 4;
+        assertEquals(2 * quarterTile, cached.getStatistics().getPixelsReused());
+
+        // zooming in: every fine tile inside a coarse one gets a quarter of its points
+        cache.clear();
+        cached.render(coarseView(), CpuRendererTest.gradient(), out);
+        cache.resetCounters();
+        cached.render(fineView(0, 0), CpuRendererTest.gradient(), out);
+        fresh.render(fineView(0, 0), CpuRendererTest.gradient(), expected);
+        assertEquals(expected, out);
+        assertTrue("assembled: " + cache.getAssembled(), cache.getAssembled() > 0);
+        // tiles at the edges of the view only partly in it
+        long reused = cached.getStatistics().getPixelsReused();
+        assertTrue("reused: " + reused,
+                reused > 0 && reused <= cache.getAssembled() * quarterTile);
+        cached.shutdown();
+        fresh.shutdown();
+    }
+
+    @Test
+    public void overBudget_evictsLeastRecentlyUsed() throws Exception {
+        IterationField sample = new IterationField(TileCache.TILE_SIZE, TileCache.TILE_SIZE,
+                LIMIT);
+        long tileBytes = (long) sample.getPixelCount() * sample.getBytesPerPixel();
+        TileCache cache = new TileCache(tileBytes * 3);
+        CpuRenderer cached = renderer(cache);
+
+        cached.compute(fineView(0, 0));
+        cached.compute(fineView(3 * SIZE, 0));
+        assertEquals(3, cache.getTileCount());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= cache.getBudget());
+
+        // the newest view's tiles survive, the oldest's first one went
+        cache.resetCounters();
+        cached.compute(fineView(3 * SIZE, 0));
+        assertEquals(2, cache.getHits());
+
+        cache.setBudget(0);
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getBytes());
+        cached.shutdown();
+    }
+}